@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates the optimizers under benchmark by name.
+ */
+final class BenchmarkOptimizers {
+
+    static final String LBFGS = "LBFGS";
+    static final String LBFGS_VECTOR_FREE = "LBFGS-VF";
+    static final String OWLQN = "OWLQN";
+    static final String CG = "CG";
+    static final String GA = "GA";
+    static final String AGIS = "AGIS";
+    static final String SMA = "SMA";
+
+    static final int NUM_BATCHES = 4;
+
+    // keeps the configured logger from being garbage collected
+    private static final Logger LOGGER = Logger.getLogger("mallet.bfgs");
+
+    /**
+     * Turns off the logging of the optimizers (all but SEVERE), so that the
+     * benchmarks measure the numerical work.
+     */
+    static void quietLogging() {
+        LOGGER.setLevel(Level.SEVERE);
+    }
+
+    static Optimizer create(String name, SeparableQuadratic function, int m) {
+        if (LBFGS.equals(name)) {
+            return new LimitedMemoryBFGS(function, m);
+        }
+        if (LBFGS_VECTOR_FREE.equals(name)) {
+            LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(function, m);
+            bfgs.setVectorFree(true);
+            return bfgs;
+        }
+        if (OWLQN.equals(name)) {
+            return new OrthantWiseLimitedMemoryBFGS(function, 0.1, m);
+        }
+        if (CG.equals(name)) {
+            return new ConjugateGradient(function);
+        }
+        if (GA.equals(name)) {
+            return new GradientAscent(function);
+        }
+        if (AGIS.equals(name)) {
+            return new AGIS(function, 1.1);
+        }
+        if (SMA.equals(name)) {
+            return new Batches(function);
+        }
+        throw new IllegalArgumentException("unknown optimizer: " + name);
+    }
+
+    // runs StochasticMetaAscent over a fixed round-robin batch assignment
+    private static final class Batches implements Optimizer {
+        private final StochasticMetaAscent sma;
+        private final SeparableQuadratic function;
+        private final int[] assignments;
+        private boolean converged;
+
+        Batches(SeparableQuadratic function) {
+            this.function = function;
+            sma = new StochasticMetaAscent(function);
+            assignments = new int[function.getNumParameters()];
+            for (int i = 0; i < assignments.length; i++) {
+                assignments[i] = i % NUM_BATCHES;
+            }
+        }
+
+        public boolean optimize() {
+            converged = sma.optimize(NUM_BATCHES, assignments);
+            return converged;
+        }
+
+        public boolean optimize(int numIterations) {
+            converged = sma.optimize(numIterations, NUM_BATCHES, assignments);
+            return converged;
+        }
+
+        public boolean isConverged() {
+            return converged;
+        }
+
+        public Optimizable getOptimizable() {
+            return function;
+        }
+    }
+
+    private BenchmarkOptimizers() {
+        throw new AssertionError();
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Main class of the benchmark jar. Accepts the usual JMH command line options
+ * (e.g. a benchmark name filter or {@code -p n=100000000}) and always enables
+ * the GC profiler, which reports the allocation rate per operation.
+ */
+public final class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException,
+            CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+
+    private BenchmarkRunner() {
+        throw new AssertionError();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * A single line search along the gradient at the origin of a
+ * {@link SeparableQuadratic}. Each invocation includes moving the parameters
+ * back to the origin.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+public class LineSearchBenchmark {
+
+    @Param({ "BackTrack", "MoreThuente" })
+    String search;
+
+    @Param({ "1000", "100000", "10000000" })
+    int n;
+
+    private SeparableQuadratic function;
+    private LineOptimizer.ByGradient lineOptimizer;
+    private double[] gradient;
+    private double[] line;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkOptimizers.quietLogging();
+        function = new SeparableQuadratic(n, 1e3);
+        gradient = new double[n];
+        line = new double[n];
+        function.getValueGradient(gradient);
+        if ("BackTrack".equals(search)) {
+            lineOptimizer = new BackTrackLineSearch(function);
+        } else {
+            lineOptimizer = new MoreThuenteLineSearch(function);
+        }
+    }
+
+    @Benchmark
+    public double lineSearch() {
+        function.reset();
+        // BackTrackLineSearch may rescale the direction
+        System.arraycopy(gradient, 0, line, 0, n);
+        return lineOptimizer.optimize(line, 1.0);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Time to convergence of the optimizers from the origin on a
+ * {@link SeparableQuadratic} with condition number 1e2. The history size m
+ * only applies to the L-BFGS variants.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+public class OptimizerConvergenceBenchmark {
+
+    @Param({ "LBFGS", "LBFGS-VF", "OWLQN", "CG", "GA", "AGIS", "SMA" })
+    String optimizer;
+
+    @Param({ "1000", "100000", "10000000" })
+    int n;
+
+    @Param({ "4", "20" })
+    int m;
+
+    private SeparableQuadratic function;
+    private Optimizer opt;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkOptimizers.quietLogging();
+        function = new SeparableQuadratic(n, 1e2);
+    }
+
+    @Setup(Level.Invocation)
+    public void restart() {
+        function.reset();
+        opt = BenchmarkOptimizers.create(optimizer, function, m);
+    }
+
+    @Benchmark
+    public double converge() {
+        try {
+            opt.optimize();
+        } catch (OptimizationException e) {
+            // the line search gave up close to the maximum
+        }
+        return function.getValue();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Time per iteration of the optimizers on a {@link SeparableQuadratic} with
+ * condition number 1e3. The search is restarted from the origin whenever an
+ * optimizer has converged or given up. The history size m only applies to
+ * the L-BFGS variants.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+public class OptimizerIterationBenchmark {
+
+    @Param({ "LBFGS", "LBFGS-VF", "OWLQN", "CG", "GA", "AGIS", "SMA" })
+    String optimizer;
+
+    @Param({ "1000", "100000", "10000000" })
+    int n;
+
+    @Param({ "4", "20" })
+    int m;
+
+    private SeparableQuadratic function;
+    private Optimizer opt;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkOptimizers.quietLogging();
+        function = new SeparableQuadratic(n, 1e3);
+        restart();
+    }
+
+    private void restart() {
+        function.reset();
+        opt = BenchmarkOptimizers.create(optimizer, function, m);
+    }
+
+    @Benchmark
+    public boolean iteration() {
+        try {
+            if (opt.optimize(1)) {
+                restart();
+                return true;
+            }
+            return false;
+        } catch (OptimizationException e) {
+            restart();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.Arrays;
+
+/**
+ * The benchmark objective: maximize {@code -1/2 sum_i c_i (x_i - 1)^2} with
+ * curvatures {@code c_i} spread logarithmically over {@code [1, cond]}. It
+ * supports every optimizer of the library. For the batch optimizers every
+ * coordinate is an "instance", the value of a batch is the sum over the
+ * coordinates assigned to it.
+ */
+final class SeparableQuadratic implements Optimizable.ByValueAndGradient,
+        Optimizable.ByGISUpdate, Optimizable.ByBatchGradient {
+
+    private final double[] params;
+    private final double[] curvature;
+
+    SeparableQuadratic(int n, double cond) {
+        params = new double[n];
+        curvature = new double[n];
+        for (int i = 0; i < n; i++) {
+            curvature[i] = Math.pow(cond, (double) i / Math.max(1, n - 1));
+        }
+    }
+
+    /** Moves the parameters back to the starting point (the origin). */
+    void reset() {
+        Arrays.fill(params, 0.0);
+    }
+
+    public int getNumParameters() {
+        return params.length;
+    }
+
+    public void getParameters(double[] buffer) {
+        System.arraycopy(params, 0, buffer, 0, params.length);
+    }
+
+    public double getParameter(int index) {
+        return params[index];
+    }
+
+    public void setParameters(double[] buffer) {
+        System.arraycopy(buffer, 0, params, 0, params.length);
+    }
+
+    public void setParameter(int index, double value) {
+        params[index] = value;
+    }
+
+    public double getValue() {
+        double value = 0.0;
+        for (int i = 0; i < params.length; i++) {
+            double d = params[i] - 1.0;
+            value -= 0.5 * curvature[i] * d * d;
+        }
+        return value;
+    }
+
+    public void getValueGradient(double[] buffer) {
+        for (int i = 0; i < params.length; i++) {
+            buffer[i] = -curvature[i] * (params[i] - 1.0);
+        }
+    }
+
+    public double getValueAndGradient(double[] buffer) {
+        double value = 0.0;
+        for (int i = 0; i < params.length; i++) {
+            double d = params[i] - 1.0;
+            double g = -curvature[i] * d;
+            buffer[i] = g;
+            value += 0.5 * g * d;
+        }
+        return value;
+    }
+
+    // half of the Newton step
+    public void getGISUpdate(double[] buffer) {
+        for (int i = 0; i < params.length; i++) {
+            buffer[i] = 0.5 * (1.0 - params[i]);
+        }
+    }
+
+    public void getBatchValueGradient(double[] buffer, int batchIndex,
+            int[] batchAssignments) {
+        for (int i = 0; i < params.length; i++) {
+            buffer[i] = (batchAssignments[i] == batchIndex) ? -curvature[i]
+                    * (params[i] - 1.0) : 0.0;
+        }
+    }
+
+    public double getBatchValue(int batchIndex, int[] batchAssignments) {
+        double value = 0.0;
+        for (int i = 0; i < params.length; i++) {
+            if (batchAssignments[i] == batchIndex) {
+                double d = params[i] - 1.0;
+                value -= 0.5 * curvature[i] * d * d;
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The standard L-BFGS two-loop recursion against the vector-free variant
+ * with a full history of m random correction pairs. Every invocation first
+ * rotates the history by one pair (without copying), so that the vector-free
+ * variant has to compute the inner products of one new pair, as in the
+ * steady state of an optimization.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+public class TwoLoopBenchmark {
+
+    @Param({ "1000", "100000", "10000000" })
+    int n;
+
+    @Param({ "4", "20", "50" })
+    int m;
+
+    private SupersedingDoubleArrayQueue s;
+    private SupersedingDoubleArrayQueue y;
+    private SupersedingDoubleQueue rho;
+    private double[] alpha;
+    private double[] gradient;
+    private double[] direction;
+    private VectorFreeTwoLoop vectorFree;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random rnd = new Random(42);
+        s = new SupersedingDoubleArrayQueue(m, n);
+        y = new SupersedingDoubleArrayQueue(m, n);
+        rho = new SupersedingDoubleQueue(m);
+        alpha = new double[m];
+        gradient = new double[n];
+        direction = new double[n];
+        for (int i = 0; i < n; i++) {
+            gradient[i] = rnd.nextGaussian();
+        }
+        for (int j = 0; j < m; j++) {
+            double[] sj = s.nextSlot();
+            double[] yj = y.nextSlot();
+            double sy = 0.0;
+            for (int i = 0; i < n; i++) {
+                sj[i] = rnd.nextGaussian();
+                // y = -H s for a positive diagonal H, so that s'y < 0
+                yj[i] = -(1.0 + rnd.nextDouble()) * sj[i];
+                sy += sj[i] * yj[i];
+            }
+            s.commitSlot();
+            y.commitSlot();
+            rho.addLast(1.0 / sy);
+        }
+        vectorFree = new VectorFreeTwoLoop(m);
+        vectorFree.reset(m);
+    }
+
+    private void rotate() {
+        s.nextSlot();
+        s.commitSlot();
+        y.nextSlot();
+        y.commitSlot();
+        rho.addLast(rho.get(0));
+    }
+
+    @Benchmark
+    public double[] standard() {
+        rotate();
+        System.arraycopy(gradient, 0, direction, 0, n);
+        double[] sn = s.get(m - 1);
+        double[] yn = y.get(m - 1);
+        double gamma = MatrixOps.dotProduct(sn, yn)
+                / MatrixOps.dotProduct(yn, yn);
+        LimitedMemoryBFGS.twoLoopRecursion(VectorKernels.DEFAULT, s, y, rho,
+                alpha, direction, gamma);
+        return direction;
+    }
+
+    @Benchmark
+    public double[] vectorFree() {
+        rotate();
+        vectorFree.pairAdded();
+        vectorFree.apply(s, y, gradient, direction);
+        return direction;
+    }
+}
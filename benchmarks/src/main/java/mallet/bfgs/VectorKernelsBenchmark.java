@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The full-vector kernels used by the optimizers. "serial" are the
+ * {@link MatrixOps} loops, "default" is {@link VectorKernels#DEFAULT} (the
+ * SIMD kernels if the JVM runs with {@code --add-modules
+ * jdk.incubator.vector}) and "parallel" are the {@link ParallelVectorKernels}
+ * on a pool with one thread per processor.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class VectorKernelsBenchmark {
+
+    @Param({ "serial", "default", "parallel" })
+    String kernel;
+
+    @Param({ "1000", "100000", "10000000", "100000000" })
+    int n;
+
+    private VectorKernels kernels;
+    private double[] a;
+    private double[] b;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("serial".equals(kernel)) {
+            kernels = VectorKernels.SERIAL;
+        } else if ("default".equals(kernel)) {
+            kernels = VectorKernels.DEFAULT;
+        } else {
+            kernels = new ParallelVectorKernels();
+        }
+        Random rnd = new Random(42);
+        a = new double[n];
+        b = new double[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = rnd.nextGaussian();
+            b[i] = rnd.nextGaussian();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (kernels instanceof ParallelVectorKernels) {
+            ((ParallelVectorKernels) kernels).close();
+        }
+    }
+
+    @Benchmark
+    public double dotProduct() {
+        return kernels.dotProduct(a, b);
+    }
+
+    @Benchmark
+    public double[] plusEquals() {
+        kernels.plusEquals(a, b);
+        return a;
+    }
+
+    @Benchmark
+    public double[] plusEqualsFactor() {
+        kernels.plusEquals(a, b, 1e-9);
+        return a;
+    }
+
+    // -1 keeps the values bounded across invocations
+    @Benchmark
+    public double[] timesEquals() {
+        kernels.timesEquals(a, -1.0);
+        return a;
+    }
+
+    @Benchmark
+    public double twoNorm() {
+        return kernels.twoNorm(a);
+    }
+
+    @Benchmark
+    public double absNorm() {
+        return kernels.absNorm(a);
+    }
+
+    @Benchmark
+    public double infinityNorm() {
+        return kernels.infinityNorm(a);
+    }
+}
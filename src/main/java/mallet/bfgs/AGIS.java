@@ -33,6 +33,8 @@ public class AGIS implements Optimizer {
     boolean converged = false;
 
     boolean backTrack;
+    private final Workspace workspace = new Workspace();
+    private OptimizerMetrics metrics = OptimizerMetrics.NONE;
 
     // "eps" is a small number to recitify the special case of converging
     // to exactly zero function value
@@ -56,16 +58,28 @@ public class AGIS implements Optimizer {
         return converged;
     }
 
+    /**
+     * Reports evaluations, GIS updates (as direction computations) and
+     * iterations to {@code metrics}. The reported step is eta.
+     */
+    public void setMetrics(OptimizerMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics");
+        }
+        this.metrics = metrics;
+    }
+
     public boolean optimize() {
         return optimize(maxIterations);
     }
 
     public boolean optimize(int numIterations) {
         int iterations;
-        double[] params = new double[maxable.getNumParameters()];
-        double[] gis = new double[maxable.getNumParameters()];
-        double[] old_params = new double[maxable.getNumParameters()];
-        double[] updates = new double[maxable.getNumParameters()];
+        int n = maxable.getNumParameters();
+        double[] params = workspace.get(Workspace.PARAMETERS, n);
+        double[] gis = workspace.get(Workspace.SCRATCH, n);
+        double[] old_params = workspace.get(Workspace.OLD_PARAMETERS, n);
+        double[] updates = workspace.get(Workspace.UPDATE, n);
 
         maxable.getParameters(params);
         maxable.getParameters(gis);
@@ -74,12 +88,17 @@ public class AGIS implements Optimizer {
         for (iterations = 0; iterations < numIterations; iterations++) {
 
             boolean complete = false;
-            double old = maxable.getValue();
+            double old = value();
+            long updateStart = (metrics == OptimizerMetrics.NONE) ? 0L
+                    : System.nanoTime();
             maxable.getGISUpdate(updates);
+            if (metrics != OptimizerMetrics.NONE) {
+                metrics.direction(System.nanoTime() - updateStart);
+            }
             MatrixOps.plusEquals(gis, updates);
             MatrixOps.plusEquals(params, updates, eta);
             maxable.setParameters(params);
-            double next = maxable.getValue();
+            double next = value();
 
             // Different from normal AGIS, only fall back to GIS updates
             // If log-likelihood gets worse
@@ -103,7 +122,7 @@ public class AGIS implements Optimizer {
 
                     MatrixOps.plusEquals(params, updates, eta);
                     maxable.setParameters(params);
-                    next = maxable.getValue();
+                    next = value();
 
                     if (next > old)
                         complete = true;
@@ -112,10 +131,13 @@ public class AGIS implements Optimizer {
             } else if (complete == false) {
                 maxable.setParameters(gis);
                 eta = 1.0;
-                next = maxable.getValue();
+                next = value();
             }
 
             logger.info("eta: " + eta);
+            if (metrics != OptimizerMetrics.NONE) {
+                metrics.iteration(iterations + 1, next, Double.NaN, eta, 0);
+            }
 
             if (2.0 * Math.abs(next - old) <= tolerance
                     * (Math.abs(next) + Math.abs(old) + eps)) {
@@ -132,4 +154,14 @@ public class AGIS implements Optimizer {
         converged = false;
         return false;
     }
+
+    private double value() {
+        if (metrics == OptimizerMetrics.NONE) {
+            return maxable.getValue();
+        }
+        long start = System.nanoTime();
+        double value = maxable.getValue();
+        metrics.evaluation(true, false, System.nanoTime() - start);
+        return value;
+    }
 }
@@ -20,14 +20,36 @@ import mallet.bfgs.Optimizable;
  * @author Aron Culotta <a
  *         href="mailto:culotta@cs.umass.edu">culotta@cs.umass.edu</a>
  */
-final class BackTrackLineSearch {
+final class BackTrackLineSearch implements LineOptimizer.ByGradient {
     private static final Logger logger = Logger
             .getLogger(BackTrackLineSearch.class.getName());
 
     private final Optimizable.ByGradientValue function;
+    // non-null if the trial steps are directional updates
+    private final Optimizable.ByDirectionalUpdate directional;
+    private final Workspace workspace;
+    private VectorKernels kernels = VectorKernels.DEFAULT;
+    private OptimizerMetrics metrics = OptimizerMetrics.NONE;
+    // number of trial steps of the current search
+    private int trials;
 
     public BackTrackLineSearch(Optimizable.ByGradientValue optimizable) {
+        this(optimizable, new Workspace());
+    }
+
+    /**
+     * Creates a line search that takes its scratch vectors from the
+     * {@code LINE_*} slots of the given workspace of the calling optimizer.
+     */
+    BackTrackLineSearch(Optimizable.ByGradientValue optimizable,
+            Workspace workspace) {
         this.function = optimizable;
+        if (optimizable instanceof Optimizable.ByDirectionalUpdate) {
+            directional = (Optimizable.ByDirectionalUpdate) optimizable;
+        } else {
+            directional = null;
+        }
+        this.workspace = workspace;
     }
 
     private static final int maxIterations = 100;
@@ -42,6 +64,14 @@ final class BackTrackLineSearch {
     private double absTolx = 1e-4; // tolerance on absolute value difference
     private static final double ALF = 1e-4;
 
+    void setVectorKernels(VectorKernels kernels) {
+        this.kernels = kernels;
+    }
+
+    void setMetrics(OptimizerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * Sets the tolerance of relative diff in function value. Line search
      * converges if <tt>abs(delta x / x) < tolx</tt> for all coordinates.
@@ -65,18 +95,44 @@ final class BackTrackLineSearch {
     // returns fraction of step size (alam) if found a good step
     // returns 0.0 if could not step in direction
     public double optimize(double[] line, double initialStep) {
-        double[] g, x, oldParameters;
+        return optimize(line, initialStep, Double.NaN, null);
+    }
+
+    /**
+     * {@link #optimize(double[], double)} for a caller that knows the value
+     * {@code fold} and the gradient {@code g} at the current parameters,
+     * which are then not evaluated again. {@code g} is not modified.
+     */
+    double optimize(double[] line, double initialStep, double fold,
+            double[] g) {
+        Object event = FlightRecorder.beginLineSearch();
+        if (metrics == OptimizerMetrics.NONE && event == null) {
+            return search(line, fold, g);
+        }
+        long start = System.nanoTime();
+        trials = 0;
+        double step = search(line, fold, g);
+        metrics.lineSearch(trials, step, System.nanoTime() - start);
+        FlightRecorder.endLineSearch(event, trials, step);
+        return step;
+    }
+
+    private double search(double[] line, double fold, double[] g) {
+        double[] x, oldParameters;
         double slope, temp, test, alamin, alam, alam2, tmplam;
-        double rhs1, rhs2, a, b, disc, oldAlam;
-        double f, fold, f2;
-        g = new double[function.getNumParameters()]; // gradient
-        x = new double[function.getNumParameters()]; // parameters
-        oldParameters = new double[function.getNumParameters()];
+        double oldAlam;
+        double f, f2;
+        int n = function.getNumParameters();
+        x = workspace.get(Workspace.LINE_PARAMETERS, n); // parameters
+        oldParameters = workspace.get(Workspace.LINE_OLD_PARAMETERS, n);
         function.getParameters(x);
         System.arraycopy(x, 0, oldParameters, 0, x.length);
-        function.getValueGradient(g);
         alam2 = tmplam = 0.0;
-        f2 = fold = function.getValue();
+        if (g == null) {
+            g = workspace.get(Workspace.LINE_GRADIENT, n); // gradient
+            fold = Optimizables.getValueAndGradient(function, g, metrics);
+        }
+        f2 = fold;
         if (logger.isLoggable(Level.FINE)) {
             logger.fine("ENTERING BACKTRACK\n");
             logger.fine("Entering BackTrackLnSrch, value=" + fold
@@ -84,14 +140,14 @@ final class BackTrackLineSearch {
                     + "  direction.infNorm:" + MatrixOps.infinityNorm(line));
         }
         assert (!MatrixOps.isNaN(g));
-        double sum = MatrixOps.twoNorm(line);
+        double sum = kernels.twoNorm(line);
         if (sum > stpmax) {
             logger.warning("attempted step too big. scaling: sum=" + sum
                     + ", stpmax=" + stpmax);
-            MatrixOps.timesEquals(line, stpmax / sum);
+            kernels.timesEquals(line, stpmax / sum);
         }
 
-        slope = MatrixOps.dotProduct(g, line);
+        slope = kernels.dotProduct(g, line);
         if (logger.isLoggable(Level.FINE)) {
             logger.fine("slope=" + slope);
         }
@@ -119,6 +175,9 @@ final class BackTrackLineSearch {
         }
 
         alamin = relTolx / test;
+        if (directional != null) {
+            directional.setLine(oldParameters, line);
+        }
         alam = 1.0;
         oldAlam = 0.0;
         // look for step size in direction given by "line"
@@ -132,7 +191,7 @@ final class BackTrackLineSearch {
                         + "\nalam: " + alam + "\noldAlam: " + oldAlam);
             }
             assert (alam != oldAlam) : "alam == oldAlam";
-            MatrixOps.plusEquals(x, line, alam - oldAlam); // step
+            kernels.plusEquals(x, line, alam - oldAlam); // step
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine("after step, x.1norm: " + MatrixOps.oneNorm(x));
             }
@@ -141,15 +200,20 @@ final class BackTrackLineSearch {
             // convergence on delta x
             if ((alam < alamin) || smallAbsDiff(oldParameters, x)) {
                 function.setParameters(oldParameters);
-                f = function.getValue();
+                f = Optimizables.getValue(function, metrics);
                 logger.warning("EXITING BACKTRACK: Jump too small (alamin="
                         + alamin + "). Exiting and using xold. Value=" + f);
                 return 0.0;
             }
 
-            function.setParameters(x);
+            if (directional != null) {
+                directional.moveAlongLine(alam);
+            } else {
+                function.setParameters(x);
+            }
             oldAlam = alam;
-            f = function.getValue();
+            ++trials;
+            f = Optimizables.getValue(function, metrics);
 
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine("value=" + f);
@@ -178,7 +242,7 @@ final class BackTrackLineSearch {
                 tmplam = .2 * alam;
                 if (alam < alamin) { // convergence on delta x
                     function.setParameters(oldParameters);
-                    f = function.getValue();
+                    f = Optimizables.getValue(function, metrics);
                     logger.warning("EXITING BACKTRACK: Jump too small. Exiting and using xold. Value="
                             + f);
                     return 0.0;
@@ -187,27 +251,7 @@ final class BackTrackLineSearch {
                 if (alam == 1.0) { // first time through
                     tmplam = -slope / (2.0 * (f - fold - slope));
                 } else {
-                    rhs1 = f - fold - alam * slope;
-                    rhs2 = f2 - fold - alam2 * slope;
-                    assert ((alam - alam2) != 0) : "FAILURE: dividing by alam-alam2. alam="
-                            + alam;
-                    a = (rhs1 / (alam * alam) - rhs2 / (alam2 * alam2))
-                            / (alam - alam2);
-                    b = (-alam2 * rhs1 / (alam * alam) + alam * rhs2
-                            / (alam2 * alam2))
-                            / (alam - alam2);
-                    if (a == 0.0) {
-                        tmplam = -slope / (2.0 * b);
-                    } else {
-                        disc = b * b - 3.0 * a * slope;
-                        if (disc < 0.0) {
-                            tmplam = .5 * alam;
-                        } else if (b <= 0.0) {
-                            tmplam = (-b + Math.sqrt(disc)) / (3.0 * a);
-                        } else {
-                            tmplam = -slope / (b + Math.sqrt(disc));
-                        }
-                    }
+                    tmplam = cubic(fold, slope, alam, f, alam2, f2);
                     if (tmplam > .5 * alam) {
                         tmplam = .5 * alam; // lambda <= .5 lambda_1
                     }
@@ -223,6 +267,37 @@ final class BackTrackLineSearch {
         return 0.0;
     }
 
+    // the maximizer of the cubic through f(0) = fold, f'(0) = slope and the
+    // values f and f2 at the steps alam and alam2, .5 * alam if the cubic
+    // has no maximum or f2 is not finite. Also used by
+    // ParallelBackTrackLineSearch and OffHeapLimitedMemoryBFGS.
+    static double cubic(double fold, double slope, double alam,
+            double f, double alam2, double f2) {
+        if (Double.isInfinite(f2) || Double.isNaN(f2)) {
+            return .5 * alam;
+        }
+        assert ((alam - alam2) != 0) : "FAILURE: dividing by alam-alam2. alam="
+                + alam;
+        double rhs1 = f - fold - alam * slope;
+        double rhs2 = f2 - fold - alam2 * slope;
+        double a = (rhs1 / (alam * alam) - rhs2 / (alam2 * alam2))
+                / (alam - alam2);
+        double b = (-alam2 * rhs1 / (alam * alam) + alam * rhs2
+                / (alam2 * alam2))
+                / (alam - alam2);
+        if (a == 0.0) {
+            return -slope / (2.0 * b);
+        }
+        double disc = b * b - 3.0 * a * slope;
+        if (disc < 0.0) {
+            return .5 * alam;
+        } else if (b <= 0.0) {
+            return (-b + Math.sqrt(disc)) / (3.0 * a);
+        } else {
+            return -slope / (b + Math.sqrt(disc));
+        }
+    }
+
     // returns true iff we've converged based on absolute x difference
     private boolean smallAbsDiff(double[] x, double[] xold) {
         for (int i = 0; i < x.length; i++) {
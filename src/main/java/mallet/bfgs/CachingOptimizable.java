@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.Arrays;
+
+/**
+ * A decorator that memoizes the value and gradient of an
+ * {@link Optimizable.ByGradientValue}.
+ * <p>
+ * Every call of {@link #setParameters(double[])} or
+ * {@link #setParameter(int, double)} starts a new parameter version. Repeated
+ * requests for the value or gradient within the same version are answered
+ * from the cache. In addition, the results of the last few distinct parameter
+ * vectors are remembered in a small LRU list, so that returning to a recent
+ * point (e.g. when a line search backtracks to its starting point) doesn't
+ * cost an evaluation either. Each remembered point costs up to two vectors of
+ * memory (parameters and gradient).
+ * <p>
+ * The decorated function must not be modified other than through this
+ * decorator. If its objective changes for other reasons (e.g. new training
+ * data) {@link #invalidate()} has to be called. Evaluation intents are
+ * passed on to the decorated function.
+ */
+public final class CachingOptimizable implements
+        Optimizable.ByValueAndGradient, Optimizable.ByEvaluationIntent {
+
+    /** The default number of remembered parameter vectors. */
+    public static final int DEFAULT_CAPACITY = 4;
+
+    private final Optimizable.ByGradientValue function;
+    private final int numParameters;
+    // most recently used first, entries[0] is the current point
+    private final Entry[] entries;
+    private int size;
+    private long version;
+
+    private long valueHits;
+    private long valueMisses;
+    private long gradientHits;
+    private long gradientMisses;
+
+    public CachingOptimizable(Optimizable.ByGradientValue function) {
+        this(function, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param function
+     *            the function to be decorated
+     * @param capacity
+     *            the number of distinct parameter vectors whose value and
+     *            gradient are remembered (at least 1)
+     */
+    public CachingOptimizable(Optimizable.ByGradientValue function,
+            int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        this.function = function;
+        this.numParameters = function.getNumParameters();
+        this.entries = new Entry[capacity];
+        entries[0] = new Entry(numParameters);
+        function.getParameters(entries[0].parameters);
+        size = 1;
+    }
+
+    public Optimizable.ByGradientValue getFunction() {
+        return function;
+    }
+
+    public int getNumParameters() {
+        return numParameters;
+    }
+
+    public void getParameters(double[] buffer) {
+        System.arraycopy(entries[0].parameters, 0, buffer, 0, numParameters);
+    }
+
+    public double getParameter(int index) {
+        return entries[0].parameters[index];
+    }
+
+    public void setParameters(double[] params) {
+        ++version;
+        int found = indexOf(params);
+        if (found >= 0) {
+            moveToFront(found);
+        } else {
+            Entry e = pushFront();
+            System.arraycopy(params, 0, e.parameters, 0, numParameters);
+        }
+        function.setParameters(params);
+    }
+
+    public void setParameter(int index, double value) {
+        ++version;
+        if (entries[0].parameters[index] != value) {
+            double[] current = entries[0].parameters;
+            Entry e = pushFront();
+            if (e.parameters != current) {
+                System.arraycopy(current, 0, e.parameters, 0, numParameters);
+            }
+            e.parameters[index] = value;
+        }
+        function.setParameter(index, value);
+    }
+
+    public double getValue() {
+        Entry e = entries[0];
+        if (e.hasValue) {
+            ++valueHits;
+        } else {
+            ++valueMisses;
+            e.value = function.getValue();
+            e.hasValue = true;
+        }
+        return e.value;
+    }
+
+    public void getValueGradient(double[] buffer) {
+        Entry e = entries[0];
+        if (e.hasGradient) {
+            ++gradientHits;
+        } else {
+            ++gradientMisses;
+            function.getValueGradient(e.gradient());
+            e.hasGradient = true;
+        }
+        System.arraycopy(e.gradient, 0, buffer, 0, numParameters);
+    }
+
+    public void declareIntent(EvaluationIntent intent) {
+        Optimizables.declareIntent(function, intent);
+    }
+
+    public double getValueAndGradient(double[] buffer) {
+        Entry e = entries[0];
+        if (!e.hasValue && !e.hasGradient) {
+            ++valueMisses;
+            ++gradientMisses;
+            e.value = Optimizables.getValueAndGradient(function, e.gradient());
+            e.hasValue = e.hasGradient = true;
+            System.arraycopy(e.gradient, 0, buffer, 0, numParameters);
+            return e.value;
+        }
+        getValueGradient(buffer);
+        return getValue();
+    }
+
+    /**
+     * Returns the current parameter version, which is incremented by every
+     * call of {@link #setParameters(double[])} and
+     * {@link #setParameter(int, double)}.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Forgets all cached values and gradients.
+     */
+    public void invalidate() {
+        ++version;
+        for (int i = 0; i < size; i++) {
+            entries[i].hasValue = false;
+            entries[i].hasGradient = false;
+        }
+        // only the current point stays meaningful
+        size = 1;
+    }
+
+    public long getValueHits() {
+        return valueHits;
+    }
+
+    public long getValueMisses() {
+        return valueMisses;
+    }
+
+    public long getGradientHits() {
+        return gradientHits;
+    }
+
+    public long getGradientMisses() {
+        return gradientMisses;
+    }
+
+    public void resetStatistics() {
+        valueHits = valueMisses = gradientHits = gradientMisses = 0;
+    }
+
+    private int indexOf(double[] params) {
+        for (int i = 0; i < size; i++) {
+            if (Arrays.equals(entries[i].parameters, params)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void moveToFront(int index) {
+        Entry e = entries[index];
+        System.arraycopy(entries, 0, entries, 1, index);
+        entries[0] = e;
+    }
+
+    // makes the least recently used (or a new) entry the current one and
+    // clears its cached results
+    private Entry pushFront() {
+        Entry e;
+        if (size < entries.length) {
+            e = entries[size];
+            if (e == null) {
+                e = new Entry(numParameters);
+            }
+            ++size;
+        } else {
+            e = entries[size - 1];
+        }
+        System.arraycopy(entries, 0, entries, 1, size - 1);
+        entries[0] = e;
+        e.hasValue = false;
+        e.hasGradient = false;
+        return e;
+    }
+
+    private static final class Entry {
+        final double[] parameters;
+        double[] gradient;
+        double value;
+        boolean hasValue;
+        boolean hasGradient;
+
+        Entry(int numParameters) {
+            parameters = new double[numParameters];
+        }
+
+        double[] gradient() {
+            if (gradient == null) {
+                gradient = new double[parameters.length];
+            }
+            return gradient;
+        }
+    }
+}
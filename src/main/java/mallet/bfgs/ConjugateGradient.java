@@ -24,7 +24,8 @@ public final class ConjugateGradient implements Optimizer {
 
     boolean converged = false;
     Optimizable.ByGradientValue optimizable;
-    private final BackTrackLineSearch lineMaximizer;
+    private LineOptimizer.ByGradient lineMaximizer;
+    private final Workspace workspace = new Workspace();
 
     double initialStepSize = 1;
     double tolerance = 0.0001;
@@ -35,12 +36,14 @@ public final class ConjugateGradient implements Optimizer {
     // to exactly zero function value
     final double eps = 1.0e-10;
     private OptimizerEvaluator.ByGradient eval;
+    private VectorKernels kernels = VectorKernels.DEFAULT;
+    private OptimizerMetrics metrics = OptimizerMetrics.NONE;
 
     public ConjugateGradient(Optimizable.ByGradientValue function,
             double initialStepSize) {
         this.initialStepSize = initialStepSize;
         this.optimizable = function;
-        this.lineMaximizer = new BackTrackLineSearch(function);
+        this.lineMaximizer = new BackTrackLineSearch(function, workspace);
     }
 
     public ConjugateGradient(Optimizable.ByGradientValue function) {
@@ -59,6 +62,49 @@ public final class ConjugateGradient implements Optimizer {
         this.eval = eval;
     }
 
+    /**
+     * Sets the implementation of the full-vector operations used by this
+     * optimizer and its line search. Defaults to {@link VectorKernels#DEFAULT}.
+     */
+    public void setVectorKernels(VectorKernels kernels) {
+        if (kernels == null) {
+            throw new NullPointerException("kernels");
+        }
+        this.kernels = kernels;
+        Optimizables.setVectorKernels(lineMaximizer, kernels);
+    }
+
+    /**
+     * Replaces the default backtracking line search, which stops at the first
+     * step with sufficient increase. Conjugate gradients work best with an
+     * accurate line search, e.g. a {@link MoreThuenteLineSearch} for the same
+     * function with a small gtol.
+     */
+    public void setLineOptimizer(LineOptimizer.ByGradient lineOptimizer) {
+        if (lineOptimizer == null) {
+            throw new NullPointerException("lineOptimizer");
+        }
+        this.lineMaximizer = lineOptimizer;
+        Optimizables.setVectorKernels(lineOptimizer, kernels);
+    }
+
+    public LineOptimizer.ByGradient getLineOptimizer() {
+        return lineMaximizer;
+    }
+
+    /**
+     * Reports evaluations, direction updates, line searches and iterations to
+     * {@code metrics}, including those of the current line optimizer if it
+     * is one of the line searches of this package.
+     */
+    public void setMetrics(OptimizerMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics");
+        }
+        this.metrics = metrics;
+        Optimizables.setMetrics(lineMaximizer, metrics);
+    }
+
     public void setInitialStepSize(double initialStepSize) {
         this.initialStepSize = initialStepSize;
     }
@@ -89,11 +135,10 @@ public final class ConjugateGradient implements Optimizer {
             return true;
         int n = optimizable.getNumParameters();
         if (xi == null) {
-            fp = optimizable.getValue();
             xi = new double[n];
             g = new double[n];
             h = new double[n];
-            optimizable.getValueGradient(xi);
+            fp = Optimizables.getValueAndGradient(optimizable, xi, metrics);
             System.arraycopy(xi, 0, g, 0, n);
             System.arraycopy(xi, 0, h, 0, n);
             step = initialStepSize;
@@ -104,9 +149,17 @@ public final class ConjugateGradient implements Optimizer {
             logger.info("ConjugateGradient: At iteration " + iterations
                     + ", cost = " + fp);
 
-            step = lineMaximizer.optimize(xi, step);
-            fret = optimizable.getValue();
-            optimizable.getValueGradient(xi);
+            Object event = FlightRecorder.beginIteration();
+            // g holds the gradient at the current parameters
+            step = Optimizables.optimize(lineMaximizer, xi, step, fp, g);
+            fret = Optimizables.getAcceptedValueAndGradient(lineMaximizer,
+                    optimizable, xi, metrics);
+            if (metrics != OptimizerMetrics.NONE || event != null) {
+                double norm = kernels.twoNorm(xi);
+                metrics.iteration(iterations + 1, fret, norm, step, 0);
+                FlightRecorder.endIteration(event, this, iterations + 1, fret,
+                        norm, step);
+            }
 
             // This termination provided by "Numeric Recipes in C".
             if (2.0 * Math.abs(fret - fp) <= tolerance
@@ -119,7 +172,7 @@ public final class ConjugateGradient implements Optimizer {
             fp = fret;
 
             // This termination provided by McCallum
-            double twoNorm = MatrixOps.twoNorm(xi);
+            double twoNorm = kernels.twoNorm(xi);
             if (twoNorm < gradientTolerance) {
                 logger.info("ConjugateGradient converged: gradient two norm "
                         + twoNorm + ", less than " + gradientTolerance);
@@ -127,6 +180,8 @@ public final class ConjugateGradient implements Optimizer {
                 return true;
             }
 
+            long directionStart = (metrics == OptimizerMetrics.NONE) ? 0L
+                    : System.nanoTime();
             dgg = gg = 0.0;
             for (j = 0; j < xi.length; j++) {
                 gg += g[j] * g[j];
@@ -148,12 +203,15 @@ public final class ConjugateGradient implements Optimizer {
             // direction suggested by CG was downhill. Consequently, here I am
             // setting the search direction to the gradient if the slope is
             // negative or 0.
-            if (MatrixOps.dotProduct(xi, h) > 0) {
+            if (kernels.dotProduct(xi, h) > 0) {
                 MatrixOps.set(xi, h);
             } else {
                 logger.warning("Reverting back to GA");
                 MatrixOps.set(h, xi);
             }
+            if (metrics != OptimizerMetrics.NONE) {
+                metrics.direction(System.nanoTime() - directionStart);
+            }
 
             iterations++;
             if (iterations > maxIterations) {
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+
+/**
+ * An {@link Optimizable.ByGradientValue} whose value and gradient are the
+ * sums of the values and gradients of data shards held by
+ * {@link GradientWorker}s, usually in other processes or on other machines.
+ * <p>
+ * The parameters are held by this coordinator. An evaluation sends them to
+ * every worker in turn (so that the first workers already compute while the
+ * parameters are still sent to the others) and then adds up the responses in
+ * worker order, which makes the result independent of the timing. Value and
+ * gradient are cached until the parameters are changed.
+ * <p>
+ * Communication failures and errors reported by a worker are thrown as
+ * {@link OptimizationException}s.
+ */
+public final class DistributedOptimizable implements
+        Optimizable.ByValueAndGradient, Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final SocketChannel[] workers;
+    private final double[] parameters;
+    private final double[] gradient;
+    private final ByteBuffer request;
+    private final ByteBuffer response;
+    private double value;
+    private boolean valid;
+
+    /**
+     * Connects to the given workers.
+     *
+     * @param initialParameters
+     *            the initial parameters, which also define their number
+     * @param workers
+     *            the addresses of the workers
+     */
+    public DistributedOptimizable(double[] initialParameters,
+            InetSocketAddress... workers) throws IOException {
+        if (workers.length == 0) {
+            throw new IllegalArgumentException("no workers");
+        }
+        int n = initialParameters.length;
+        this.parameters = initialParameters.clone();
+        this.gradient = new double[n];
+        this.request = GradientProtocol.allocate(GradientProtocol.HEADER_BYTES
+                + 8 * n);
+        this.response = GradientProtocol.allocate(GradientProtocol.HEADER_BYTES
+                + 8 + 8 * n);
+        this.workers = new SocketChannel[workers.length];
+        try {
+            for (int i = 0; i < workers.length; i++) {
+                this.workers[i] = SocketChannel.open(workers[i]);
+                this.workers[i].socket().setTcpNoDelay(true);
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+    }
+
+    public int getNumWorkers() {
+        return workers.length;
+    }
+
+    public int getNumParameters() {
+        return parameters.length;
+    }
+
+    public void getParameters(double[] buffer) {
+        System.arraycopy(parameters, 0, buffer, 0, parameters.length);
+    }
+
+    public double getParameter(int index) {
+        return parameters[index];
+    }
+
+    public void setParameters(double[] params) {
+        valid = false;
+        System.arraycopy(params, 0, parameters, 0, parameters.length);
+    }
+
+    public void setParameter(int index, double value) {
+        valid = false;
+        parameters[index] = value;
+    }
+
+    public double getValue() {
+        evaluate();
+        return value;
+    }
+
+    public void getValueGradient(double[] buffer) {
+        evaluate();
+        System.arraycopy(gradient, 0, buffer, 0, gradient.length);
+    }
+
+    public double getValueAndGradient(double[] buffer) {
+        getValueGradient(buffer);
+        return value;
+    }
+
+    private void evaluate() {
+        if (valid) {
+            return;
+        }
+        int n = parameters.length;
+        request.clear();
+        request.putInt(GradientProtocol.EVALUATE).putInt(n);
+        request.asDoubleBuffer().put(parameters);
+        request.position(request.position() + 8 * n);
+        request.flip();
+        try {
+            for (SocketChannel worker : workers) {
+                request.rewind();
+                GradientProtocol.writeFully(worker, request);
+            }
+            double sum = 0.0;
+            MatrixOps.setAll(gradient, 0);
+            // a failed worker must not keep the others' responses in their
+            // channels, where the next request would read them
+            OptimizationException failure = null;
+            for (int w = 0; w < workers.length; w++) {
+                try {
+                    sum += receive(w);
+                } catch (OptimizationException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            value = sum;
+            valid = true;
+        } catch (IOException e) {
+            // the channels are out of step with the protocol now
+            try {
+                closeChannels();
+            } catch (IOException ignore) {
+            }
+            throw new OptimizationException("communication with the "
+                    + "gradient workers failed", e);
+        }
+    }
+
+    // adds the gradient of worker w and returns its value, throws an
+    // OptimizationException after reading the message of a failed worker
+    private double receive(int w) throws IOException {
+        int n = parameters.length;
+        response.clear();
+        response.limit(GradientProtocol.HEADER_BYTES);
+        GradientProtocol.readFully(workers[w], response);
+        int status = response.getInt();
+        int length = response.getInt();
+        if (status != GradientProtocol.OK) {
+            response.clear();
+            response.limit(length);
+            GradientProtocol.readFully(workers[w], response);
+            byte[] message = new byte[length];
+            response.get(message);
+            throw new OptimizationException("gradient worker " + w
+                    + " failed: " + new String(message, UTF_8));
+        }
+        response.clear();
+        response.limit(8 + 8 * n);
+        GradientProtocol.readFully(workers[w], response);
+        double workerValue = response.getDouble();
+        DoubleBuffer g = response.asDoubleBuffer();
+        for (int i = 0; i < n; i++) {
+            gradient[i] += g.get(i);
+        }
+        return workerValue;
+    }
+
+    /**
+     * Tells the workers to stop serving and closes the connections.
+     */
+    public void close() throws IOException {
+        ByteBuffer close = GradientProtocol
+                .allocate(GradientProtocol.HEADER_BYTES);
+        close.putInt(GradientProtocol.CLOSE).putInt(0).flip();
+        try {
+            for (SocketChannel worker : workers) {
+                close.rewind();
+                GradientProtocol.writeFully(worker, close);
+            }
+        } finally {
+            closeChannels();
+        }
+    }
+
+    private void closeChannels() throws IOException {
+        IOException failure = null;
+        for (SocketChannel worker : workers) {
+            if (worker != null) {
+                try {
+                    worker.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+/**
+ * What an optimizer is going to request at the current parameters, see
+ * {@link Optimizable.ByEvaluationIntent}.
+ */
+public enum EvaluationIntent {
+
+    /**
+     * Only the value, e.g. at a trial point of a line search. The gradient
+     * is requested later only if the point is accepted.
+     */
+    VALUE,
+
+    /** The value and the gradient. */
+    VALUE_AND_GRADIENT
+}
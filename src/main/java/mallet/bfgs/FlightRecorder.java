@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+/**
+ * Placeholder for the JDK Flight Recorder events of the optimizers. The real
+ * implementation, based on the {@code jdk.jfr} API, lives in
+ * {@code META-INF/versions/11} of the multi-release jar and replaces this
+ * class on Java 11+ runtimes.
+ * <p>
+ * The {@code begin} methods return {@code null} if the event is not enabled
+ * (always on older runtimes); the {@code end} methods ignore {@code null}.
+ */
+final class FlightRecorder {
+
+    /** Starts an evaluation of the objective. */
+    static Object beginEvaluation() {
+        return null;
+    }
+
+    static void endEvaluation(Object event, boolean value, boolean gradient) {
+    }
+
+    /** Starts an iteration of an optimizer. */
+    static Object beginIteration() {
+        return null;
+    }
+
+    static void endIteration(Object event, Optimizer optimizer, int iteration,
+            double value, double gradientNorm, double step) {
+    }
+
+    /** Starts a line search. */
+    static Object beginLineSearch() {
+        return null;
+    }
+
+    static void endLineSearch(Object event, int trials, double step) {
+    }
+
+    private FlightRecorder() {
+        throw new AssertionError();
+    }
+}
@@ -7,6 +7,7 @@
  */
 package mallet.bfgs;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -26,17 +27,20 @@ public final class GradientAscent implements Optimizer {
     static final double initialStepSize = 0.2;
     double tolerance = 0.001;
     int maxIterations = 200;
-    private final BackTrackLineSearch lineMaximizer;
+    private LineOptimizer.ByGradient lineMaximizer;
+    private final Workspace workspace = new Workspace();
     double stpmax = 100;
 
     // "eps" is a small number to rectify the special case of converging
     // to exactly zero function value
     final double eps = 1.0e-10;
     double step = initialStepSize;
+    private VectorKernels kernels = VectorKernels.DEFAULT;
+    private OptimizerMetrics metrics = OptimizerMetrics.NONE;
 
     public GradientAscent(Optimizable.ByGradientValue function) {
         optimizable = function;
-        lineMaximizer = new BackTrackLineSearch(function);
+        lineMaximizer = new BackTrackLineSearch(function, workspace);
     }
 
     public Optimizable getOptimizable() {
@@ -47,15 +51,34 @@ public final class GradientAscent implements Optimizer {
         return converged;
     }
 
-    /*
-     * Tricky: this is now set at GradientAscent construction time. How to set
-     * it later? What to pass as an argument here? The lineMaximizer needs the
-     * function at the time of its construction!
-     * 
-     * public void setLineMaximizer (LineOptimizer.ByGradient lineMaximizer) {
-     *     this.lineMaximizer = lineMaximizer;
-     * }
+    /**
+     * Replaces the default backtracking line search. The line optimizer must
+     * operate on the function of this optimizer.
+     */
+    public void setLineOptimizer(LineOptimizer.ByGradient lineOptimizer) {
+        if (lineOptimizer == null) {
+            throw new NullPointerException("lineOptimizer");
+        }
+        this.lineMaximizer = lineOptimizer;
+        Optimizables.setVectorKernels(lineOptimizer, kernels);
+    }
+
+    public LineOptimizer.ByGradient getLineOptimizer() {
+        return lineMaximizer;
+    }
+
+    /**
+     * Reports evaluations, line searches and iterations to {@code metrics},
+     * including those of the current line optimizer if it is one of the line
+     * searches of this package.
      */
+    public void setMetrics(OptimizerMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics");
+        }
+        this.metrics = metrics;
+        Optimizables.setMetrics(lineMaximizer, metrics);
+    }
 
     /**
      * Sets the tolerance in the convergence test: 2.0*|value-old_value| <=
@@ -91,25 +114,33 @@ public final class GradientAscent implements Optimizer {
     public boolean optimize(int numIterations) {
         int iterations;
         double fret;
-        double fp = optimizable.getValue();
-        double[] xi = new double[optimizable.getNumParameters()];
-        optimizable.getValueGradient(xi);
+        double[] xi = workspace.get(Workspace.GRADIENT,
+                optimizable.getNumParameters());
+        double fp = Optimizables.getValueAndGradient(optimizable, xi, metrics);
 
         for (iterations = 0; iterations < numIterations; iterations++) {
-            logger.info("At iteration " + iterations + ", cost = " + fp
-                    + ", scaled = " + maxStep + " step = " + step
-                    + ", gradient infty-norm = " + MatrixOps.infinityNorm(xi));
+            if (logger.isLoggable(Level.INFO)) {
+                logger.info("At iteration " + iterations + ", cost = " + fp
+                        + ", scaled = " + maxStep + " step = " + step
+                        + ", gradient infty-norm = "
+                        + MatrixOps.infinityNorm(xi));
+            }
 
             // Ensure step not too large
-            double sum = MatrixOps.twoNorm(xi);
+            double sum = kernels.twoNorm(xi);
             if (sum > stpmax) {
                 logger.info("*** Step 2-norm " + sum + " greater than max "
                         + stpmax + "  Scaling...");
-                MatrixOps.timesEquals(xi, stpmax / sum);
+                kernels.timesEquals(xi, stpmax / sum);
             }
 
             step = lineMaximizer.optimize(xi, step);
-            fret = optimizable.getValue();
+            // the gradient at the new point is needed by the next iteration
+            fret = Optimizables.getValueAndGradient(optimizable, xi, metrics);
+            if (metrics != OptimizerMetrics.NONE) {
+                metrics.iteration(iterations + 1, fret, kernels.twoNorm(xi),
+                        step, 0);
+            }
             if (2.0 * Math.abs(fret - fp) <= tolerance
                     * (Math.abs(fret) + Math.abs(fp) + eps)) {
                 logger.info("Gradient Ascent: Value difference "
@@ -119,7 +150,6 @@ public final class GradientAscent implements Optimizer {
                 return true;
             }
             fp = fret;
-            optimizable.getValueGradient(xi);
             if (eval != null) {
                 eval.evaluate(optimizable, iterations);
             }
@@ -134,4 +164,16 @@ public final class GradientAscent implements Optimizer {
     public void setEvaluator(OptimizerEvaluator.ByGradient eval) {
         this.eval = eval;
     }
+
+    /**
+     * Sets the implementation of the full-vector operations used by this
+     * optimizer and its line search. Defaults to {@link VectorKernels#DEFAULT}.
+     */
+    public void setVectorKernels(VectorKernels kernels) {
+        if (kernels == null) {
+            throw new NullPointerException("kernels");
+        }
+        this.kernels = kernels;
+        Optimizables.setVectorKernels(lineMaximizer, kernels);
+    }
 }
@@ -24,6 +24,7 @@ public final class GradientBracketLineOptimizer implements LineOptimizer {
 
     private int maxIterations = 50;
     private Optimizable.ByGradientValue optimizable;
+    private final Workspace workspace = new Workspace();
 
     public GradientBracketLineOptimizer(Optimizable.ByGradientValue function) {
         this.optimizable = function;
@@ -35,10 +36,12 @@ public final class GradientBracketLineOptimizer implements LineOptimizer {
     public double optimize(double[] line, double initialStep) {
 
         assert (initialStep > 0);
-        double[] parameters = new double[optimizable.getNumParameters()];
-        double[] gradient = new double[optimizable.getNumParameters()];
+        int n = optimizable.getNumParameters();
+        double[] parameters = workspace.get(Workspace.LINE_PARAMETERS, n);
+        double[] gradient = workspace.get(Workspace.LINE_GRADIENT, n);
         optimizable.getParameters(parameters);
-        optimizable.getValueGradient(gradient);
+        double initialValue = Optimizables.getValueAndGradient(optimizable,
+                gradient);
 
         // a=left, b=center, c=right, t=test
         double ax, bx, cx, tx; // steps (domain), these are deltas from initial
@@ -48,7 +51,7 @@ public final class GradientBracketLineOptimizer implements LineOptimizer {
         double ox; // the x step of the last function call
 
         tx = ax = bx = cx = ox = 0;
-        ty = ay = by = cy = optimizable.getValue();
+        ty = ay = by = cy = initialValue;
 
         tg = ag = bg = MatrixOps.dotProduct(gradient, line);
         // Make sure search-line points upward
@@ -94,8 +97,7 @@ public final class GradientBracketLineOptimizer implements LineOptimizer {
             // ("Gradient cross-over search, incrementing by "+(tx-ox));
             MatrixOps.plusEquals(parameters, line, tx - ox);
             optimizable.setParameters(parameters);
-            ty = optimizable.getValue();
-            optimizable.getValueGradient(gradient);
+            ty = Optimizables.getValueAndGradient(optimizable, gradient);
             tg = MatrixOps.dotProduct(gradient, line);
             // logger.info ("Next gradient = "+tg);
             ox = tx;
@@ -166,9 +168,8 @@ public final class GradientBracketLineOptimizer implements LineOptimizer {
             // logger.info ("Minimum bx search, incrementing by "+(bx-ox));
             MatrixOps.plusEquals(parameters, line, bx - ox);
             optimizable.setParameters(parameters);
-            by = optimizable.getValue();
+            by = Optimizables.getValueAndGradient(optimizable, gradient);
             assert (!Double.isNaN(by));
-            optimizable.getValueGradient(gradient);
             bg = MatrixOps.dotProduct(gradient, line);
             ox = bx;
 
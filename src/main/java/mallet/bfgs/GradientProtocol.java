@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The binary protocol between a {@link DistributedOptimizable} and its
+ * {@link GradientWorker}s. All numbers are little-endian.
+ *
+ * <pre>
+ * request:  int op, int n, n doubles (the parameters, EVALUATE only)
+ * response: int status, int n, then
+ *           OK:    double value, n doubles (the gradient)
+ *           ERROR: n bytes UTF-8 error message
+ * </pre>
+ */
+final class GradientProtocol {
+
+    static final int EVALUATE = 1;
+    static final int CLOSE = 2;
+
+    static final int OK = 0;
+    static final int ERROR = 1;
+
+    static final int HEADER_BYTES = 8;
+
+    static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static void readFully(ReadableByteChannel channel, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("connection closed by peer");
+            }
+        }
+        buffer.flip();
+    }
+
+    static void writeFully(WritableByteChannel channel, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private GradientProtocol() {
+        throw new AssertionError();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.logging.*;
+
+/**
+ * Serves the value and gradient of one data shard to a
+ * {@link DistributedOptimizable} over a TCP connection. The shard is an
+ * ordinary {@link Optimizable.ByGradientValue} over the examples of the
+ * shard only (e.g. a {@link ShardedOptimizable} to use all cores of the
+ * worker). The worker serves a single coordinator connection until the
+ * coordinator closes it.
+ * <p>
+ * Workers can be started as separate processes with
+ *
+ * <pre>
+ * java mallet.bfgs.GradientWorker [host:]port class [args...]
+ * </pre>
+ *
+ * where {@code class} is an {@link Optimizable.ByGradientValue} with a public
+ * constructor taking {@code String[]} (the remaining arguments) or without
+ * arguments. The worker listens on the loopback interface unless a host is
+ * given, and a port of 0 selects a free port. The actual port is printed to
+ * standard output as the last word of the first line.
+ */
+public final class GradientWorker implements Closeable {
+    private static final Logger logger = Logger.getLogger(GradientWorker.class
+            .getName());
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Optimizable.ByGradientValue shard;
+    private final ServerSocketChannel server;
+    private ByteBuffer request;
+    private ByteBuffer response;
+    private double[] parameters;
+    private double[] gradient;
+
+    public GradientWorker(Optimizable.ByGradientValue shard,
+            InetSocketAddress address) throws IOException {
+        this.shard = shard;
+        this.server = ServerSocketChannel.open();
+        server.bind(address);
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Accepts one coordinator connection and answers its requests until it
+     * closes the connection.
+     */
+    public void serve() throws IOException {
+        SocketChannel channel = server.accept();
+        try {
+            channel.socket().setTcpNoDelay(true);
+            ByteBuffer header = GradientProtocol
+                    .allocate(GradientProtocol.HEADER_BYTES);
+            for (;;) {
+                header.clear();
+                GradientProtocol.readFully(channel, header);
+                int op = header.getInt();
+                int n = header.getInt();
+                if (op == GradientProtocol.CLOSE) {
+                    return;
+                }
+                if (op != GradientProtocol.EVALUATE) {
+                    throw new IOException("unknown request: " + op);
+                }
+                allocate(n);
+                request.clear();
+                request.limit(8 * n);
+                GradientProtocol.readFully(channel, request);
+                request.asDoubleBuffer().get(parameters);
+                GradientProtocol.writeFully(channel, evaluate(n));
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private ByteBuffer evaluate(int n) {
+        response.clear();
+        try {
+            if (n != shard.getNumParameters()) {
+                throw new IllegalArgumentException("expected "
+                        + shard.getNumParameters() + " parameters, got " + n);
+            }
+            shard.setParameters(parameters);
+            double value = Optimizables.getValueAndGradient(shard, gradient);
+            response.putInt(GradientProtocol.OK).putInt(n).putDouble(value);
+            response.asDoubleBuffer().put(gradient);
+            response.position(response.position() + 8 * n);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "evaluation failed", e);
+            byte[] message = String.valueOf(e).getBytes(UTF_8);
+            message = Arrays.copyOf(message,
+                    Math.min(message.length, response.capacity() - 8));
+            response.clear();
+            response.putInt(GradientProtocol.ERROR).putInt(message.length)
+                    .put(message);
+        }
+        response.flip();
+        return response;
+    }
+
+    private void allocate(int n) {
+        if (parameters == null || parameters.length != n) {
+            parameters = new double[n];
+            gradient = new double[n];
+            request = GradientProtocol.allocate(8 * n);
+            response = GradientProtocol.allocate(GradientProtocol.HEADER_BYTES
+                    + 8 + 8 * n);
+        }
+    }
+
+    public void close() throws IOException {
+        server.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: GradientWorker [host:]port class [args...]");
+            System.exit(2);
+        }
+        InetSocketAddress address;
+        int colon = args[0].lastIndexOf(':');
+        if (colon < 0) {
+            address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    Integer.parseInt(args[0]));
+        } else {
+            address = new InetSocketAddress(args[0].substring(0, colon),
+                    Integer.parseInt(args[0].substring(colon + 1)));
+        }
+        Optimizable.ByGradientValue shard = newShard(args[1],
+                Arrays.copyOfRange(args, 2, args.length));
+        GradientWorker worker = new GradientWorker(shard, address);
+        try {
+            System.out.println("GradientWorker listening on port "
+                    + worker.getPort());
+            System.out.flush();
+            worker.serve();
+        } finally {
+            worker.close();
+        }
+    }
+
+    private static Optimizable.ByGradientValue newShard(String className,
+            String[] args) throws Exception {
+        Class<?> c = Class.forName(className);
+        Object shard;
+        try {
+            Constructor<?> constructor = c.getConstructor(String[].class);
+            shard = constructor.newInstance((Object) args);
+        } catch (NoSuchMethodException e) {
+            shard = c.getConstructor().newInstance();
+        }
+        return (Optimizable.ByGradientValue) shard;
+    }
+}
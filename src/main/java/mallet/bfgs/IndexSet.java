@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.Arrays;
+
+/**
+ * A set of indices in [0, n) with constant time add, remove and contains and
+ * iteration in time proportional to its size. Clearing also takes time
+ * proportional to the size, not to n.
+ */
+final class IndexSet {
+
+    private final int[] elements;
+    // position of an index in elements, -1 if absent
+    private final int[] positions;
+    private int size;
+
+    IndexSet(int n) {
+        elements = new int[n];
+        positions = new int[n];
+        Arrays.fill(positions, -1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Returns the element at position {@code k} (in no particular order). */
+    int get(int k) {
+        return elements[k];
+    }
+
+    boolean contains(int index) {
+        return positions[index] >= 0;
+    }
+
+    void add(int index) {
+        if (positions[index] < 0) {
+            positions[index] = size;
+            elements[size++] = index;
+        }
+    }
+
+    void remove(int index) {
+        int p = positions[index];
+        if (p >= 0) {
+            int last = elements[--size];
+            elements[p] = last;
+            positions[last] = p;
+            positions[index] = -1;
+        }
+    }
+
+    void clear() {
+        for (int k = 0; k < size; k++) {
+            positions[elements[k]] = -1;
+        }
+        size = 0;
+    }
+}
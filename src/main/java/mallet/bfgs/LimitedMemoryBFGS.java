@@ -7,6 +7,7 @@
  */
 package mallet.bfgs;
 
+import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,10 +39,12 @@ public final class LimitedMemoryBFGS implements Optimizer {
 
     // The number of corrections used in BFGS update
     // ideally 3 <= m <= 7. Larger m means more cpu time, memory.
-    private final int m = 4;
+    // Ill-conditioned problems may benefit from m in the 10 - 50 range.
+    private final int m;
 
     // Line search function
-    private final BackTrackLineSearch lineMaximizer;
+    private LineOptimizer.ByGradient lineMaximizer;
+    private final Workspace workspace = new Workspace();
 
     // State of search
     // g = gradient
@@ -53,14 +56,36 @@ public final class LimitedMemoryBFGS implements Optimizer {
     private SupersedingDoubleArrayQueue y;
     private SupersedingDoubleQueue rho;
     private double[] alpha;
+    // non-null if the direction is computed by the vector-free recursion
+    private VectorFreeTwoLoop vectorFree;
+    // true if the history is stored in single precision
+    private boolean singlePrecision;
+    private VectorKernels kernels = VectorKernels.DEFAULT;
+    private OptimizerMetrics metrics = OptimizerMetrics.NONE;
     private double step = 1.0;
+    // value at the current parameters
+    private double value;
     private int iterations;
 
     private OptimizerEvaluator.ByGradient eval = null;
 
     public LimitedMemoryBFGS(Optimizable.ByGradientValue function) {
+        this(function, 4);
+    }
+
+    /**
+     * @param function
+     *            the function to be optimized
+     * @param m
+     *            the number of corrections (s, y pairs) kept in the history
+     */
+    public LimitedMemoryBFGS(Optimizable.ByGradientValue function, int m) {
+        if (m <= 0) {
+            throw new IllegalArgumentException("m must be positive: " + m);
+        }
         optimizable = function;
-        lineMaximizer = new BackTrackLineSearch(function);
+        lineMaximizer = new BackTrackLineSearch(function, workspace);
+        this.m = m;
     }
 
     public Optimizable getOptimizable() {
@@ -83,16 +108,104 @@ public final class LimitedMemoryBFGS implements Optimizer {
         return iterations;
     }
 
+    /** Returns the number of corrections kept in the history. */
+    public int getHistorySize() {
+        return m;
+    }
+
+    /**
+     * Selects the "vector-free" two-loop recursion that keeps a small matrix
+     * of inner products between the s, y and gradient vectors and computes
+     * the search direction in coefficient space. This needs about 2 passes
+     * over the long vectors per iteration instead of about 4m and pays off
+     * when the optimizer is limited by memory bandwidth. Off by default.
+     */
+    public void setVectorFree(boolean useVectorFree) {
+        if (!useVectorFree) {
+            vectorFree = null;
+        } else if (vectorFree == null) {
+            vectorFree = new VectorFreeTwoLoop(m);
+            vectorFree.reset(s == null ? 0 : s.size());
+        }
+    }
+
+    public boolean isVectorFree() {
+        return vectorFree != null;
+    }
+
+    /**
+     * Keeps the s and y vectors of the history in single precision, which
+     * halves the 2mn doubles of the history and the memory traffic of the
+     * direction computation. Inner products and updates still accumulate in
+     * double. The products with the history are then plain scalar loops that
+     * bypass the {@link VectorKernels} of this optimizer, so with SIMD or
+     * parallel kernels this mode can be slower than a double precision
+     * history; it is meant for histories that would not fit in memory
+     * otherwise. Takes effect with the next search, i.e. the first call to
+     * {@link #optimize(int)} or the first one after {@link #reset()}. Off by
+     * default.
+     */
+    public void setSinglePrecisionHistory(boolean useSinglePrecision) {
+        singlePrecision = useSinglePrecision;
+    }
+
+    public boolean isSinglePrecisionHistory() {
+        return singlePrecision;
+    }
+
+    /**
+     * Sets the implementation of the full-vector operations used by this
+     * optimizer and its line search. Defaults to {@link VectorKernels#DEFAULT}.
+     */
+    public void setVectorKernels(VectorKernels kernels) {
+        if (kernels == null) {
+            throw new NullPointerException("kernels");
+        }
+        this.kernels = kernels;
+        Optimizables.setVectorKernels(lineMaximizer, kernels);
+    }
+
+    /**
+     * Replaces the default backtracking line search. The line optimizer must
+     * operate on the function of this optimizer, e.g. a
+     * {@link MoreThuenteLineSearch} for the same function, whose curvature
+     * condition keeps the s, y updates well-posed.
+     */
+    public void setLineOptimizer(LineOptimizer.ByGradient lineOptimizer) {
+        if (lineOptimizer == null) {
+            throw new NullPointerException("lineOptimizer");
+        }
+        this.lineMaximizer = lineOptimizer;
+        Optimizables.setVectorKernels(lineOptimizer, kernels);
+    }
+
+    public LineOptimizer.ByGradient getLineOptimizer() {
+        return lineMaximizer;
+    }
+
+    /**
+     * Reports evaluations, direction computations, line searches and
+     * iterations to {@code metrics}. Also applies to the line optimizer if it
+     * is one of the line searches of this package, so call it after
+     * {@link #setLineOptimizer(LineOptimizer.ByGradient)}.
+     */
+    public void setMetrics(OptimizerMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics");
+        }
+        this.metrics = metrics;
+        Optimizables.setMetrics(lineMaximizer, metrics);
+    }
+
     public boolean optimize() {
         return optimize(Integer.MAX_VALUE);
     }
 
     public boolean optimize(int numIterations) {
 
-        double initialValue = optimizable.getValue();
         if (logger.isLoggable(Level.FINE)) {
             logger.fine("Entering L-BFGS.optimize(). Initial Value="
-                    + initialValue);
+                    + optimizable.getValue());
         }
 
         if (g == null) { // first time through
@@ -102,25 +215,12 @@ public final class LimitedMemoryBFGS implements Optimizer {
             }
 
             iterations = 0;
-            s = new SupersedingDoubleArrayQueue(m);
-            y = new SupersedingDoubleArrayQueue(m);
-            rho = new SupersedingDoubleQueue(m);
-            alpha = new double[m];
-
-            for (int i = 0; i < m; i++) {
-                alpha[i] = 0.0;
-            }
-
-            parameters = new double[optimizable.getNumParameters()];
-            oldParameters = new double[optimizable.getNumParameters()];
-            g = new double[optimizable.getNumParameters()];
-            oldg = new double[optimizable.getNumParameters()];
-            direction = new double[optimizable.getNumParameters()];
+            allocate(optimizable.getNumParameters());
 
             optimizable.getParameters(parameters);
             System.arraycopy(parameters, 0, oldParameters, 0, parameters.length);
 
-            optimizable.getValueGradient(g);
+            value = Optimizables.getValueAndGradient(optimizable, g, metrics);
             System.arraycopy(g, 0, oldg, 0, g.length);
             System.arraycopy(g, 0, direction, 0, g.length);
 
@@ -135,8 +235,7 @@ public final class LimitedMemoryBFGS implements Optimizer {
                 logger.fine("direction.2norm: " + MatrixOps.twoNorm(direction));
             }
 
-            MatrixOps
-                    .timesEquals(direction, 1.0 / MatrixOps.twoNorm(direction));
+            kernels.timesEquals(direction, 1.0 / kernels.twoNorm(direction));
 
             // make initial jump
             if (logger.isLoggable(Level.FINE)) {
@@ -146,7 +245,8 @@ public final class LimitedMemoryBFGS implements Optimizer {
                         + MatrixOps.twoNorm(parameters));
             }
 
-            step = lineMaximizer.optimize(direction, step);
+            step = Optimizables.optimize(lineMaximizer, direction, step,
+                    value, g);
             if (step == 0.0) {
                 // could not step in this direction.
                 // give up and say converged.
@@ -161,7 +261,8 @@ public final class LimitedMemoryBFGS implements Optimizer {
             }
 
             optimizable.getParameters(parameters);
-            optimizable.getValueGradient(g);
+            value = Optimizables.getAcceptedValueAndGradient(lineMaximizer,
+                    optimizable, g, metrics);
 
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine("after initial jump: \ndirection.2norm: "
@@ -171,7 +272,10 @@ public final class LimitedMemoryBFGS implements Optimizer {
         }
 
         for (int iterationCount = 0; iterationCount < numIterations; iterationCount++) {
-            double value = optimizable.getValue();
+            // the value at the current parameters is known from the end of
+            // the previous iteration (or the initial jump)
+            double value = this.value;
+            Object event = FlightRecorder.beginIteration();
 
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine("L-BFGS iteration=" + iterationCount + ", value="
@@ -179,48 +283,46 @@ public final class LimitedMemoryBFGS implements Optimizer {
                         + " oldg.twoNorm: " + MatrixOps.twoNorm(oldg));
             }
 
-            // get difference between previous 2 gradients and parameters
+            long directionStart = (metrics == OptimizerMetrics.NONE) ? 0L
+                    : System.nanoTime();
+
+            // check the differences between the previous 2 gradients and
+            // parameters before they are written into the history, where
+            // they would replace the oldest pair
             double sy = 0.0;
             double yy = 0.0;
-
             for (int i = 0; i < oldParameters.length; i++) {
-                // -inf - (-inf) = 0; inf - inf = 0
-                if (Double.isInfinite(parameters[i])
-                        && Double.isInfinite(oldParameters[i])
-                        && (parameters[i] * oldParameters[i] > 0)) {
-                    oldParameters[i] = 0.0;
-                } else {
-                    oldParameters[i] = parameters[i] - oldParameters[i];
-                }
-
-                if (Double.isInfinite(g[i]) && Double.isInfinite(oldg[i])
-                        && (g[i] * oldg[i] > 0)) {
-                    oldg[i] = 0.0;
-                } else {
-                    oldg[i] = g[i] - oldg[i];
-                }
-
-                sy += oldParameters[i] * oldg[i]; // si * yi
-                yy += oldg[i] * oldg[i];
-                direction[i] = g[i];
+                double si = difference(parameters[i], oldParameters[i]);
+                double yi = difference(g[i], oldg[i]);
+                sy += si * yi;
+                yy += yi * yi;
             }
 
             if (sy > 0) {
+                g = null; // reset search
                 throw new InvalidOptimizableException("sy = " + sy + " > 0");
             }
 
             double gamma = sy / yy; // scaling factor
 
             if (gamma > 0) {
+                g = null; // reset search
                 throw new InvalidOptimizableException("gamma = " + gamma
                         + " > 0");
             }
 
+            // The appended slots hold the *differences* between parameters
+            // and gradient.
+            double[] nextS = s.nextSlot();
+            double[] nextY = y.nextSlot();
+            for (int i = 0; i < oldParameters.length; i++) {
+                nextS[i] = difference(parameters[i], oldParameters[i]);
+                nextY[i] = difference(g[i], oldg[i]);
+                direction[i] = g[i];
+            }
             rho.addLast(1.0 / sy);
-            // These arrays are now the *differences* between parameters and
-            // gradient.
-            s.addLast(oldParameters);
-            y.addLast(oldg);
+            s.commitSlot();
+            y.commitSlot();
 
             assert (s.size() == y.size()) : "s.size: " + s.size() + " y.size: "
                     + y.size();
@@ -229,22 +331,11 @@ public final class LimitedMemoryBFGS implements Optimizer {
             // This next section is where we calculate the new direction
             //
 
-            // First work backwards, from the most recent difference vectors
-            for (int i = s.size() - 1; i >= 0; i--) {
-                alpha[i] = rho.get(i)
-                        * MatrixOps.dotProduct(s.get(i), direction);
-                MatrixOps.plusEquals(direction, y.get(i), -1.0 * alpha[i]);
-            }
-
-            // Scale the direction by the ratio of s'y and y'y
-            MatrixOps.timesEquals(direction, gamma);
-
-            // Now work forwards, from the oldest to the newest difference
-            // vectors
-            for (int i = 0; i < y.size(); i++) {
-                double beta = rho.get(i)
-                        * MatrixOps.dotProduct(y.get(i), direction);
-                MatrixOps.plusEquals(direction, s.get(i), alpha[i] - beta);
+            if (vectorFree != null) {
+                vectorFree.pairAdded();
+                vectorFree.apply(s, y, direction, direction);
+            } else {
+                twoLoopRecursion(kernels, s, y, rho, alpha, direction, gamma);
             }
 
             // Move the current values to the "last iteration" buffers and
@@ -254,6 +345,9 @@ public final class LimitedMemoryBFGS implements Optimizer {
                 oldg[i] = g[i];
                 direction[i] *= -1.0;
             }
+            if (metrics != OptimizerMetrics.NONE) {
+                metrics.direction(System.nanoTime() - directionStart);
+            }
 
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine("before linesearch: direction.gradient.dotprod: "
@@ -263,8 +357,10 @@ public final class LimitedMemoryBFGS implements Optimizer {
                         + MatrixOps.twoNorm(parameters));
             }
 
-            // Do a line search in the current direction
-            step = lineMaximizer.optimize(direction, step);
+            // Do a line search in the current direction, starting with the
+            // full quasi-Newton step
+            step = Optimizables.optimize(lineMaximizer, direction, 1.0,
+                    value, g);
 
             if (step == 0.0) { // could not step in this direction.
                 g = null; // reset search
@@ -279,15 +375,22 @@ public final class LimitedMemoryBFGS implements Optimizer {
                 // return false;
             }
             optimizable.getParameters(parameters);
-            optimizable.getValueGradient(g);
+            double newValue = Optimizables.getAcceptedValueAndGradient(
+                    lineMaximizer, optimizable, g, metrics);
+            this.value = newValue;
+            if (metrics != OptimizerMetrics.NONE || event != null) {
+                double norm = kernels.twoNorm(g);
+                metrics.iteration(iterations + 1, newValue, norm, step,
+                        s.size());
+                FlightRecorder.endIteration(event, this, iterations + 1,
+                        newValue, norm, step);
+            }
 
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine("after linesearch: direction.2norm: "
                         + MatrixOps.twoNorm(direction));
             }
 
-            double newValue = optimizable.getValue();
-
             // Test for terminations
             if (2.0 * Math.abs(newValue - value) <= tolerance
                     * (Math.abs(newValue) + Math.abs(value) + eps)) {
@@ -296,7 +399,7 @@ public final class LimitedMemoryBFGS implements Optimizer {
                 converged = true;
                 return true;
             }
-            double gg = MatrixOps.twoNorm(g);
+            double gg = kernels.twoNorm(g);
             if (gg < gradientTolerance) {
                 if (logger.isLoggable(Level.FINE)) {
                     logger.fine("Exiting L-BFGS on termination #2: \ngradient="
@@ -318,8 +421,7 @@ public final class LimitedMemoryBFGS implements Optimizer {
 
             iterations++;
             if (iterations > maxIterations) {
-                System.err
-                        .println("Too many iterations in L-BFGS.java. Continuing with current parameters.");
+                logger.warning("Too many iterations in L-BFGS.java. Continuing with current parameters.");
                 converged = true;
                 return true;
                 // throw new IllegalStateException ("Too many iterations.");
@@ -337,6 +439,120 @@ public final class LimitedMemoryBFGS implements Optimizer {
         return false;
     }
 
+    // (re)initializes the state of a new search
+    private void allocate(int numParameters) {
+        if (parameters == null || parameters.length != numParameters
+                || s.isSinglePrecision() != singlePrecision) {
+            s = new SupersedingDoubleArrayQueue(m, numParameters,
+                    singlePrecision);
+            y = new SupersedingDoubleArrayQueue(m, numParameters,
+                    singlePrecision);
+            rho = new SupersedingDoubleQueue(m);
+            alpha = new double[m];
+
+            parameters = new double[numParameters];
+            oldParameters = new double[numParameters];
+            oldg = new double[numParameters];
+            direction = new double[numParameters];
+        } else {
+            // reuse the buffers of a previous search
+            s.clear();
+            y.clear();
+            rho.clear();
+        }
+        if (vectorFree != null) {
+            vectorFree.reset(0);
+        }
+        g = new double[numParameters];
+    }
+
+    /**
+     * Writes the state of the search (correction history, parameters,
+     * gradients, step and iteration count) to {@code checkpoint}. Must be
+     * called between iterations, i.e. after {@link #optimize(int)} returned
+     * or from the {@link OptimizerEvaluator}. Does nothing if no search is in
+     * progress.
+     */
+    public void writeCheckpoint(OptimizerCheckpoint checkpoint)
+            throws IOException {
+        if (g == null) {
+            return;
+        }
+        checkpoint.write(OptimizerCheckpoint.LBFGS, iterations, new double[] {
+                value, step, 0.0, 0.0 }, s, y, rho, parameters, oldParameters,
+                g, oldg);
+    }
+
+    /**
+     * Continues the search from the state in {@code checkpoint}, which must
+     * have been written by an L-BFGS optimizer with the same history size
+     * for a function with the same number of parameters. The parameters of
+     * the function are set to those of the checkpoint. Returns false (and
+     * leaves the optimizer to start a new search) if the file holds no
+     * complete checkpoint.
+     */
+    public boolean restoreCheckpoint(OptimizerCheckpoint checkpoint)
+            throws IOException {
+        allocate(optimizable.getNumParameters());
+        double[] scalars = new double[OptimizerCheckpoint.SCALARS];
+        int restored = -1;
+        try {
+            restored = checkpoint.read(OptimizerCheckpoint.LBFGS, scalars, s,
+                    y, rho, parameters, oldParameters, g, oldg);
+        } finally {
+            if (restored < 0) {
+                g = null;
+            }
+        }
+        if (restored < 0) {
+            return false;
+        }
+        iterations = restored;
+        value = scalars[0];
+        step = scalars[1];
+        converged = false;
+        if (vectorFree != null) {
+            vectorFree.reset(s.size());
+        }
+        optimizable.setParameters(parameters);
+        return true;
+    }
+
+    // a - b, where -inf - (-inf) = 0 and inf - inf = 0
+    private static double difference(double a, double b) {
+        if (Double.isInfinite(a) && Double.isInfinite(b) && a * b > 0) {
+            return 0.0;
+        }
+        return a - b;
+    }
+
+    /**
+     * Standard two-loop recursion, overwrites {@code direction} with
+     * {@code H * direction} where the initial approximation of the inverse
+     * Hessian H is scaled by {@code gamma}. {@code alpha} is scratch space of
+     * at least {@code s.size()} elements.
+     */
+    static void twoLoopRecursion(VectorKernels kernels,
+            SupersedingDoubleArrayQueue s, SupersedingDoubleArrayQueue y,
+            SupersedingDoubleQueue rho, double[] alpha, double[] direction,
+            double gamma) {
+        // First work backwards, from the most recent difference vectors
+        for (int i = s.size() - 1; i >= 0; i--) {
+            alpha[i] = rho.get(i) * s.dotProduct(kernels, i, direction);
+            y.plusEquals(kernels, direction, i, -1.0 * alpha[i]);
+        }
+
+        // Scale the direction by the ratio of s'y and y'y
+        kernels.timesEquals(direction, gamma);
+
+        // Now work forwards, from the oldest to the newest difference
+        // vectors
+        for (int i = 0; i < y.size(); i++) {
+            double beta = rho.get(i) * y.dotProduct(kernels, i, direction);
+            s.plusEquals(kernels, direction, i, alpha[i] - beta);
+        }
+    }
+
     /**
      * Resets the previous gradients and values that are used to approximate the
      * Hessian. NOTE - If the {@link Optimizable} object is modified externally,
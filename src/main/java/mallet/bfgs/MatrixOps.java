@@ -65,6 +65,64 @@ final class MatrixOps {
         }
     }
 
+    static void timesEquals(double[] m, double factor, int from, int to) {
+        for (int i = from; i < to; i++)
+            m[i] *= factor;
+    }
+
+    static void plusEquals(double[] m1, double[] m2, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (Double.isInfinite(m1[i]) && Double.isInfinite(m2[i])
+                    && (m1[i] * m2[i] < 0))
+                m1[i] = 0.0;
+            else
+                m1[i] += m2[i];
+        }
+    }
+
+    static void plusEquals(double[] m1, double[] m2, double factor,
+            int from, int to) {
+        for (int i = from; i < to; i++) {
+            double m1i = m1[i];
+            double m2i = m2[i];
+            if (Double.isInfinite(m1i) && Double.isInfinite(m2i)
+                    && (m1i * m2i < 0))
+                m1[i] = 0.0;
+            else
+                m1[i] += m2i * factor;
+        }
+    }
+
+    static double dotProduct(double[] m1, double[] m2, int from, int to) {
+        double ret = 0.0;
+        for (int i = from; i < to; i++)
+            ret += m1[i] * m2[i];
+        return ret;
+    }
+
+    static double absNorm(double[] m, int from, int to) {
+        double ret = 0;
+        for (int i = from; i < to; i++)
+            ret += Math.abs(m[i]);
+        return ret;
+    }
+
+    // the sum of squares, i.e. the square of the two-norm of the range
+    static double twoNormSquared(double[] m, int from, int to) {
+        double ret = 0;
+        for (int i = from; i < to; i++)
+            ret += m[i] * m[i];
+        return ret;
+    }
+
+    static double infinityNorm(double[] m, int from, int to) {
+        double ret = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++)
+            if (Math.abs(m[i]) > ret)
+                ret = Math.abs(m[i]);
+        return ret;
+    }
+
     static double dotProduct(double[] m1, double[] m2) {
         double ret = 0.0;
         for (int i = 0; i < m1.length; i++)
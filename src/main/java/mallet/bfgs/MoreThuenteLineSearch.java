@@ -0,0 +1,449 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.logging.*;
+
+/**
+ * A line search that finds a step satisfying the strong Wolfe conditions
+ *
+ * <pre>
+ * f(x + stp * d) >= f(x) + ftol * stp * g'd
+ * |g(x + stp * d)'d| <= gtol * |g'd|
+ * </pre>
+ *
+ * following J. J. More and D. J. Thuente, "Line Search Algorithms with
+ * Guaranteed Sufficient Decrease", ACM TOMS 20(3), 1994 (the MINPACK-2
+ * routines dcsrch and dcstep), translated to maximization.
+ * <p>
+ * Unlike {@link BackTrackLineSearch} the initial step passed to
+ * {@link #optimize(double[], double)} is honored, and the curvature condition
+ * guarantees s'y &lt; 0 for the correction pairs of the quasi-Newton
+ * optimizers. The gradient is evaluated together with the value at every
+ * trial step. The optimizers of this package take the value and gradient at
+ * the start point from their last iteration and reuse those of the accepted
+ * step, so that no point is evaluated twice.
+ * <p>
+ * The default gtol of 0.9 suits the quasi-Newton optimizers. For
+ * {@link ConjugateGradient} a more accurate line search (e.g. gtol = 0.1) is
+ * usually better.
+ */
+public final class MoreThuenteLineSearch implements LineOptimizer.ByGradient {
+    private static final Logger logger = Logger
+            .getLogger(MoreThuenteLineSearch.class.getName());
+
+    private static final double STPMIN = 1e-20;
+    private static final double STPMAX = 1e20;
+    private static final double XTOL = 1e-16;
+
+    private final Optimizable.ByGradientValue function;
+    // non-null if the trial steps are directional updates
+    private final Optimizable.ByDirectionalUpdate directional;
+    private final Workspace workspace;
+    private VectorKernels kernels = VectorKernels.DEFAULT;
+    private OptimizerMetrics metrics = OptimizerMetrics.NONE;
+
+    private double ftol = 1e-4;
+    private double gtol = 0.9;
+    private int maxEvaluations = 20;
+
+    // State of the search in terms of the minimization of
+    // phi(stp) = -f(x + stp * d). The best step so far is stx, the other
+    // endpoint of the interval of uncertainty is sty.
+    private double stx, fx, dgx;
+    private double sty, fy, dgy;
+    private double stp;
+    private boolean brackt;
+    private int trials;
+    // value at the accepted step of the last search if LINE_GRADIENT holds
+    // the gradient there, NaN otherwise
+    private double acceptedValue = Double.NaN;
+
+    public MoreThuenteLineSearch(Optimizable.ByGradientValue function) {
+        this(function, new Workspace());
+    }
+
+    MoreThuenteLineSearch(Optimizable.ByGradientValue function,
+            Workspace workspace) {
+        this.function = function;
+        if (function instanceof Optimizable.ByDirectionalUpdate) {
+            directional = (Optimizable.ByDirectionalUpdate) function;
+        } else {
+            directional = null;
+        }
+        this.workspace = workspace;
+    }
+
+    /**
+     * Sets the parameter of the sufficient increase condition (default 1e-4).
+     */
+    public void setFtol(double ftol) {
+        if (!(ftol > 0.0 && ftol < 1.0)) {
+            throw new IllegalArgumentException("ftol: " + ftol);
+        }
+        this.ftol = ftol;
+    }
+
+    /**
+     * Sets the parameter of the curvature condition (default 0.9). Must be
+     * larger than ftol for the search to be guaranteed to succeed.
+     */
+    public void setGtol(double gtol) {
+        if (!(gtol > 0.0 && gtol < 1.0)) {
+            throw new IllegalArgumentException("gtol: " + gtol);
+        }
+        this.gtol = gtol;
+    }
+
+    /** Sets the maximum number of evaluations per search (default 20). */
+    public void setMaxEvaluations(int maxEvaluations) {
+        if (maxEvaluations <= 0) {
+            throw new IllegalArgumentException("maxEvaluations: "
+                    + maxEvaluations);
+        }
+        this.maxEvaluations = maxEvaluations;
+    }
+
+    public void setVectorKernels(VectorKernels kernels) {
+        if (kernels == null) {
+            throw new NullPointerException("kernels");
+        }
+        this.kernels = kernels;
+    }
+
+    public void setMetrics(OptimizerMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics");
+        }
+        this.metrics = metrics;
+    }
+
+    /**
+     * Moves the parameters of the function along {@code line}, starting with
+     * {@code initialStep} (1.0 if not positive). Returns the accepted step,
+     * or 0.0 if no step that increases the value could be found, in which
+     * case the parameters are restored.
+     */
+    public double optimize(double[] line, double initialStep) {
+        return optimize(line, initialStep, Double.NaN, null);
+    }
+
+    /**
+     * {@link #optimize(double[], double)} for a caller that knows the value
+     * {@code value} and the gradient {@code gradient} at the current
+     * parameters, which are then not evaluated again. {@code gradient} is not
+     * modified.
+     */
+    double optimize(double[] line, double initialStep, double value,
+            double[] gradient) {
+        Object event = FlightRecorder.beginLineSearch();
+        if (metrics == OptimizerMetrics.NONE && event == null) {
+            return search(line, initialStep, value, gradient);
+        }
+        long start = System.nanoTime();
+        trials = 0;
+        double step = search(line, initialStep, value, gradient);
+        metrics.lineSearch(trials, step, System.nanoTime() - start);
+        FlightRecorder.endLineSearch(event, trials, step);
+        return step;
+    }
+
+    /**
+     * If the last search accepted the step at which it evaluated the function
+     * last, copies the gradient there into {@code buffer} and returns the
+     * value. Returns NaN otherwise.
+     */
+    double getAcceptedValueAndGradient(double[] buffer) {
+        if (Double.isNaN(acceptedValue)) {
+            return Double.NaN;
+        }
+        System.arraycopy(workspace.get(Workspace.LINE_GRADIENT,
+                buffer.length), 0, buffer, 0, buffer.length);
+        return acceptedValue;
+    }
+
+    private double search(double[] line, double initialStep, double value,
+            double[] gradient) {
+        int n = function.getNumParameters();
+        double[] g = workspace.get(Workspace.LINE_GRADIENT, n);
+        double[] x = workspace.get(Workspace.LINE_PARAMETERS, n);
+        double[] oldParameters = workspace.get(Workspace.LINE_OLD_PARAMETERS,
+                n);
+        function.getParameters(oldParameters);
+        acceptedValue = Double.NaN;
+
+        if (gradient == null) {
+            value = Optimizables.getValueAndGradient(function, g, metrics);
+            gradient = g;
+        }
+        double finit = -value;
+        double dginit = -kernels.dotProduct(gradient, line);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Entering More-Thuente line search, value=" + -finit
+                    + " slope=" + -dginit + " initialStep=" + initialStep);
+        }
+        if (dginit > 0) {
+            throw new InvalidOptimizableException("Slope = " + -dginit
+                    + " is negative");
+        }
+        if (dginit == 0) {
+            throw new InvalidOptimizableException("Slope = " + -dginit
+                    + " is zero");
+        }
+
+        if (directional != null) {
+            directional.setLine(oldParameters, line);
+        }
+        double dgtest = ftol * dginit;
+        double width = STPMAX - STPMIN;
+        double prevWidth = 2.0 * width;
+        boolean stage1 = true;
+        brackt = false;
+        stx = sty = 0.0;
+        fx = fy = finit;
+        dgx = dgy = dginit;
+        stp = (initialStep > 0.0) ? Math.min(initialStep, STPMAX) : 1.0;
+
+        for (int count = 1;; count++) {
+            double stmin, stmax;
+            if (brackt) {
+                stmin = Math.min(stx, sty);
+                stmax = Math.max(stx, sty);
+            } else {
+                stmin = stx;
+                stmax = stp + 4.0 * (stp - stx);
+            }
+
+            evaluate(oldParameters, line, x, stp);
+            trials = count;
+            double f = -Optimizables.getValueAndGradient(function, g, metrics);
+            double dg = -kernels.dotProduct(g, line);
+            double ftest = finit + stp * dgtest;
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("More-Thuente evaluation " + count + ": step="
+                        + stp + " value=" + -f + " slope=" + -dg);
+            }
+
+            if (Double.isNaN(f) || Double.isInfinite(f) || Double.isNaN(dg)) {
+                // jumped to unstable territory, move back towards the best
+                // step
+                if (count >= maxEvaluations) {
+                    return giveUp(oldParameters, line, x, finit);
+                }
+                logger.warning("Value is not finite after step " + stp
+                        + ". Scaling back step size...");
+                stp = stx + 0.5 * (stp - stx);
+                continue;
+            }
+
+            // strong Wolfe conditions
+            if (f <= ftest && Math.abs(dg) <= gtol * -dginit) {
+                acceptedValue = -f;
+                return stp;
+            }
+            if ((brackt && (stp <= stmin || stmax <= stp))
+                    || (stp == STPMAX && f <= ftest && dg <= dgtest)
+                    || (stp == STPMIN && (ftest < f || dgtest <= dg))
+                    || (brackt && stmax - stmin <= XTOL * stmax)
+                    || count >= maxEvaluations) {
+                // rounding errors, step bounds, interval too small or out
+                // of evaluations
+                if (f < finit && f <= ftest) {
+                    acceptedValue = -f;
+                    return stp;
+                }
+                return giveUp(oldParameters, line, x, finit);
+            }
+
+            if (stage1 && f <= ftest && Math.min(ftol, gtol) * dginit <= dg) {
+                stage1 = false;
+            }
+
+            if (stage1 && ftest < f && f <= fx) {
+                // use the modified function psi(stp) = phi(stp) -
+                // stp * dgtest as long as no step with sufficient increase
+                // and non-positive derivative of psi has been found
+                fx -= stx * dgtest;
+                fy -= sty * dgtest;
+                dgx -= dgtest;
+                dgy -= dgtest;
+                step(f - stp * dgtest, dg - dgtest, stmin, stmax);
+                fx += stx * dgtest;
+                fy += sty * dgtest;
+                dgx += dgtest;
+                dgy += dgtest;
+            } else {
+                step(f, dg, stmin, stmax);
+            }
+
+            // force a sufficient decrease in the size of the interval
+            if (brackt) {
+                if (0.66 * prevWidth <= Math.abs(sty - stx)) {
+                    stp = stx + 0.5 * (sty - stx);
+                }
+                prevWidth = width;
+                width = Math.abs(sty - stx);
+            }
+
+            // the next trial step
+            stp = Math.max(stp, STPMIN);
+            stp = Math.min(stp, STPMAX);
+            if (brackt
+                    && (stp <= Math.min(stx, sty)
+                            || Math.max(stx, sty) <= stp || Math.max(stx,
+                            sty) - Math.min(stx, sty) <= XTOL
+                            * Math.max(stx, sty))) {
+                stp = stx;
+            }
+        }
+    }
+
+    // x = oldParameters + step * line
+    private void evaluate(double[] oldParameters, double[] line, double[] x,
+            double step) {
+        if (directional != null) {
+            directional.moveAlongLine(step);
+            return;
+        }
+        System.arraycopy(oldParameters, 0, x, 0, x.length);
+        kernels.plusEquals(x, line, step);
+        function.setParameters(x);
+    }
+
+    // moves to the best step found so far if that increased the value,
+    // otherwise restores the initial parameters
+    private double giveUp(double[] oldParameters, double[] line, double[] x,
+            double finit) {
+        if (stx > 0.0 && fx < finit) {
+            logger.warning("EXITING More-Thuente line search: using best step "
+                    + stx + " without curvature condition. Value=" + -fx);
+            evaluate(oldParameters, line, x, stx);
+            return stx;
+        }
+        function.setParameters(oldParameters);
+        logger.warning("EXITING More-Thuente line search: no increase found. "
+                + "Exiting and using xold. Value=" + -finit);
+        return 0.0;
+    }
+
+    // dcstep: updates the interval of uncertainty [stx, sty] with the trial
+    // step stp (value f, derivative dg) and computes the next trial step
+    private void step(double f, double dg, double stpmin, double stpmax) {
+        double sgnd = dg * (dgx / Math.abs(dgx));
+        double stpf;
+
+        if (f > fx) {
+            // higher function value: the minimum is bracketed
+            double stpc = cubicMinimizer(stx, fx, dgx, stp, f, dg);
+            double stpq = stx + ((dgx / ((fx - f) / (stp - stx) + dgx)) / 2.0)
+                    * (stp - stx);
+            if (Math.abs(stpc - stx) < Math.abs(stpq - stx)) {
+                stpf = stpc;
+            } else {
+                stpf = stpc + (stpq - stpc) / 2.0;
+            }
+            brackt = true;
+        } else if (sgnd < 0.0) {
+            // derivatives of opposite sign: the minimum is bracketed
+            double stpc = cubicMinimizer(stp, f, dg, stx, fx, dgx);
+            double stpq = stp + (dg / (dg - dgx)) * (stx - stp);
+            if (Math.abs(stpc - stp) > Math.abs(stpq - stp)) {
+                stpf = stpc;
+            } else {
+                stpf = stpq;
+            }
+            brackt = true;
+        } else if (Math.abs(dg) < Math.abs(dgx)) {
+            // the magnitude of the derivative decreases
+            double theta = 3.0 * (fx - f) / (stp - stx) + dgx + dg;
+            double s = Math.max(Math.abs(theta),
+                    Math.max(Math.abs(dgx), Math.abs(dg)));
+            double gamma = s
+                    * Math.sqrt(Math.max(0.0, (theta / s) * (theta / s)
+                            - (dgx / s) * (dg / s)));
+            if (stp > stx) {
+                gamma = -gamma;
+            }
+            double p = (gamma - dg) + theta;
+            double q = (gamma + (dgx - dg)) + gamma;
+            double r = p / q;
+            double stpc;
+            if (r < 0.0 && gamma != 0.0) {
+                stpc = stp + r * (stx - stp);
+            } else if (stp > stx) {
+                stpc = stpmax;
+            } else {
+                stpc = stpmin;
+            }
+            double stpq = stp + (dg / (dg - dgx)) * (stx - stp);
+            if (brackt) {
+                if (Math.abs(stpc - stp) < Math.abs(stpq - stp)) {
+                    stpf = stpc;
+                } else {
+                    stpf = stpq;
+                }
+                if (stp > stx) {
+                    stpf = Math.min(stp + 0.66 * (sty - stp), stpf);
+                } else {
+                    stpf = Math.max(stp + 0.66 * (sty - stp), stpf);
+                }
+            } else {
+                if (Math.abs(stpc - stp) > Math.abs(stpq - stp)) {
+                    stpf = stpc;
+                } else {
+                    stpf = stpq;
+                }
+                stpf = Math.min(stpmax, stpf);
+                stpf = Math.max(stpmin, stpf);
+            }
+        } else {
+            // the magnitude of the derivative does not decrease
+            if (brackt) {
+                stpf = cubicMinimizer(stp, f, dg, sty, fy, dgy);
+            } else if (stp > stx) {
+                stpf = stpmax;
+            } else {
+                stpf = stpmin;
+            }
+        }
+
+        // update the interval which contains a minimizer
+        if (f > fx) {
+            sty = stp;
+            fy = f;
+            dgy = dg;
+        } else {
+            if (sgnd < 0.0) {
+                sty = stx;
+                fy = fx;
+                dgy = dgx;
+            }
+            stx = stp;
+            fx = f;
+            dgx = dg;
+        }
+        stp = stpf;
+    }
+
+    // minimizer of the cubic that interpolates the values and derivatives
+    // at u and v
+    private static double cubicMinimizer(double u, double fu, double du,
+            double v, double fv, double dv) {
+        double theta = 3.0 * (fu - fv) / (v - u) + du + dv;
+        double s = Math.max(Math.abs(theta),
+                Math.max(Math.abs(du), Math.abs(dv)));
+        double gamma = s
+                * Math.sqrt((theta / s) * (theta / s) - (du / s) * (dv / s));
+        if (v < u) {
+            gamma = -gamma;
+        }
+        double p = (gamma - du) + theta;
+        double q = ((gamma - du) + gamma) + dv;
+        return u + (p / q) * (v - u);
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.nio.DoubleBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Limited memory BFGS for an {@link OffHeapOptimizable}. The algorithm and
+ * its termination criteria are those of {@link LimitedMemoryBFGS}, with the
+ * backtracking line search built in, but all vectors are
+ * {@link OffHeapVector}s: the parameters may number more than 2^31, and the
+ * 5 state vectors and the 2m history vectors are kept outside the Java heap.
+ * The history vectors are allocated as the history fills up and are reused
+ * afterwards.
+ * <p>
+ * The (5 + 2m) * 8n bytes of these vectors are direct memory, which is
+ * limited by {@code -XX:MaxDirectMemorySize} (by default about the maximum
+ * heap size) rather than by the heap, see {@link OffHeapVector}. Size that
+ * limit for the problem, otherwise the allocation fails with an
+ * {@code OutOfMemoryError: Direct buffer memory}.
+ * <p>
+ * This class does not implement {@link Optimizer}, whose
+ * {@link Optimizer#getOptimizable()} is an {@link Optimizable}.
+ */
+public final class OffHeapLimitedMemoryBFGS {
+
+    private static final Logger logger = Logger
+            .getLogger(OffHeapLimitedMemoryBFGS.class.getName());
+
+    private static final int maxIterations = 1000;
+    private static final double gradientTolerance = .001;
+    private static final double eps = 1.0e-5;
+
+    // line search constants, see BackTrackLineSearch
+    private static final int maxTrials = 100;
+    private static final double stpmax = 100;
+    private static final double ALF = 1e-4;
+    private static final double relTolx = 1e-7;
+    private static final double absTolx = 1e-4;
+
+    private final OffHeapOptimizable.ByGradientValue optimizable;
+    private final int m;
+    private final int segmentShift;
+    private double tolerance = .0001;
+    private boolean converged = false;
+    // false until the first iteration of a search has been prepared
+    private boolean searching = false;
+
+    // State of the search, s and y hold the parameter and gradient
+    // differences of the last m iterations in a ring starting at head
+    private OffHeapVector g, oldg, direction, parameters, oldParameters;
+    private OffHeapVector[] s;
+    private OffHeapVector[] y;
+    private int head;
+    private int size;
+    private SupersedingDoubleQueue rho;
+    private double[] alpha;
+    private double value;
+    private int iterations;
+
+    public OffHeapLimitedMemoryBFGS(OffHeapOptimizable.ByGradientValue function) {
+        this(function, 4);
+    }
+
+    /**
+     * @param function
+     *            the function to be maximized
+     * @param m
+     *            the number of corrections (s, y pairs) kept in the history
+     */
+    public OffHeapLimitedMemoryBFGS(
+            OffHeapOptimizable.ByGradientValue function, int m) {
+        this(function, m, OffHeapVector.DEFAULT_SEGMENT_SHIFT);
+    }
+
+    // vectors with segments of 2^segmentShift elements, for the tests
+    OffHeapLimitedMemoryBFGS(OffHeapOptimizable.ByGradientValue function,
+            int m, int segmentShift) {
+        if (m <= 0) {
+            throw new IllegalArgumentException("m must be positive: " + m);
+        }
+        this.optimizable = function;
+        this.m = m;
+        this.segmentShift = segmentShift;
+    }
+
+    public OffHeapOptimizable getOptimizable() {
+        return optimizable;
+    }
+
+    public boolean isConverged() {
+        return converged;
+    }
+
+    public void setTolerance(double newtol) {
+        tolerance = newtol;
+    }
+
+    public int getIteration() {
+        return iterations;
+    }
+
+    /** Returns the number of corrections kept in the history. */
+    public int getHistorySize() {
+        return m;
+    }
+
+    public boolean optimize() {
+        return optimize(Integer.MAX_VALUE);
+    }
+
+    public boolean optimize(int numIterations) {
+        if (!searching) { // first time through
+            iterations = 0;
+            allocate(optimizable.getNumParameters());
+            searching = true;
+            optimizable.getParameters(parameters);
+            oldParameters.copyFrom(parameters);
+            value = optimizable.getValue();
+            optimizable.getValueGradient(g);
+            oldg.copyFrom(g);
+            direction.copyFrom(g);
+
+            double norm = direction.twoNorm();
+            if (norm == 0) {
+                logger.info("L-BFGS initial gradient is zero; saying converged");
+                searching = false;
+                converged = true;
+                return true;
+            }
+            direction.timesEquals(1.0 / norm);
+
+            // make initial jump
+            if (lineSearch() == 0.0) {
+                searching = false;
+                throw new OptimizationException(
+                        "Line search could not step in the current direction. "
+                                + "(This is not necessarily cause for alarm. Sometimes this happens close to the maximum,"
+                                + " where the function may be very flat.)");
+            }
+            optimizable.getValueGradient(g);
+        }
+
+        for (int iterationCount = 0; iterationCount < numIterations; iterationCount++) {
+            double value = this.value;
+
+            // check the differences of the last step before they are written
+            // into the history, where they would replace the oldest pair
+            double sy = 0.0;
+            double yy = 0.0;
+            for (int k = 0; k < g.getSegmentCount(); k++) {
+                DoubleBuffer x = parameters.segment(k);
+                DoubleBuffer oldx = oldParameters.segment(k);
+                DoubleBuffer gk = g.segment(k);
+                DoubleBuffer oldgk = oldg.segment(k);
+                for (int i = 0, n = gk.limit(); i < n; i++) {
+                    double si = x.get(i) - oldx.get(i);
+                    double yi = gk.get(i) - oldgk.get(i);
+                    sy += si * yi;
+                    yy += yi * yi;
+                }
+            }
+            if (sy > 0) {
+                searching = false; // reset search
+                throw new InvalidOptimizableException("sy = " + sy + " > 0");
+            }
+            double gamma = sy / yy; // scaling factor
+            if (gamma > 0) {
+                searching = false; // reset search
+                throw new InvalidOptimizableException("gamma = " + gamma
+                        + " > 0");
+            }
+
+            // append the differences to the history
+            int slot = (size < m) ? (head + size) % m : head;
+            if (s[slot] == null) {
+                s[slot] = parameters.like();
+                y[slot] = parameters.like();
+            }
+            s[slot].setSum(parameters, oldParameters, -1.0);
+            y[slot].setSum(g, oldg, -1.0);
+            if (size < m) {
+                ++size;
+            } else {
+                head = (head + 1) % m;
+            }
+            rho.addLast(1.0 / sy);
+
+            direction.copyFrom(g);
+            twoLoopRecursion(gamma);
+            direction.timesEquals(-1.0);
+            oldParameters.copyFrom(parameters);
+            oldg.copyFrom(g);
+
+            // Do a line search in the current direction, starting with the
+            // full quasi-Newton step
+            double step = lineSearch();
+            if (step == 0.0) { // could not step in this direction.
+                searching = false; // reset search
+                throw new OptimizationException(
+                        "Line search could not step in the current direction. "
+                                + "(This is not necessarily cause for alarm. Sometimes this happens close to the maximum,"
+                                + " where the function may be very flat.)");
+            }
+            optimizable.getValueGradient(g);
+            double newValue = this.value;
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("L-BFGS iteration=" + iterationCount + ", value="
+                        + newValue + ", step=" + step);
+            }
+
+            // Test for terminations
+            if (2.0 * Math.abs(newValue - value) <= tolerance
+                    * (Math.abs(newValue) + Math.abs(value) + eps)) {
+                logger.info("Exiting L-BFGS on termination #1:\nvalue difference below tolerance (oldValue: "
+                        + value + " newValue: " + newValue);
+                converged = true;
+                return true;
+            }
+            double gg = g.twoNorm();
+            if (gg < gradientTolerance) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Exiting L-BFGS on termination #2: \ngradient="
+                            + gg + " < " + gradientTolerance);
+                }
+                converged = true;
+                return true;
+            }
+
+            iterations++;
+            if (iterations > maxIterations) {
+                logger.warning("Too many iterations in L-BFGS.java. Continuing with current parameters.");
+                converged = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // overwrites direction with H * direction, see
+    // LimitedMemoryBFGS.twoLoopRecursion
+    private void twoLoopRecursion(double gamma) {
+        for (int i = size - 1; i >= 0; i--) {
+            int k = (head + i) % m;
+            alpha[i] = rho.get(i) * s[k].dotProduct(direction);
+            direction.plusEquals(y[k], -1.0 * alpha[i]);
+        }
+        direction.timesEquals(gamma);
+        for (int i = 0; i < size; i++) {
+            int k = (head + i) % m;
+            double beta = rho.get(i) * y[k].dotProduct(direction);
+            direction.plusEquals(s[k], alpha[i] - beta);
+        }
+    }
+
+    // Backtracking from oldParameters along direction, as in
+    // BackTrackLineSearch. Leaves the parameters of the function at the
+    // accepted point and its value in this.value, returns the step or 0.0 if
+    // no step increases the value, in which case the parameters are restored.
+    private double lineSearch() {
+        double fold = value;
+        double sum = direction.twoNorm();
+        if (sum > stpmax) {
+            logger.warning("attempted step too big. scaling: sum=" + sum
+                    + ", stpmax=" + stpmax);
+            direction.timesEquals(stpmax / sum);
+        }
+        double slope = g.dotProduct(direction);
+        if (slope < 0) {
+            throw new InvalidOptimizableException("Slope = " + slope
+                    + " is negative");
+        }
+        if (slope == 0) {
+            throw new InvalidOptimizableException("Slope = " + slope
+                    + " is zero");
+        }
+
+        // the smallest step that still changes some coordinate by more than
+        // relTolx relative to its value, and the step below which no
+        // coordinate changes by more than absTolx
+        double test = 0.0;
+        for (int k = 0; k < direction.getSegmentCount(); k++) {
+            DoubleBuffer d = direction.segment(k);
+            DoubleBuffer x = oldParameters.segment(k);
+            for (int i = 0, n = d.limit(); i < n; i++) {
+                double temp = Math.abs(d.get(i))
+                        / Math.max(Math.abs(x.get(i)), 1.0);
+                if (temp > test) {
+                    test = temp;
+                }
+            }
+        }
+        double alamin = relTolx / test;
+        double maxMove = direction.infinityNorm();
+
+        double alam = 1.0;
+        double alam2 = 0.0;
+        double f2 = fold;
+        for (int trial = 0; trial < maxTrials; trial++) {
+            if (alam < alamin || alam * maxMove <= absTolx) {
+                break;
+            }
+            parameters.setSum(oldParameters, direction, alam);
+            optimizable.setParameters(parameters);
+            double f = optimizable.getValue();
+            if (f >= fold + ALF * alam * slope) {
+                value = f;
+                return alam;
+            }
+            double tmplam;
+            if (Double.isInfinite(f) || Double.isNaN(f)) {
+                tmplam = .2 * alam;
+            } else if (trial == 0) {
+                tmplam = -slope / (2.0 * (f - fold - slope));
+            } else {
+                tmplam = Math.min(BackTrackLineSearch.cubic(fold, slope,
+                        alam, f, alam2, f2), .5 * alam);
+            }
+            alam2 = alam;
+            f2 = f;
+            alam = Math.max(tmplam, .1 * alam);
+        }
+        parameters.copyFrom(oldParameters);
+        optimizable.setParameters(parameters);
+        value = fold;
+        logger.warning("EXITING BACKTRACK: Jump too small (alamin=" + alamin
+                + "). Exiting and using xold. Value=" + fold);
+        return 0.0;
+    }
+
+    // (re)initializes the state of a new search
+    private void allocate(long numParameters) {
+        if (parameters == null || parameters.length() != numParameters) {
+            parameters = new OffHeapVector(numParameters, segmentShift);
+            oldParameters = parameters.like();
+            g = parameters.like();
+            oldg = parameters.like();
+            direction = parameters.like();
+            s = new OffHeapVector[m];
+            y = new OffHeapVector[m];
+            rho = new SupersedingDoubleQueue(m);
+            alpha = new double[m];
+        } else {
+            // reuse the vectors of a previous search
+            rho.clear();
+        }
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Resets the previous gradients and values that are used to approximate
+     * the Hessian.
+     */
+    public void reset() {
+        searching = false;
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+/**
+ * The counterpart of {@link Optimizable} for models whose parameters are
+ * indexed by {@code long} and exchanged as {@link OffHeapVector}s, e.g.
+ * hashed-feature models with billions of parameters. The vectors passed in
+ * have the length {@link #getNumParameters()}.
+ */
+public interface OffHeapOptimizable {
+
+    public long getNumParameters();
+
+    public void getParameters(OffHeapVector buffer);
+
+    public void setParameters(OffHeapVector params);
+
+    public interface ByGradientValue extends OffHeapOptimizable {
+        public void getValueGradient(OffHeapVector buffer);
+
+        public double getValue();
+    }
+}
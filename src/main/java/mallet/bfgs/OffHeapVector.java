@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * A vector of doubles with a {@code long} length, held outside the Java heap
+ * in direct buffers of at most 2^27 elements (1 GB) each. The vectors of
+ * {@link OffHeapLimitedMemoryBFGS} are of this kind, so that models with
+ * more than 2^31 parameters can be optimized and the long vectors neither
+ * count against the heap nor are traversed by the garbage collector.
+ * <p>
+ * Element {@code i} lives at position {@code i % getSegmentLength()} of
+ * segment {@code i / getSegmentLength()}. Bulk code should iterate over the
+ * segments (see {@link #segment(int)}) rather than call {@link #get(long)}
+ * for every element.
+ * <p>
+ * The buffers count against the direct memory limit of the JVM,
+ * {@code -XX:MaxDirectMemorySize}, which defaults to about the maximum heap
+ * size, not against the heap. The memory is only released when the garbage
+ * collector finds a vector unreachable. At the limit the JDK runs
+ * {@code System.gc()} once to reclaim such vectors (which
+ * {@code -XX:+DisableExplicitGC} prevents) and then fails with an
+ * {@code OutOfMemoryError: Direct buffer memory}.
+ */
+public final class OffHeapVector {
+
+    // 2^27 doubles per segment, a direct buffer has at most 2^31 - 1 bytes
+    static final int DEFAULT_SEGMENT_SHIFT = 27;
+
+    private final long length;
+    private final int shift;
+    private final long mask;
+    private final DoubleBuffer[] segments;
+
+    /** Allocates a vector of {@code length} zeros. */
+    public OffHeapVector(long length) {
+        this(length, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    // segments of 2^shift elements, small segments are for the tests
+    OffHeapVector(long length, int shift) {
+        if (length < 0) {
+            throw new IllegalArgumentException("length: " + length);
+        }
+        if (shift < 0 || shift > DEFAULT_SEGMENT_SHIFT) {
+            throw new IllegalArgumentException("shift: " + shift);
+        }
+        this.length = length;
+        this.shift = shift;
+        this.mask = (1L << shift) - 1;
+        int count = (int) ((length + mask) >>> shift);
+        segments = new DoubleBuffer[count];
+        for (int k = 0; k < count; k++) {
+            int size = (int) Math.min(1L << shift, length - ((long) k << shift));
+            segments[k] = ByteBuffer.allocateDirect(8 * size)
+                    .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+    }
+
+    /** Allocates a vector of zeros with the length and layout of this one. */
+    public OffHeapVector like() {
+        return new OffHeapVector(length, shift);
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public int getSegmentLength() {
+        return 1 << shift;
+    }
+
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Returns segment {@code k}, which holds the elements from
+     * {@code k * getSegmentLength()} on. Use absolute get and put, the
+     * position of the buffer is not used by this class.
+     */
+    public DoubleBuffer segment(int k) {
+        return segments[k];
+    }
+
+    public double get(long index) {
+        return segments[(int) (index >>> shift)].get((int) (index & mask));
+    }
+
+    public void set(long index, double value) {
+        segments[(int) (index >>> shift)].put((int) (index & mask), value);
+    }
+
+    public void fill(double value) {
+        for (DoubleBuffer a : segments) {
+            for (int i = 0, n = a.limit(); i < n; i++) {
+                a.put(i, value);
+            }
+        }
+    }
+
+    /** Copies the elements of {@code source} into this vector. */
+    public void copyFrom(OffHeapVector source) {
+        checkLayout(source);
+        for (int k = 0; k < segments.length; k++) {
+            DoubleBuffer a = segments[k];
+            DoubleBuffer b = source.segments[k];
+            for (int i = 0, n = a.limit(); i < n; i++) {
+                a.put(i, b.get(i));
+            }
+        }
+    }
+
+    /** Copies {@code source} into the elements from {@code offset} on. */
+    public void copyFrom(double[] source, long offset) {
+        for (int i = 0; i < source.length; i++) {
+            set(offset + i, source[i]);
+        }
+    }
+
+    /** Copies the elements from {@code offset} on into {@code target}. */
+    public void copyTo(long offset, double[] target) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] = get(offset + i);
+        }
+    }
+
+    public double dotProduct(OffHeapVector v) {
+        checkLayout(v);
+        double sum = 0.0;
+        for (int k = 0; k < segments.length; k++) {
+            DoubleBuffer a = segments[k];
+            DoubleBuffer b = v.segments[k];
+            for (int i = 0, n = a.limit(); i < n; i++) {
+                sum += a.get(i) * b.get(i);
+            }
+        }
+        return sum;
+    }
+
+    /** this += factor * v */
+    public void plusEquals(OffHeapVector v, double factor) {
+        checkLayout(v);
+        for (int k = 0; k < segments.length; k++) {
+            DoubleBuffer a = segments[k];
+            DoubleBuffer b = v.segments[k];
+            for (int i = 0, n = a.limit(); i < n; i++) {
+                a.put(i, a.get(i) + factor * b.get(i));
+            }
+        }
+    }
+
+    /** this = u + factor * v */
+    public void setSum(OffHeapVector u, OffHeapVector v, double factor) {
+        checkLayout(u);
+        checkLayout(v);
+        for (int k = 0; k < segments.length; k++) {
+            DoubleBuffer a = segments[k];
+            DoubleBuffer b = u.segments[k];
+            DoubleBuffer c = v.segments[k];
+            for (int i = 0, n = a.limit(); i < n; i++) {
+                a.put(i, b.get(i) + factor * c.get(i));
+            }
+        }
+    }
+
+    public void timesEquals(double factor) {
+        for (DoubleBuffer a : segments) {
+            for (int i = 0, n = a.limit(); i < n; i++) {
+                a.put(i, a.get(i) * factor);
+            }
+        }
+    }
+
+    public double twoNorm() {
+        return Math.sqrt(dotProduct(this));
+    }
+
+    public double infinityNorm() {
+        double max = 0.0;
+        for (DoubleBuffer a : segments) {
+            for (int i = 0, n = a.limit(); i < n; i++) {
+                max = Math.max(max, Math.abs(a.get(i)));
+            }
+        }
+        return max;
+    }
+
+    private void checkLayout(OffHeapVector v) {
+        if (v.length != length || v.shift != shift) {
+            throw new IllegalArgumentException("length " + v.length
+                    + " != " + length + " or segments of different size");
+        }
+    }
+}
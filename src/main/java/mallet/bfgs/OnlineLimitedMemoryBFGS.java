@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Online limited memory BFGS (oLBFGS), as described in N. N. Schraudolph, J.
+ * Yu and S. Guenter, "A Stochastic Quasi-Newton Method for Online Convex
+ * Optimization", AISTATS 2007.
+ * <p>
+ * Each step evaluates the gradient of one mini-batch, maps it through the
+ * limited memory inverse Hessian approximation and moves the parameters by
+ * the gain {@code eta0 * tau / (tau + t)} times the resulting direction,
+ * without a line search. The correction pair of the step is formed from the
+ * gradients of the <em>same</em> mini-batch before and after the step, so
+ * that the curvature information is consistent; pairs with the wrong sign of
+ * curvature are skipped. A step thus costs a batch value and two batch
+ * gradients, plus about 4m vector operations for the two-loop recursion.
+ * <p>
+ * An iteration is a pass over all batches. The optimizer has converged when
+ * the sum of the batch values of a pass differs from the sum of the previous
+ * pass by less than the tolerance (relative).
+ */
+public final class OnlineLimitedMemoryBFGS implements Optimizer.ByBatches {
+
+    private static final Logger logger = Logger
+            .getLogger(OnlineLimitedMemoryBFGS.class.getName());
+
+    private static final int MAX_ITER = 200;
+    private static final double EPS = 1.0e-10;
+    // the scaling of the gradient while the history is empty, tiny so that
+    // the first pair only probes the curvature
+    private static final double INITIAL_SCALING = 1.0e-10;
+
+    private final Optimizable.ByBatchGradient optimizable;
+    private final int m;
+    private final Workspace workspace = new Workspace();
+    private VectorKernels kernels = VectorKernels.DEFAULT;
+    private OptimizerMetrics metrics = OptimizerMetrics.NONE;
+
+    private double eta0 = 0.1;
+    private double tau = 1.0e4;
+    private double lambda = 0.0;
+    private double tolerance = .0001;
+
+    // State of the search, s and y hold the parameter and gradient
+    // differences of the accepted pairs, rho = 1 / s'y and gamma = s'y / y'y
+    private SupersedingDoubleArrayQueue s;
+    private SupersedingDoubleArrayQueue y;
+    private SupersedingDoubleQueue rho;
+    private SupersedingDoubleQueue gamma;
+    private double[] alpha;
+    private long steps;
+    private int iterations;
+    private double previousValue = Double.NaN;
+
+    public OnlineLimitedMemoryBFGS(Optimizable.ByBatchGradient optimizable) {
+        this(optimizable, 10);
+    }
+
+    /**
+     * @param optimizable
+     *            the function to be maximized
+     * @param m
+     *            the number of correction pairs kept in the history
+     */
+    public OnlineLimitedMemoryBFGS(Optimizable.ByBatchGradient optimizable,
+            int m) {
+        if (m <= 0) {
+            throw new IllegalArgumentException("m: " + m);
+        }
+        this.optimizable = optimizable;
+        this.m = m;
+    }
+
+    /** Sets the initial gain eta0 (default 0.1). */
+    public void setInitialStep(double eta0) {
+        if (!(eta0 > 0.0)) {
+            throw new IllegalArgumentException("eta0: " + eta0);
+        }
+        this.eta0 = eta0;
+    }
+
+    /**
+     * Sets the number of steps tau after which the gain has dropped to half
+     * its initial value (default 10^4).
+     */
+    public void setGainDecay(double tau) {
+        if (!(tau > 0.0)) {
+            throw new IllegalArgumentException("tau: " + tau);
+        }
+        this.tau = tau;
+    }
+
+    /**
+     * Sets the damping lambda (default 0) that adds {@code lambda * s} to the
+     * curvature of every pair, e.g. the weight of a quadratic regularizer
+     * that is not part of the batch values.
+     */
+    public void setDamping(double lambda) {
+        if (!(lambda >= 0.0)) {
+            throw new IllegalArgumentException("lambda: " + lambda);
+        }
+        this.lambda = lambda;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /** Returns the number of completed passes over the batches. */
+    public int getIteration() {
+        return iterations;
+    }
+
+    /** Returns the number of correction pairs kept in the history. */
+    public int getHistorySize() {
+        return m;
+    }
+
+    /**
+     * Sets the implementation of the full-vector operations used by this
+     * optimizer. Defaults to {@link VectorKernels#DEFAULT}.
+     */
+    public void setVectorKernels(VectorKernels kernels) {
+        if (kernels == null) {
+            throw new NullPointerException("kernels");
+        }
+        this.kernels = kernels;
+    }
+
+    /**
+     * Reports the batch evaluations, the direction computations and the
+     * passes over the batches to {@code metrics}. The reported value of an
+     * iteration is the sum of the batch values, the reported step is the
+     * gain at the end of the pass.
+     */
+    public void setMetrics(OptimizerMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics");
+        }
+        this.metrics = metrics;
+    }
+
+    /** Forgets the correction pairs and restarts the gain schedule. */
+    public void reset() {
+        if (s != null) {
+            s.clear();
+            y.clear();
+            rho.clear();
+            gamma.clear();
+        }
+        steps = 0;
+        previousValue = Double.NaN;
+    }
+
+    public boolean optimize(int numBatches, int[] batchAssignments) {
+        return optimize(MAX_ITER, numBatches, batchAssignments);
+    }
+
+    public boolean optimize(int numIterations, int numBatches,
+            int[] batchAssignments) {
+        int n = optimizable.getNumParameters();
+        if (s == null || s.length() != n) {
+            s = new SupersedingDoubleArrayQueue(m, n);
+            y = new SupersedingDoubleArrayQueue(m, n);
+            rho = new SupersedingDoubleQueue(m);
+            gamma = new SupersedingDoubleQueue(m);
+            alpha = new double[m];
+        }
+        double[] parameters = workspace.get(Workspace.PARAMETERS, n);
+        double[] g = workspace.get(Workspace.GRADIENT, n);
+        double[] direction = workspace.get(Workspace.UPDATE, n);
+        double[] newg = workspace.get(Workspace.SCRATCH, n);
+        optimizable.getParameters(parameters);
+
+        for (int iteration = 0; iteration < numIterations; iteration++) {
+            double value = 0.0;
+            double eta = 0.0;
+            for (int batch = 0; batch < numBatches; batch++) {
+                value += batchValue(batch, batchAssignments);
+                batchValueGradient(g, batch, batchAssignments);
+
+                long directionStart = (metrics == OptimizerMetrics.NONE) ? 0L
+                        : System.nanoTime();
+                System.arraycopy(g, 0, direction, 0, n);
+                if (s.size() == 0) {
+                    kernels.timesEquals(direction, INITIAL_SCALING);
+                } else {
+                    // the scalings are negative as we maximize
+                    LimitedMemoryBFGS.twoLoopRecursion(kernels, s, y, rho,
+                            alpha, direction, averageGamma());
+                    kernels.timesEquals(direction, -1.0);
+                }
+                if (metrics != OptimizerMetrics.NONE) {
+                    metrics.direction(System.nanoTime() - directionStart);
+                }
+
+                // take the step, the step is the s of the next pair. s and y
+                // are staged in direction and newg, a rejected pair must not
+                // overwrite the oldest pair of a full history
+                eta = eta0 * tau / (tau + steps);
+                ++steps;
+                for (int i = 0; i < n; i++) {
+                    direction[i] *= eta;
+                    parameters[i] += direction[i];
+                }
+                optimizable.setParameters(parameters);
+
+                // the gradient change on the same batch
+                batchValueGradient(newg, batch, batchAssignments);
+                double sy = 0.0;
+                double yy = 0.0;
+                for (int i = 0; i < n; i++) {
+                    newg[i] = newg[i] - g[i] - lambda * direction[i];
+                    sy += direction[i] * newg[i];
+                    yy += newg[i] * newg[i];
+                }
+                if (sy < 0 && yy > 0) {
+                    s.addLast(direction);
+                    y.addLast(newg);
+                    rho.addLast(1.0 / sy);
+                    gamma.addLast(sy / yy);
+                } else if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("skipping correction pair with sy = " + sy);
+                }
+            }
+
+            if (Double.isNaN(value)) {
+                throw new OptimizationException("NaN in value computation. "
+                        + "Probably you need to reduce the initial step.");
+            }
+            ++iterations;
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("oLBFGS: value at iteration " + iterations + "= "
+                        + value + ", eta=" + eta);
+            }
+            if (metrics != OptimizerMetrics.NONE) {
+                metrics.iteration(iterations, value, Double.NaN, eta,
+                        s.size());
+            }
+
+            // converge criteria from GradientAscent and LimitedMemoryBFGS
+            if (2.0 * Math.abs(value - previousValue) <= tolerance
+                    * (Math.abs(value) + Math.abs(previousValue) + EPS)) {
+                logger.info("oLBFGS: value difference "
+                        + Math.abs(value - previousValue) + " below "
+                        + "tolerance; saying converged.");
+                previousValue = value;
+                return true;
+            }
+            previousValue = value;
+        }
+        return false;
+    }
+
+    // the average of s'y / y'y over the history, which is less noisy than
+    // the ratio of the newest pair alone
+    private double averageGamma() {
+        double sum = 0.0;
+        for (int i = 0; i < gamma.size(); i++) {
+            sum += gamma.get(i);
+        }
+        return sum / gamma.size();
+    }
+
+    private double batchValue(int batch, int[] batchAssignments) {
+        if (metrics == OptimizerMetrics.NONE) {
+            return optimizable.getBatchValue(batch, batchAssignments);
+        }
+        long start = System.nanoTime();
+        double value = optimizable.getBatchValue(batch, batchAssignments);
+        metrics.evaluation(true, false, System.nanoTime() - start);
+        return value;
+    }
+
+    private void batchValueGradient(double[] buffer, int batch,
+            int[] batchAssignments) {
+        if (metrics == OptimizerMetrics.NONE) {
+            optimizable.getBatchValueGradient(buffer, batch,
+                    batchAssignments);
+            return;
+        }
+        long start = System.nanoTime();
+        optimizable.getBatchValueGradient(buffer, batch, batchAssignments);
+        metrics.evaluation(false, true, System.nanoTime() - start);
+    }
+}
@@ -29,6 +29,115 @@ public interface Optimizable {
         public double getValue();
     }
 
+    /**
+     * An Optimizable that can compute its value and gradient in a single
+     * pass. Optimizers use {@link #getValueAndGradient(double[])} whenever
+     * they need both at the same point.
+     */
+    public interface ByValueAndGradient extends ByGradientValue {
+        /**
+         * Stores the gradient at the current parameters in {@code buffer}
+         * and returns the value at the current parameters.
+         */
+        public double getValueAndGradient(double[] buffer);
+    }
+
+    /**
+     * An Optimizable whose gradient has few non-zero components, e.g. an
+     * L1-regularized model whose features are sparse.
+     * {@link OrthantWiseLimitedMemoryBFGS} then only touches the non-zero
+     * parameters and gradient components and stores its history sparse, so
+     * that the cost of an iteration scales with the number of active
+     * parameters rather than with {@link #getNumParameters()}.
+     */
+    public interface BySparseGradient extends ByGradientValue {
+        /**
+         * Stores the indices and values of the non-zero components of the
+         * gradient at the current parameters in {@code indices} and
+         * {@code values} (each index at most once, in any order) and returns
+         * their number. Both arrays have room for
+         * {@link #getNumParameters()} elements.
+         */
+        public int getSparseValueGradient(int[] indices, double[] values);
+
+        /**
+         * Sets the parameters {@code indices[0 .. count - 1]} to
+         * {@code values[0 .. count - 1]}; all other parameters keep their
+         * values.
+         */
+        public void setParameters(int[] indices, double[] values, int count);
+    }
+
+    /**
+     * An Optimizable that wants to know whether the gradient will be
+     * requested together with the value. The optimizers of this package
+     * declare their intent before every evaluation, so that a model that
+     * would otherwise compute both together can compute just the value at
+     * the trial points of a line search, keep the intermediate results and
+     * build the gradient from them if the point is accepted.
+     */
+    public interface ByEvaluationIntent extends ByGradientValue {
+        /**
+         * Declares what will be requested at the current parameters until
+         * the next declaration. This is a hint only: both the value and the
+         * gradient must still be correct whenever they are requested.
+         */
+        public void declareIntent(EvaluationIntent intent);
+    }
+
+    /**
+     * An Optimizable that can move its parameters along a line cheaply. A
+     * linear model can compute the margins {@code X base} and
+     * {@code X direction} once in {@link #setLine(double[], double[])} and
+     * then each {@link #moveAlongLine(double)} in time proportional to the
+     * number of examples. The line searches of this package and
+     * {@link OrthantWiseLimitedMemoryBFGS} use it for their trial steps.
+     */
+    public interface ByDirectionalUpdate extends ByGradientValue {
+        /**
+         * Defines the line of the following moves. The caller doesn't modify
+         * the arrays while it moves along the line, so they need not be
+         * copied.
+         */
+        public void setLine(double[] base, double[] direction);
+
+        /**
+         * Sets the parameters to {@code base + step * direction} of the line
+         * defined by the last {@link #setLine(double[], double[])}, even if
+         * the parameters have been set by other means since then.
+         */
+        public void moveAlongLine(double step);
+    }
+
+    /**
+     * An Optimizable that can multiply its Hessian with a vector, e.g. by the
+     * "Pearlmutter trick" of differentiating the gradient in the direction of
+     * the vector. {@link TruncatedNewton} uses it instead of a finite
+     * difference of two gradients.
+     */
+    public interface ByHessianVectorProduct extends ByGradientValue {
+        /**
+         * Stores the product of the Hessian of the value at the current
+         * parameters with {@code vector} in {@code buffer}.
+         */
+        public void getHessianVectorProduct(double[] vector, double[] buffer);
+    }
+
+    /**
+     * An Optimizable that can be evaluated at several points at the same
+     * time, e.g. by {@link ParallelBackTrackLineSearch}.
+     */
+    public interface Forkable extends ByGradientValue {
+        /**
+         * Returns an independent copy of this function: setting the
+         * parameters of the copy and evaluating it must neither affect nor be
+         * affected by this function or other copies, so that all of them can
+         * be evaluated concurrently. Read-only data such as training examples
+         * may be shared.
+         */
+        public Optimizable.ByGradientValue fork();
+    }
+
     public interface ByGISUpdate extends Optimizable {
         public double getValue();
 
@@ -41,4 +150,41 @@ public interface Optimizable {
 
         public double getBatchValue(int batchIndex, int[] batchAssignments);
     }
+
+    /**
+     * A batch Optimizable that can multiply the Hessian of a batch value
+     * with a vector analytically, e.g. by a second pass over the examples of
+     * the batch. {@link StochasticMetaAscent} uses it instead of a finite
+     * difference of two batch gradients.
+     */
+    public interface ByBatchHessianVectorProduct extends ByBatchGradient {
+        /**
+         * Stores the product of the Hessian of the value of batch
+         * {@code batchIndex} at the current parameters with {@code vector}
+         * in {@code buffer}.
+         */
+        public void getBatchHessianVectorProduct(double[] vector,
+                double[] buffer, int batchIndex, int[] batchAssignments);
+    }
+
+    /**
+     * An Optimizable whose value and gradient are sums of contributions of
+     * individual examples (e.g. the log-likelihood of a training set). See
+     * {@link ShardedOptimizable} for evaluating it data-parallel.
+     */
+    public interface ByExampleGradient extends Optimizable {
+        public int getNumExamples();
+
+        /**
+         * <b>Adds</b> the gradient contributions of the examples
+         * {@code from} (inclusive) to {@code to} (exclusive) at the current
+         * parameters to {@code buffer} and returns the sum of their value
+         * contributions. Terms that don't belong to an example (e.g. a
+         * prior) are added by the range that starts at 0. This method is
+         * called concurrently for disjoint ranges with distinct buffers,
+         * while the parameters are not modified.
+         */
+        public double addExampleValueGradient(int from, int to,
+                double[] buffer);
+    }
 }
@@ -8,12 +8,27 @@
 package mallet.bfgs;
 
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 
 public class OptimizableCollection {
 
-    public class ByGradientValue implements Optimizable.ByGradientValue {
+    /**
+     * The sum of several functions of the same parameters. By default the
+     * members are evaluated one after another on the calling thread. After
+     * {@link #setPool(ForkJoinPool)} they are evaluated concurrently, in
+     * which case the members must be safe to evaluate at the same time (they
+     * only read the shared parameters). The gradients are summed in a fixed
+     * tree order, so the results don't depend on the thread scheduling.
+     */
+    public class ByGradientValue implements Optimizable.ByValueAndGradient {
         ArrayList<Optimizable.ByGradientValue> optimizables;
+        private ForkJoinPool pool;
+        private VectorKernels kernels = VectorKernels.DEFAULT;
+        // gradient buffers of the members 1 .. size - 1, the first member
+        // writes directly into the caller's buffer
+        private double[][] buffers;
 
         public ByGradientValue(Optimizable.ByGradientValue... ops) {
             optimizables = new ArrayList<Optimizable.ByGradientValue>(
@@ -22,22 +37,97 @@ public class OptimizableCollection {
                 optimizables.add(o);
         }
 
-        public void getValueGradient(double[] buffer) {
-            double[] b2 = new double[buffer.length];
-            for (Optimizable.ByGradientValue o : optimizables) {
-                MatrixOps.setAll(b2, 0);
-                o.getValueGradient(b2);
-                MatrixOps.plusEquals(buffer, b2);
+        /**
+         * Evaluates the members concurrently on the given pool, or
+         * sequentially if {@code pool} is null.
+         */
+        public void setPool(ForkJoinPool pool) {
+            this.pool = pool;
+        }
+
+        public ForkJoinPool getPool() {
+            return pool;
+        }
+
+        /**
+         * Sets the implementation of the vector additions that combine the
+         * member gradients. Defaults to {@link VectorKernels#DEFAULT}.
+         */
+        public void setVectorKernels(VectorKernels kernels) {
+            if (kernels == null) {
+                throw new NullPointerException("kernels");
             }
+            this.kernels = kernels;
+        }
+
+        public void getValueGradient(double[] buffer) {
+            evaluate(Sum.GRADIENT, buffer);
         }
 
         public double getValue() {
-            double ret = 0;
-            for (Optimizable.ByGradientValue o : optimizables)
-                ret += o.getValue();
+            return evaluate(Sum.VALUE, null);
+        }
+
+        public double getValueAndGradient(double[] buffer) {
+            return evaluate(Sum.BOTH, buffer);
+        }
+
+        private double evaluate(int what, double[] buffer) {
+            int size = optimizables.size();
+            boolean parallel = pool != null && size > 1;
+            if (what != Sum.VALUE) {
+                allocateBuffers(size, buffer.length, parallel);
+            }
+            if (!parallel) {
+                return evaluateSequentially(what, buffer);
+            }
+            return pool.invoke(new Sum(this, what, 0, size, buffer))
+                    .doubleValue();
+        }
+
+        private double evaluateSequentially(int what, double[] buffer) {
+            double ret = evaluate(0, what, buffer);
+            // all other members share one scratch buffer
+            double[] b2 = (what == Sum.VALUE || optimizables.size() == 1) ? null
+                    : buffers[1];
+            for (int i = 1; i < optimizables.size(); i++) {
+                ret += evaluate(i, what, b2);
+                if (what != Sum.VALUE) {
+                    kernels.plusEquals(buffer, b2);
+                }
+            }
             return ret;
         }
 
+        // evaluates a single member
+        double evaluate(int member, int what, double[] buffer) {
+            Optimizable.ByGradientValue o = optimizables.get(member);
+            if (what == Sum.VALUE) {
+                Optimizables.declareIntent(o, EvaluationIntent.VALUE);
+                return o.getValue();
+            }
+            Optimizables.declareIntent(o, EvaluationIntent.VALUE_AND_GRADIENT);
+            MatrixOps.setAll(buffer, 0);
+            if (what == Sum.GRADIENT) {
+                o.getValueGradient(buffer);
+                return 0.0;
+            }
+            return Optimizables.getValueAndGradient(o, buffer);
+        }
+
+        // the sequential evaluation only needs buffers[1]
+        private void allocateBuffers(int size, int length, boolean parallel) {
+            if (buffers == null || buffers.length != size) {
+                buffers = new double[size][];
+            }
+            int last = parallel ? size - 1 : Math.min(1, size - 1);
+            for (int i = 1; i <= last; i++) {
+                if (buffers[i] == null || buffers[i].length != length) {
+                    buffers[i] = new double[length];
+                }
+            }
+        }
+
         // Here we rely on all optimizables pointing to the same set of
         // parameters!
 
@@ -61,4 +151,51 @@ public class OptimizableCollection {
             optimizables.get(0).setParameters(params);
         }
     }
+
+    // Evaluates the members from .. to - 1 into target (the gradient buffer
+    // of member from) and returns the sum of their values. The right half is
+    // evaluated into the buffer of its first member and added to the left
+    // half's buffer when both are done.
+    private static final class Sum extends RecursiveTask<Double> {
+
+        private static final long serialVersionUID = 1L;
+
+        static final int VALUE = 0;
+        static final int GRADIENT = 1;
+        static final int BOTH = 2;
+
+        private final ByGradientValue collection;
+        private final int what;
+        private final int from;
+        private final int to;
+        private final double[] target;
+
+        Sum(ByGradientValue collection, int what, int from, int to,
+                double[] target) {
+            this.collection = collection;
+            this.what = what;
+            this.from = from;
+            this.to = to;
+            this.target = target;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from == 1) {
+                return Double.valueOf(collection.evaluate(from, what, target));
+            }
+            int mid = (from + to) >>> 1;
+            double[] rightTarget = (what == VALUE) ? null
+                    : collection.buffers[mid];
+            Sum left = new Sum(collection, what, from, mid, target);
+            Sum right = new Sum(collection, what, mid, to, rightTarget);
+            right.fork();
+            double l = left.compute().doubleValue();
+            double r = right.join().doubleValue();
+            if (what != VALUE) {
+                collection.kernels.plusEquals(target, rightTarget);
+            }
+            return Double.valueOf(l + r);
+        }
+    }
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+/**
+ * Static helpers for evaluating {@link Optimizable}s (optionally measured
+ * by {@link OptimizerMetrics} and recorded as {@link FlightRecorder} events)
+ * and configuring line searches.
+ */
+final class Optimizables {
+
+    /**
+     * Stores the gradient at the current parameters in {@code buffer} and
+     * returns the value. Uses a single evaluation if the function is an
+     * {@link Optimizable.ByValueAndGradient}.
+     */
+    static double getValueAndGradient(Optimizable.ByGradientValue function,
+            double[] buffer) {
+        declareIntent(function, EvaluationIntent.VALUE_AND_GRADIENT);
+        if (function instanceof Optimizable.ByValueAndGradient) {
+            return ((Optimizable.ByValueAndGradient) function)
+                    .getValueAndGradient(buffer);
+        }
+        function.getValueGradient(buffer);
+        return function.getValue();
+    }
+
+    /**
+     * {@link #getValueAndGradient(Optimizable.ByGradientValue, double[])}
+     * that reports the evaluation to {@code metrics}.
+     */
+    static double getValueAndGradient(Optimizable.ByGradientValue function,
+            double[] buffer, OptimizerMetrics metrics) {
+        Object event = FlightRecorder.beginEvaluation();
+        if (metrics == OptimizerMetrics.NONE) {
+            double value = getValueAndGradient(function, buffer);
+            FlightRecorder.endEvaluation(event, true, true);
+            return value;
+        }
+        long start = System.nanoTime();
+        double value = getValueAndGradient(function, buffer);
+        metrics.evaluation(true, true, System.nanoTime() - start);
+        FlightRecorder.endEvaluation(event, true, true);
+        return value;
+    }
+
+    /** Returns the value and reports the evaluation to {@code metrics}. */
+    static double getValue(Optimizable.ByGradientValue function,
+            OptimizerMetrics metrics) {
+        declareIntent(function, EvaluationIntent.VALUE);
+        Object event = FlightRecorder.beginEvaluation();
+        if (metrics == OptimizerMetrics.NONE) {
+            double value = function.getValue();
+            FlightRecorder.endEvaluation(event, true, false);
+            return value;
+        }
+        long start = System.nanoTime();
+        double value = function.getValue();
+        metrics.evaluation(true, false, System.nanoTime() - start);
+        FlightRecorder.endEvaluation(event, true, false);
+        return value;
+    }
+
+    /** Gets the gradient and reports the evaluation to {@code metrics}. */
+    static void getValueGradient(Optimizable.ByGradientValue function,
+            double[] buffer, OptimizerMetrics metrics) {
+        declareIntent(function, EvaluationIntent.VALUE_AND_GRADIENT);
+        Object event = FlightRecorder.beginEvaluation();
+        if (metrics == OptimizerMetrics.NONE) {
+            function.getValueGradient(buffer);
+        } else {
+            long start = System.nanoTime();
+            function.getValueGradient(buffer);
+            metrics.evaluation(false, true, System.nanoTime() - start);
+        }
+        FlightRecorder.endEvaluation(event, false, true);
+    }
+
+    /**
+     * Gets the sparse gradient and reports the evaluation to
+     * {@code metrics}. Returns the number of non-zero components.
+     */
+    static int getSparseValueGradient(Optimizable.BySparseGradient function,
+            int[] indices, double[] values, OptimizerMetrics metrics) {
+        declareIntent(function, EvaluationIntent.VALUE_AND_GRADIENT);
+        Object event = FlightRecorder.beginEvaluation();
+        int count;
+        if (metrics == OptimizerMetrics.NONE) {
+            count = function.getSparseValueGradient(indices, values);
+        } else {
+            long start = System.nanoTime();
+            count = function.getSparseValueGradient(indices, values);
+            metrics.evaluation(false, true, System.nanoTime() - start);
+        }
+        FlightRecorder.endEvaluation(event, false, true);
+        return count;
+    }
+
+    /**
+     * Declares the intent of the next evaluations if the function is an
+     * {@link Optimizable.ByEvaluationIntent}.
+     */
+    static void declareIntent(Optimizable function, EvaluationIntent intent) {
+        if (function instanceof Optimizable.ByEvaluationIntent) {
+            ((Optimizable.ByEvaluationIntent) function).declareIntent(intent);
+        }
+    }
+
+    /**
+     * Passes the metrics of an optimizer on to its line search if that is
+     * one of the line searches of this package.
+     */
+    static void setMetrics(LineOptimizer.ByGradient lineOptimizer,
+            OptimizerMetrics metrics) {
+        if (lineOptimizer instanceof BackTrackLineSearch) {
+            ((BackTrackLineSearch) lineOptimizer).setMetrics(metrics);
+        } else if (lineOptimizer instanceof MoreThuenteLineSearch) {
+            ((MoreThuenteLineSearch) lineOptimizer).setMetrics(metrics);
+        } else if (lineOptimizer instanceof ParallelBackTrackLineSearch) {
+            ((ParallelBackTrackLineSearch) lineOptimizer).setMetrics(metrics);
+        }
+    }
+
+    /**
+     * Passes the vector kernels of an optimizer on to its line search if that
+     * is one of the line searches of this package.
+     */
+    static void setVectorKernels(LineOptimizer.ByGradient lineOptimizer,
+            VectorKernels kernels) {
+        if (lineOptimizer instanceof BackTrackLineSearch) {
+            ((BackTrackLineSearch) lineOptimizer).setVectorKernels(kernels);
+        } else if (lineOptimizer instanceof MoreThuenteLineSearch) {
+            ((MoreThuenteLineSearch) lineOptimizer).setVectorKernels(kernels);
+        } else if (lineOptimizer instanceof ParallelBackTrackLineSearch) {
+            ((ParallelBackTrackLineSearch) lineOptimizer)
+                    .setVectorKernels(kernels);
+        }
+    }
+
+    /**
+     * Runs {@code lineOptimizer} along {@code line} from the current
+     * parameters, where the value is {@code value} and the gradient
+     * {@code gradient}. The line searches of this package don't evaluate
+     * that point again; other line optimizers are run as usual.
+     */
+    static double optimize(LineOptimizer.ByGradient lineOptimizer,
+            double[] line, double initialStep, double value,
+            double[] gradient) {
+        if (lineOptimizer instanceof BackTrackLineSearch) {
+            return ((BackTrackLineSearch) lineOptimizer).optimize(line,
+                    initialStep, value, gradient);
+        } else if (lineOptimizer instanceof MoreThuenteLineSearch) {
+            return ((MoreThuenteLineSearch) lineOptimizer).optimize(line,
+                    initialStep, value, gradient);
+        } else if (lineOptimizer instanceof ParallelBackTrackLineSearch) {
+            return ((ParallelBackTrackLineSearch) lineOptimizer).optimize(
+                    line, initialStep, value, gradient);
+        }
+        return lineOptimizer.optimize(line, initialStep);
+    }
+
+    /**
+     * Stores the gradient at the point accepted by the last search of
+     * {@code lineOptimizer} in {@code buffer} and returns the value. Reuses
+     * the last evaluation of a {@link MoreThuenteLineSearch} that accepted
+     * the step it evaluated last, otherwise evaluates {@code function}.
+     */
+    static double getAcceptedValueAndGradient(
+            LineOptimizer.ByGradient lineOptimizer,
+            Optimizable.ByGradientValue function, double[] buffer,
+            OptimizerMetrics metrics) {
+        if (lineOptimizer instanceof MoreThuenteLineSearch) {
+            double value = ((MoreThuenteLineSearch) lineOptimizer)
+                    .getAcceptedValueAndGradient(buffer);
+            if (!Double.isNaN(value)) {
+                return value;
+            }
+        }
+        return getValueAndGradient(function, buffer, metrics);
+    }
+
+    private Optimizables() {
+        throw new AssertionError();
+    }
+}
@@ -0,0 +1,537 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A memory-mapped file holding the state of a {@link LimitedMemoryBFGS} or
+ * {@link OrthantWiseLimitedMemoryBFGS} between two iterations: the
+ * correction history, the current and previous parameters and gradients, and
+ * a few scalars. See {@link LimitedMemoryBFGS#writeCheckpoint} and
+ * {@link LimitedMemoryBFGS#restoreCheckpoint}.
+ * <p>
+ * Writing a checkpoint copies the vectors into the mapped file, i.e. into the
+ * page cache; the operating system writes them back in the background. Only
+ * the correction pairs appended since the last checkpoint written to the same
+ * area through this object are copied, so a checkpoint after every iteration
+ * costs about six vector copies regardless of the history size. Call
+ * {@link #force()} to wait until the data has reached the disk.
+ * <p>
+ * The file holds two areas that are written alternately, each with a
+ * sequence number and checksums of its header and vectors. A checkpoint
+ * overwrites the older area, and a restore reads the newest area that is
+ * complete and matches its checksums, so a JVM or system crash during a write
+ * (or a partial write-back) falls back to the previous checkpoint. Writing a
+ * checkpoint for a different history size or number of parameters discards
+ * both areas.
+ *
+ * <pre>
+ * per area, the second one starts at half the file size:
+ * header (128 bytes, little-endian):
+ *   int magic, int version, int state, int reserved, long checksum,
+ *   int kind, int m, long n, int size, int iterations, long appended,
+ *   long sequence, 4 doubles scalars
+ * 2m + 5 longs checksums of the s and y slots, the state vectors and rho
+ * m doubles    rho (oldest first)
+ * m vectors    s (physical slots)
+ * m vectors    y (physical slots)
+ * 4 vectors    optimizer state (parameters, old parameters, gradient,
+ *              old gradient)
+ * </pre>
+ * The header checksum covers the header from {@code kind} on and the
+ * checksums of the vectors.
+ */
+public final class OptimizerCheckpoint implements Closeable {
+
+    static final int LBFGS = 1;
+    static final int OWLQN = 2;
+
+    static final int VECTORS = 4;
+    static final int SCALARS = 4;
+
+    private static final int MAGIC = 0x4d4c4246; // "MLBF"
+    private static final int VERSION = 2;
+    private static final int WRITING = 1;
+    private static final int COMPLETE = 2;
+    private static final int AREAS = 2;
+
+    private static final int STATE = 8;
+    private static final int CHECKSUM = 16;
+    private static final int KIND = 24;
+    private static final int M = 28;
+    private static final int N = 32;
+    private static final int SIZE = 40;
+    private static final int ITERATIONS = 44;
+    private static final int APPENDED = 48;
+    private static final int SEQUENCE = 56;
+    private static final int SCALAR = 64;
+    private static final int HEADER_BYTES = 128;
+
+    // mappings are limited to 2 GB, a multiple of 8 keeps doubles whole
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_BYTES = 1L << SEGMENT_SHIFT;
+
+    private static final long CHECKSUM_SEED = MAGIC;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private MappedByteBuffer[] segments;
+    private long mappedBytes;
+
+    // per area, the history that was last written to or read from it and the
+    // number of its pairs that the area holds
+    private final SupersedingDoubleArrayQueue[] history =
+            new SupersedingDoubleArrayQueue[AREAS];
+    private final long[] historyAppended = new long[AREAS];
+    // per area, whether the vectors matching the header checksum have been
+    // verified (or written) through this object
+    private final boolean[] verified = new boolean[AREAS];
+    private final long[] verifiedChecksum = new long[AREAS];
+    private double[] rho;
+    // widened copy of a slot of a single precision history
+    private double[] slotBuffer;
+
+    /**
+     * Opens (or creates) the checkpoint file. An existing checkpoint is kept
+     * until it is overwritten by the next write.
+     */
+    public OptimizerCheckpoint(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** Returns true if the file holds a complete checkpoint. */
+    public boolean isComplete() throws IOException {
+        return newest() >= 0;
+    }
+
+    /**
+     * Returns the number of checkpoints written to the file, or 0 if it holds
+     * no complete checkpoint.
+     */
+    public long getSequence() throws IOException {
+        int area = newest();
+        return area < 0 ? 0L : getLong(area, SEQUENCE);
+    }
+
+    /** Flushes the checkpoint to the storage device. */
+    public void force() throws IOException {
+        if (segments != null) {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        }
+    }
+
+    /**
+     * Closes the file. The mappings are released when they are garbage
+     * collected.
+     */
+    public void close() throws IOException {
+        segments = null;
+        Arrays.fill(history, null);
+        raf.close();
+    }
+
+    void write(int kind, int iterations, double[] scalars,
+            SupersedingDoubleArrayQueue s, SupersedingDoubleArrayQueue y,
+            SupersedingDoubleQueue rhos, double[]... vectors)
+            throws IOException {
+        int m = s.capacity();
+        long n = vectors[0].length;
+        long bytes = AREAS * areaBytes(m, n);
+        if (channel.size() != bytes) {
+            // the areas of another layout must not look valid
+            segments = null;
+            Arrays.fill(history, null);
+            Arrays.fill(verified, false);
+            raf.setLength(0);
+            raf.setLength(bytes);
+        }
+        map(bytes);
+        int newest = newest();
+        long sequence = newest < 0 ? 1L : getLong(newest, SEQUENCE) + 1;
+        // overwrite the older area
+        int area = newest == 0 ? 1 : 0;
+        boolean incremental = history[area] == s;
+        history[area] = null;
+        verified[area] = false;
+
+        putInt(area, 0, MAGIC);
+        putInt(area, 4, VERSION);
+        putInt(area, STATE, WRITING);
+
+        // correction pairs, only those not yet in the area
+        long appended = s.appended();
+        long first = appended - s.size();
+        if (incremental && historyAppended[area] <= appended) {
+            first = Math.max(first, historyAppended[area]);
+        }
+        for (long k = first; k < appended; k++) {
+            int slot = (int) (k % m);
+            putLong(area, checksumOffset(slot),
+                    putSlot(offset(area, m, n, slot), s, slot));
+            putLong(area, checksumOffset(m + slot),
+                    putSlot(offset(area, m, n, m + slot), y, slot));
+        }
+        if (rho == null || rho.length != m) {
+            rho = new double[m];
+        }
+        int size = rhos.toArray(rho);
+        put(rhoOffset(area, m), rho);
+        putLong(area, checksumOffset(2 * m + VECTORS), checksum(rho));
+        for (int i = 0; i < VECTORS; i++) {
+            put(offset(area, m, n, 2 * m + i), vectors[i]);
+            putLong(area, checksumOffset(2 * m + i), checksum(vectors[i]));
+        }
+
+        putInt(area, KIND, kind);
+        putInt(area, M, m);
+        putLong(area, N, n);
+        putInt(area, SIZE, size);
+        putInt(area, ITERATIONS, iterations);
+        putLong(area, APPENDED, appended);
+        putLong(area, SEQUENCE, sequence);
+        for (int i = 0; i < SCALARS; i++) {
+            putDouble(area, SCALAR + 8 * i, scalars[i]);
+        }
+        long checksum = headerChecksum(area, m);
+        putLong(area, CHECKSUM, checksum);
+        putInt(area, STATE, COMPLETE);
+        history[area] = s;
+        historyAppended[area] = appended;
+        verified[area] = true;
+        verifiedChecksum[area] = checksum;
+    }
+
+    /**
+     * Returns the number of iterations of the checkpoint, or -1 if the file
+     * holds no complete checkpoint.
+     */
+    int read(int kind, double[] scalars, SupersedingDoubleArrayQueue s,
+            SupersedingDoubleArrayQueue y, SupersedingDoubleQueue rhos,
+            double[]... vectors) throws IOException {
+        int area = newest();
+        if (area < 0) {
+            return -1;
+        }
+        int m = s.capacity();
+        long n = vectors[0].length;
+        if (getInt(area, KIND) != kind || getInt(area, M) != m
+                || getLong(area, N) != n) {
+            throw differentOptimizer(area);
+        }
+        int size = getInt(area, SIZE);
+        long appended = getLong(area, APPENDED);
+        for (long k = appended - size; k < appended; k++) {
+            int slot = (int) (k % m);
+            getSlot(offset(area, m, n, slot), s, slot);
+            getSlot(offset(area, m, n, m + slot), y, slot);
+        }
+        s.restore(size, appended);
+        y.restore(size, appended);
+        if (rho == null || rho.length != m) {
+            rho = new double[m];
+        }
+        get(rhoOffset(area, m), rho);
+        rhos.restore(rho, size);
+        for (int i = 0; i < VECTORS; i++) {
+            get(offset(area, m, n, 2 * m + i), vectors[i]);
+        }
+        for (int i = 0; i < SCALARS; i++) {
+            scalars[i] = getDouble(area, SCALAR + 8 * i);
+        }
+        // the other area holds pairs of an unknown history
+        Arrays.fill(history, null);
+        history[area] = s;
+        historyAppended[area] = appended;
+        return getInt(area, ITERATIONS);
+    }
+
+    /**
+     * Copies the scalars of the checkpoint without touching the optimizer
+     * state, so that they can be checked before {@link #read}. Returns false
+     * if the file holds no complete checkpoint.
+     */
+    boolean readScalars(int kind, double[] scalars) throws IOException {
+        int area = newest();
+        if (area < 0) {
+            return false;
+        }
+        if (getInt(area, KIND) != kind) {
+            throw differentOptimizer(area);
+        }
+        for (int i = 0; i < SCALARS; i++) {
+            scalars[i] = getDouble(area, SCALAR + 8 * i);
+        }
+        return true;
+    }
+
+    private IllegalArgumentException differentOptimizer(int area) {
+        return new IllegalArgumentException("checkpoint " + file
+                + " is for a different optimizer (kind=" + getInt(area, KIND)
+                + ", m=" + getInt(area, M) + ", n=" + getLong(area, N) + ")");
+    }
+
+    // the area holding the complete checkpoint with the highest sequence
+    // number, or -1
+    private int newest() throws IOException {
+        long bytes = channel.size();
+        if (bytes < AREAS * HEADER_BYTES || bytes % (AREAS * 8) != 0) {
+            return -1;
+        }
+        map(bytes);
+        int newest = -1;
+        for (int area = 0; area < AREAS; area++) {
+            if (isValid(area) && (newest < 0
+                    || getLong(area, SEQUENCE) > getLong(newest, SEQUENCE))) {
+                newest = area;
+            }
+        }
+        return newest;
+    }
+
+    private boolean isValid(int area) {
+        if (getInt(area, 0) != MAGIC || getInt(area, 4) != VERSION
+                || getInt(area, STATE) != COMPLETE) {
+            return false;
+        }
+        // don't trust the header before it is known to describe this file
+        long areaBytes = mappedBytes / AREAS;
+        int m = getInt(area, M);
+        long n = getLong(area, N);
+        int size = getInt(area, SIZE);
+        long appended = getLong(area, APPENDED);
+        if (m <= 0 || m > areaBytes / 8 || n <= 0
+                || n > areaBytes / (8L * (2L * m + VECTORS))
+                || areaBytes(m, n) != areaBytes || size < 0 || size > m
+                || appended < size) {
+            return false;
+        }
+        long checksum = getLong(area, CHECKSUM);
+        if (headerChecksum(area, m) != checksum) {
+            return false;
+        }
+        if (verified[area] && verifiedChecksum[area] == checksum) {
+            return true;
+        }
+        for (long k = appended - size; k < appended; k++) {
+            int slot = (int) (k % m);
+            if (!matches(area, m, n, slot) || !matches(area, m, n, m + slot)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < VECTORS; i++) {
+            if (!matches(area, m, n, 2 * m + i)) {
+                return false;
+            }
+        }
+        if (checksum(CHECKSUM_SEED, rhoOffset(area, m), m)
+                != getLong(area, checksumOffset(2 * m + VECTORS))) {
+            return false;
+        }
+        verified[area] = true;
+        verifiedChecksum[area] = checksum;
+        return true;
+    }
+
+    private boolean matches(int area, int m, long n, int vector) {
+        return checksum(CHECKSUM_SEED, offset(area, m, n, vector), n)
+                == getLong(area, checksumOffset(vector));
+    }
+
+    private long headerChecksum(int area, int m) {
+        long base = area * (mappedBytes / AREAS);
+        return checksum(CHECKSUM_SEED, base + KIND,
+                (checksumOffset(2 * m + VECTORS + 1) - KIND) / 8);
+    }
+
+    // a multiplicative hash of the bits of a sequence of doubles or longs
+    private static long mix(long sum, long bits) {
+        sum = (sum + bits) * 0x9e3779b97f4a7c15L;
+        return sum ^ (sum >>> 32);
+    }
+
+    private static long checksum(double[] v) {
+        long sum = CHECKSUM_SEED;
+        for (int i = 0; i < v.length; i++) {
+            sum = mix(sum, Double.doubleToRawLongBits(v[i]));
+        }
+        return sum;
+    }
+
+    private long checksum(long sum, long offset, long count) {
+        while (count > 0) {
+            LongBuffer source = view(offset).asLongBuffer();
+            int len = (int) Math.min(count, source.remaining());
+            for (int i = 0; i < len; i++) {
+                sum = mix(sum, source.get(i));
+            }
+            count -= len;
+            offset += 8L * len;
+        }
+        return sum;
+    }
+
+    private static long areaBytes(int m, long n) {
+        return checksumOffset(2 * m + VECTORS + 1) + 8L * m
+                + 8L * n * (2 * m + VECTORS);
+    }
+
+    // offset within an area of the checksum of a vector, the one of rho is
+    // last
+    private static long checksumOffset(int vector) {
+        return HEADER_BYTES + 8L * vector;
+    }
+
+    private long rhoOffset(int area, int m) {
+        return area * (mappedBytes / AREAS)
+                + checksumOffset(2 * m + VECTORS + 1);
+    }
+
+    // byte offset of a vector, s slots come first, then y slots, then the
+    // state vectors
+    private long offset(int area, int m, long n, int vector) {
+        return rhoOffset(area, m) + 8L * m + 8L * n * vector;
+    }
+
+    private void map(long bytes) throws IOException {
+        if (segments != null && mappedBytes == bytes) {
+            return;
+        }
+        int count = (int) ((bytes + SEGMENT_BYTES - 1) >>> SEGMENT_SHIFT);
+        MappedByteBuffer[] mapped = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long position = (long) i << SEGMENT_SHIFT;
+            mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, position,
+                    Math.min(SEGMENT_BYTES, bytes - position));
+            mapped[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        segments = mapped;
+        mappedBytes = bytes;
+    }
+
+    // header fields, an area starts at a multiple of 8 so that a field never
+    // spans two segments
+
+    private int getInt(int area, long field) {
+        long offset = area * (mappedBytes / AREAS) + field;
+        return segment(offset).getInt(position(offset));
+    }
+
+    private long getLong(int area, long field) {
+        long offset = area * (mappedBytes / AREAS) + field;
+        return segment(offset).getLong(position(offset));
+    }
+
+    private double getDouble(int area, long field) {
+        long offset = area * (mappedBytes / AREAS) + field;
+        return segment(offset).getDouble(position(offset));
+    }
+
+    private void putInt(int area, long field, int value) {
+        long offset = area * (mappedBytes / AREAS) + field;
+        segment(offset).putInt(position(offset), value);
+    }
+
+    private void putLong(int area, long field, long value) {
+        long offset = area * (mappedBytes / AREAS) + field;
+        segment(offset).putLong(position(offset), value);
+    }
+
+    private void putDouble(int area, long field, double value) {
+        long offset = area * (mappedBytes / AREAS) + field;
+        segment(offset).putDouble(position(offset), value);
+    }
+
+    private void put(long offset, double[] v) {
+        int from = 0;
+        while (from < v.length) {
+            DoubleBuffer target = view(offset).asDoubleBuffer();
+            int len = Math.min(v.length - from, target.remaining());
+            target.put(v, from, len);
+            from += len;
+            offset += 8L * len;
+        }
+    }
+
+    private void get(long offset, double[] v) {
+        int from = 0;
+        while (from < v.length) {
+            DoubleBuffer source = view(offset).asDoubleBuffer();
+            int len = Math.min(v.length - from, source.remaining());
+            source.get(v, from, len);
+            from += len;
+            offset += 8L * len;
+        }
+    }
+
+    // the file always holds doubles, a single precision history is widened;
+    // returns the checksum of the slot
+    private long putSlot(long offset, SupersedingDoubleArrayQueue queue,
+            int slot) {
+        if (!queue.isSinglePrecision()) {
+            put(offset, queue.slot(slot));
+            return checksum(queue.slot(slot));
+        }
+        double[] buffer = slotBuffer(queue.length());
+        queue.readSlot(slot, buffer);
+        put(offset, buffer);
+        return checksum(buffer);
+    }
+
+    private void getSlot(long offset, SupersedingDoubleArrayQueue queue,
+            int slot) {
+        if (!queue.isSinglePrecision()) {
+            get(offset, queue.slot(slot));
+            return;
+        }
+        double[] buffer = slotBuffer(queue.length());
+        get(offset, buffer);
+        queue.writeSlot(slot, buffer);
+    }
+
+    private double[] slotBuffer(int n) {
+        if (slotBuffer == null || slotBuffer.length != n) {
+            slotBuffer = new double[n];
+        }
+        return slotBuffer;
+    }
+
+    private ByteBuffer segment(long offset) {
+        return segments[(int) (offset >>> SEGMENT_SHIFT)];
+    }
+
+    private static int position(long offset) {
+        return (int) (offset & (SEGMENT_BYTES - 1));
+    }
+
+    // a view of the rest of the segment that contains the byte offset
+    private ByteBuffer view(long offset) {
+        ByteBuffer segment = segment(offset).duplicate();
+        segment.position(position(offset));
+        return segment.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
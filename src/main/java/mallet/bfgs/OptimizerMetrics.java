@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+/**
+ * Receives measurements from an optimizer and its line search. All methods
+ * are called on the optimizing thread. Times are measured with
+ * {@link System#nanoTime()}.
+ * <p>
+ * With the default {@link #NONE} the optimizers skip the measurements
+ * altogether (no clock reads, no extra norm computations).
+ */
+public interface OptimizerMetrics {
+
+    /** Discards all measurements. */
+    public static final OptimizerMetrics NONE = new Adapter();
+
+    /**
+     * An evaluation of the objective at one point, of its value, its
+     * gradient or both.
+     */
+    public void evaluation(boolean value, boolean gradient, long nanos);
+
+    /**
+     * The computation of a search direction, e.g. the two-loop recursion of
+     * L-BFGS.
+     */
+    public void direction(long nanos);
+
+    /**
+     * A finished line search. {@code trials} is the number of trial steps
+     * whose value was evaluated, {@code step} the accepted step (0.0 if the
+     * search failed). The time includes the evaluations, which are reported
+     * separately as well.
+     */
+    public void lineSearch(int trials, double step, long nanos);
+
+    /**
+     * The end of an iteration.
+     *
+     * @param iteration
+     *            the number of the iteration
+     * @param value
+     *            the value at the new point
+     * @param gradientNorm
+     *            the two-norm of the gradient at the new point (NaN if the
+     *            optimizer doesn't compute it)
+     * @param step
+     *            the step taken relative to the search direction (NaN if
+     *            the optimizer has no single step size)
+     * @param historySize
+     *            the number of correction pairs held by a quasi-Newton
+     *            optimizer (0 for others)
+     */
+    public void iteration(int iteration, double value, double gradientNorm,
+            double step, int historySize);
+
+    /**
+     * Empty implementation of all methods, for subclassing.
+     */
+    public static class Adapter implements OptimizerMetrics {
+
+        public void evaluation(boolean value, boolean gradient, long nanos) {
+        }
+
+        public void direction(long nanos) {
+        }
+
+        public void lineSearch(int trials, double step, long nanos) {
+        }
+
+        public void iteration(int iteration, double value,
+                double gradientNorm, double step, int historySize) {
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+/**
+ * {@link OptimizerMetrics} that accumulate counts and times, e.g. to see
+ * whether the time goes into the objective or into the optimizer itself.
+ * Not thread-safe; use one instance per optimizer.
+ */
+public class OptimizerStatistics implements OptimizerMetrics {
+
+    private long valueEvaluations;
+    private long gradientEvaluations;
+    private long evaluationNanos;
+    private long directionNanos;
+    private long lineSearches;
+    private long lineSearchTrials;
+    private long failedLineSearches;
+    private long lineSearchNanos;
+    private int iterations;
+    private double value = Double.NaN;
+    private double gradientNorm = Double.NaN;
+    private double step = Double.NaN;
+    private int historySize;
+
+    public void evaluation(boolean value, boolean gradient, long nanos) {
+        if (value) {
+            ++valueEvaluations;
+        }
+        if (gradient) {
+            ++gradientEvaluations;
+        }
+        evaluationNanos += nanos;
+    }
+
+    public void direction(long nanos) {
+        directionNanos += nanos;
+    }
+
+    public void lineSearch(int trials, double step, long nanos) {
+        ++lineSearches;
+        lineSearchTrials += trials;
+        if (step == 0.0) {
+            ++failedLineSearches;
+        }
+        lineSearchNanos += nanos;
+    }
+
+    public void iteration(int iteration, double value, double gradientNorm,
+            double step, int historySize) {
+        ++iterations;
+        this.value = value;
+        this.gradientNorm = gradientNorm;
+        this.step = step;
+        this.historySize = historySize;
+    }
+
+    /** Number of evaluations that computed the value. */
+    public long getValueEvaluations() {
+        return valueEvaluations;
+    }
+
+    /** Number of evaluations that computed the gradient. */
+    public long getGradientEvaluations() {
+        return gradientEvaluations;
+    }
+
+    /** Total time spent in the objective. */
+    public long getEvaluationNanos() {
+        return evaluationNanos;
+    }
+
+    /** Total time spent computing search directions. */
+    public long getDirectionNanos() {
+        return directionNanos;
+    }
+
+    public long getLineSearches() {
+        return lineSearches;
+    }
+
+    public long getLineSearchTrials() {
+        return lineSearchTrials;
+    }
+
+    public long getFailedLineSearches() {
+        return failedLineSearches;
+    }
+
+    /** Total time spent in line searches, including their evaluations. */
+    public long getLineSearchNanos() {
+        return lineSearchNanos;
+    }
+
+    /** Average number of trial steps per line search. */
+    public double getTrialsPerLineSearch() {
+        return (lineSearches == 0) ? 0.0 : (double) lineSearchTrials
+                / lineSearches;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /** The value after the last iteration. */
+    public double getValue() {
+        return value;
+    }
+
+    /** The gradient norm after the last iteration. */
+    public double getGradientNorm() {
+        return gradientNorm;
+    }
+
+    /** The step of the last iteration. */
+    public double getStep() {
+        return step;
+    }
+
+    /** The history size in the last iteration. */
+    public int getHistorySize() {
+        return historySize;
+    }
+
+    public void reset() {
+        valueEvaluations = gradientEvaluations = 0;
+        evaluationNanos = directionNanos = lineSearchNanos = 0;
+        lineSearches = lineSearchTrials = failedLineSearches = 0;
+        iterations = historySize = 0;
+        value = gradientNorm = step = Double.NaN;
+    }
+
+    @Override
+    public String toString() {
+        return "iterations=" + iterations + ", value=" + value
+                + ", gradientNorm=" + gradientNorm + ", step=" + step
+                + ", historySize=" + historySize + ", valueEvaluations="
+                + valueEvaluations + ", gradientEvaluations="
+                + gradientEvaluations + ", evaluationMillis="
+                + evaluationNanos / 1000000 + ", directionMillis="
+                + directionNanos / 1000000 + ", lineSearches=" + lineSearches
+                + ", trialsPerLineSearch=" + getTrialsPerLineSearch()
+                + ", failedLineSearches=" + failedLineSearches
+                + ", lineSearchMillis=" + lineSearchNanos / 1000000;
+    }
+}
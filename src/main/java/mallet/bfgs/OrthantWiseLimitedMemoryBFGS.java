@@ -7,6 +7,8 @@
  */
 package mallet.bfgs;
 
+import java.io.IOException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
@@ -16,6 +18,12 @@ import java.util.logging.Logger;
  * "Scalable training of l1-regularized log-linear models" by Galen Andrew and
  * Jianfeng Gao in ICML 2007 for details. This code is an adaptation of the
  * freely-available C++ code on Galen's webpage.
+ * <p>
+ * If the function is an {@link Optimizable.BySparseGradient} the optimizer
+ * keeps track of the non-zero parameters, gradient components and search
+ * direction components and only touches those. The history is then stored
+ * as sparse vectors, so the cost of an iteration scales with the number of
+ * active parameters.
  * 
  * @author Kedar Bellare
  */
@@ -35,7 +43,8 @@ public final class OrthantWiseLimitedMemoryBFGS implements Optimizer {
 
     // The number of corrections used in BFGS update
     // ideally 3 <= m <= 7. Larger m means more cpu time, memory.
-    private final int m = 4;
+    // Ill-conditioned problems may benefit from m in the 10 - 50 range.
+    private final int m;
 
     // State of optimizer search
     // oldValue = value before line search, value = value after line search
@@ -49,7 +58,28 @@ public final class OrthantWiseLimitedMemoryBFGS implements Optimizer {
     // rho = intermediate calculation
     private SupersedingDoubleQueue rhos;
     private double[] alphas;
+    // non-null if the direction is computed by the vector-free recursion
+    private VectorFreeTwoLoop vectorFree;
     private int iterations;
+    private VectorKernels kernels = VectorKernels.DEFAULT;
+    private OptimizerMetrics metrics = OptimizerMetrics.NONE;
+
+    // State of the sparse path, sparse is non-null if the function is an
+    // Optimizable.BySparseGradient
+    private Optimizable.BySparseGradient sparse;
+    // non-null if the trial points are directional updates (dense path only)
+    private Optimizable.ByDirectionalUpdate directional;
+    // indices of the non-zero parameters, gradient and direction components
+    private IndexSet paramSupport, gradSupport, dirSupport;
+    // indices of the non-zero components of oldGrad
+    private int[] oldGradIndices;
+    private int oldGradCount;
+    // transfer buffers of sparse gradients and parameter updates
+    private int[] indexBuffer;
+    private double[] valueBuffer;
+    private SupersedingSparseVectorQueue sparseS, sparseY;
+    // sum of the finite |parameters| at the current and the old parameters
+    private double absSum, oldAbsSum;
 
     public OrthantWiseLimitedMemoryBFGS(Optimizable.ByGradientValue function) {
         this(function, 0.0);
@@ -57,32 +87,57 @@ public final class OrthantWiseLimitedMemoryBFGS implements Optimizer {
 
     public OrthantWiseLimitedMemoryBFGS(Optimizable.ByGradientValue function,
             double l1wt) {
+        this(function, l1wt, 4);
+    }
+
+    /**
+     * @param function
+     *            the function to be optimized
+     * @param l1wt
+     *            the weight of the L1 regularization term
+     * @param m
+     *            the number of corrections (s, y pairs) kept in the history
+     */
+    public OrthantWiseLimitedMemoryBFGS(Optimizable.ByGradientValue function,
+            double l1wt, int m) {
+        if (m <= 0) {
+            throw new IllegalArgumentException("m must be positive: " + m);
+        }
         this.optimizable = function;
         this.l1Weight = l1wt;
+        this.m = m;
         String parts[] = optimizable.getClass().getName().split("\\."); // XXX
         this.optName = parts[parts.length - 1];
 
+        int numParameters = optimizable.getNumParameters();
+
         // initialize optimizer state
         iterations = 0;
-        s = new SupersedingDoubleArrayQueue(m);
-        y = new SupersedingDoubleArrayQueue(m);
+        if (function instanceof Optimizable.BySparseGradient) {
+            sparse = (Optimizable.BySparseGradient) function;
+            sparseS = new SupersedingSparseVectorQueue(m);
+            sparseY = new SupersedingSparseVectorQueue(m);
+        } else {
+            if (function instanceof Optimizable.ByDirectionalUpdate) {
+                directional = (Optimizable.ByDirectionalUpdate) function;
+            }
+            s = new SupersedingDoubleArrayQueue(m, numParameters);
+            y = new SupersedingDoubleArrayQueue(m, numParameters);
+        }
         rhos = new SupersedingDoubleQueue(m);
         alphas = new double[m];
-        MatrixOps.setAll(alphas, 0.0);
         yDotY = 0;
 
-        int numParameters = optimizable.getNumParameters();
-
         // get initial parameters
         parameters = new double[numParameters];
         optimizable.getParameters(parameters);
+        if (sparse != null) {
+            initSparse(numParameters);
+        }
 
-        // get initial value
-        value = evalL1();
-
-        // get initial gradient
+        // get initial value and gradient
         grad = new double[numParameters];
-        evalGradient();
+        value = evalL1AndGradient();
 
         // initialize direction
         direction = new double[numParameters];
@@ -91,6 +146,88 @@ public final class OrthantWiseLimitedMemoryBFGS implements Optimizer {
         // initialize backups
         oldParameters = new double[numParameters];
         oldGrad = new double[numParameters];
+        storeSrcInDest(parameters, oldParameters);
+    }
+
+    private void initSparse(int numParameters) {
+        paramSupport = new IndexSet(numParameters);
+        gradSupport = new IndexSet(numParameters);
+        dirSupport = new IndexSet(numParameters);
+        oldGradIndices = new int[numParameters];
+        indexBuffer = new int[numParameters];
+        valueBuffer = new double[numParameters];
+        for (int i = 0; i < numParameters; i++) {
+            if (parameters[i] != 0) {
+                paramSupport.add(i);
+                if (!Double.isInfinite(parameters[i])) {
+                    absSum += Math.abs(parameters[i]);
+                }
+            }
+        }
+        oldAbsSum = absSum;
+    }
+
+    /**
+     * Selects the "vector-free" two-loop recursion, see
+     * {@link LimitedMemoryBFGS#setVectorFree(boolean)}. Off by default. Not
+     * supported for an {@link Optimizable.BySparseGradient}, whose sparse
+     * history is cheap to traverse anyway.
+     */
+    public void setVectorFree(boolean useVectorFree) {
+        if (!useVectorFree) {
+            vectorFree = null;
+        } else if (sparse != null) {
+            throw new UnsupportedOperationException(
+                    "the vector-free recursion needs a dense history");
+        } else if (vectorFree == null) {
+            vectorFree = new VectorFreeTwoLoop(m);
+            vectorFree.reset(s.size());
+        }
+    }
+
+    public boolean isVectorFree() {
+        return vectorFree != null;
+    }
+
+    /**
+     * Keeps the s and y vectors of the history in single precision, see
+     * {@link LimitedMemoryBFGS#setSinglePrecisionHistory(boolean)}, which
+     * also describes why the {@link VectorKernels} are not used for the
+     * history in this mode. Must be called before the first iteration. Not
+     * supported for an {@link Optimizable.BySparseGradient}.
+     */
+    public void setSinglePrecisionHistory(boolean useSinglePrecision) {
+        if (sparse != null) {
+            if (useSinglePrecision) {
+                throw new UnsupportedOperationException(
+                        "a sparse history is kept in double precision");
+            }
+            return;
+        }
+        if (s.isSinglePrecision() == useSinglePrecision) {
+            return;
+        }
+        if (s.size() > 0) {
+            throw new IllegalStateException(
+                    "the search has already started");
+        }
+        int numParameters = parameters.length;
+        s = new SupersedingDoubleArrayQueue(m, numParameters,
+                useSinglePrecision);
+        y = new SupersedingDoubleArrayQueue(m, numParameters,
+                useSinglePrecision);
+    }
+
+    public boolean isSinglePrecisionHistory() {
+        return s != null && s.isSinglePrecision();
+    }
+
+    /**
+     * Returns true if the optimizer works on the non-zero components only,
+     * i.e. if the function is an {@link Optimizable.BySparseGradient}.
+     */
+    public boolean isSparse() {
+        return sparse != null;
     }
 
     public Optimizable getOptimizable() {
@@ -105,15 +242,110 @@ public final class OrthantWiseLimitedMemoryBFGS implements Optimizer {
         return iterations;
     }
 
+    /** Returns the number of corrections kept in the history. */
+    public int getHistorySize() {
+        return m;
+    }
+
+    /**
+     * Sets the implementation of the full-vector operations used by this
+     * optimizer. Defaults to {@link VectorKernels#DEFAULT}.
+     */
+    public void setVectorKernels(VectorKernels kernels) {
+        if (kernels == null) {
+            throw new NullPointerException("kernels");
+        }
+        this.kernels = kernels;
+    }
+
+    /**
+     * Reports evaluations, direction computations, line searches and
+     * iterations to {@code metrics}. The reported values are those of the
+     * L1-regularized objective.
+     */
+    public void setMetrics(OptimizerMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics");
+        }
+        this.metrics = metrics;
+    }
+
+    /**
+     * Writes the state of the search (correction history, parameters,
+     * gradients, values and iteration count) to {@code checkpoint}. Must be
+     * called between iterations, i.e. after {@link #optimize(int)} returned.
+     * Not supported for an {@link Optimizable.BySparseGradient}.
+     */
+    public void writeCheckpoint(OptimizerCheckpoint checkpoint)
+            throws IOException {
+        checkSparseCheckpoint();
+        checkpoint.write(OptimizerCheckpoint.OWLQN, iterations, new double[] {
+                value, oldValue, yDotY, l1Weight }, s, y, rhos, parameters,
+                oldParameters, grad, oldGrad);
+    }
+
+    /**
+     * Continues the search from the state in {@code checkpoint}, which must
+     * have been written by an OWL-QN optimizer with the same history size
+     * and L1 weight for a function with the same number of parameters. The
+     * parameters of the function are set to those of the checkpoint. Returns
+     * false if the file holds no complete checkpoint.
+     */
+    public boolean restoreCheckpoint(OptimizerCheckpoint checkpoint)
+            throws IOException {
+        checkSparseCheckpoint();
+        double[] scalars = new double[OptimizerCheckpoint.SCALARS];
+        if (!checkpoint.readScalars(OptimizerCheckpoint.OWLQN, scalars)) {
+            return false;
+        }
+        if (scalars[3] != l1Weight) {
+            throw new IllegalArgumentException("checkpoint "
+                    + checkpoint.getFile() + " was written with L1 weight "
+                    + scalars[3] + ", not " + l1Weight);
+        }
+        int restored = checkpoint.read(OptimizerCheckpoint.OWLQN, scalars, s,
+                y, rhos, parameters, oldParameters, grad, oldGrad);
+        if (restored < 0) {
+            return false;
+        }
+        iterations = restored;
+        value = scalars[0];
+        oldValue = scalars[1];
+        yDotY = scalars[2];
+        converged = false;
+        if (vectorFree != null) {
+            vectorFree.reset(s.size());
+        }
+        optimizable.setParameters(parameters);
+        return true;
+    }
+
+    private void checkSparseCheckpoint() {
+        if (sparse != null) {
+            throw new UnsupportedOperationException(
+                    "checkpoints of a sparse search are not supported");
+        }
+    }
+
     public boolean optimize() {
         return optimize(Integer.MAX_VALUE);
     }
 
     public boolean optimize(int numIterations) {
-        logger.fine("Entering OWL-BFGS.optimize(). L1 weight=" + l1Weight
-                + " Initial Value=" + value);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Entering OWL-BFGS.optimize(). L1 weight=" + l1Weight
+                    + " Initial Value=" + value);
+        }
 
         for (int iter = 0; iter < numIterations; iter++) {
+            Object event = FlightRecorder.beginIteration();
+
+            // backup parameters and gradient
+            backup();
+
+            long directionStart = (metrics == OptimizerMetrics.NONE) ? 0L
+                    : System.nanoTime();
+
             // create descent direction
             makeSteepestDescDir();
 
@@ -122,14 +354,22 @@ public final class OrthantWiseLimitedMemoryBFGS implements Optimizer {
 
             // fix direction signs
             fixDirSigns();
+            if (metrics != OptimizerMetrics.NONE) {
+                metrics.direction(System.nanoTime() - directionStart);
+            }
 
-            // backup parameters and gradient; then perform line-search
-            storeSrcInDest(parameters, oldParameters);
-            storeSrcInDest(grad, oldGrad);
-            backTrackingLineSearch();
+            // perform line-search
+            double alpha = backTrackingLineSearch();
 
             // update gradient after line search
             evalGradient();
+            if (metrics != OptimizerMetrics.NONE || event != null) {
+                double norm = gradientNorm();
+                metrics.iteration(iterations + 1, -value, norm, alpha,
+                        (sparse == null) ? s.size() : sparseS.size());
+                FlightRecorder.endIteration(event, this, iterations + 1,
+                        -value, norm, alpha);
+            }
 
             // check for termination conditions
             if (checkValueTerminationCondition()) {
@@ -142,7 +382,7 @@ public final class OrthantWiseLimitedMemoryBFGS implements Optimizer {
 
             if (checkGradientTerminationCondition()) {
                 logger.info("Exiting OWL-BFGS on termination #2:");
-                logger.info("gradient=" + MatrixOps.twoNorm(grad) + " < "
+                logger.info("gradient=" + gradientNorm() + " < "
                         + gradientTolerance);
                 converged = true;
                 return true;
@@ -167,17 +407,40 @@ public final class OrthantWiseLimitedMemoryBFGS implements Optimizer {
      * Evaluate value. Make it a minimization problem.
      */
     private double evalL1() {
-        double val = -optimizable.getValue();
+        return addL1(-Optimizables.getValue(optimizable, metrics));
+    }
+
+    /**
+     * Evaluate value and gradient at the same point in one go. Make it a
+     * minimization problem.
+     */
+    private double evalL1AndGradient() {
+        if (sparse != null) {
+            double val = -Optimizables.getValue(optimizable, metrics);
+            evalGradient();
+            return addL1(val);
+        }
+        double val = -Optimizables.getValueAndGradient(optimizable, grad,
+                metrics);
+        adjustGradient();
+        return addL1(val);
+    }
+
+    private double addL1(double val) {
         double sumAbsWt = 0;
-        if (l1Weight > 0) {
+        if (l1Weight > 0 && sparse != null) {
+            sumAbsWt = absSum * l1Weight;
+        } else if (l1Weight > 0) {
             for (double param : parameters) {
                 if (Double.isInfinite(param))
                     continue;
                 sumAbsWt += Math.abs(param) * l1Weight;
             }
         }
-        logger.info("getValue() (" + optName + ".getValue() = " + val
-                + " + |w|=" + sumAbsWt + ") = " + (val + sumAbsWt));
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info("getValue() (" + optName + ".getValue() = " + val
+                    + " + |w|=" + sumAbsWt + ") = " + (val + sumAbsWt));
+        }
 
         return val + sumAbsWt;
     }
@@ -186,15 +449,77 @@ public final class OrthantWiseLimitedMemoryBFGS implements Optimizer {
      * Evaluate gradient, make it a descent direction.
      */
     private void evalGradient() {
-        optimizable.getValueGradient(grad);
+        if (sparse != null) {
+            evalSparseGradient();
+            return;
+        }
+        Optimizables.getValueGradient(optimizable, grad, metrics);
+        adjustGradient();
+    }
+
+    private void evalSparseGradient() {
+        for (int k = 0; k < gradSupport.size(); k++) {
+            grad[gradSupport.get(k)] = 0.0;
+        }
+        gradSupport.clear();
+        int count = Optimizables.getSparseValueGradient(sparse, indexBuffer,
+                valueBuffer, metrics);
+        for (int k = 0; k < count; k++) {
+            int i = indexBuffer[k];
+            grad[i] = Double.isInfinite(parameters[i]) ? 0.0 : -valueBuffer[k];
+            gradSupport.add(i);
+        }
+    }
+
+    // makes the old parameters and gradient equal to the current ones
+    private void backup() {
+        if (sparse == null) {
+            storeSrcInDest(parameters, oldParameters);
+            storeSrcInDest(grad, oldGrad);
+            return;
+        }
+        // only the components moved by the last line search differ
+        for (int k = 0; k < dirSupport.size(); k++) {
+            int i = dirSupport.get(k);
+            oldParameters[i] = parameters[i];
+        }
+        for (int k = 0; k < oldGradCount; k++) {
+            oldGrad[oldGradIndices[k]] = 0.0;
+        }
+        oldGradCount = gradSupport.size();
+        for (int k = 0; k < oldGradCount; k++) {
+            int i = gradSupport.get(k);
+            oldGradIndices[k] = i;
+            oldGrad[i] = grad[i];
+        }
+        oldAbsSum = absSum;
+    }
+
+    private double gradientNorm() {
+        if (sparse == null) {
+            return kernels.twoNorm(grad);
+        }
+        double sum = 0.0;
+        for (int k = 0; k < gradSupport.size(); k++) {
+            double g = grad[gradSupport.get(k)];
+            sum += g * g;
+        }
+        return Math.sqrt(sum);
+    }
+
+    private void adjustGradient() {
         adjustGradForInfiniteParams(grad);
-        MatrixOps.timesEquals(grad, -1.0);
+        kernels.timesEquals(grad, -1.0);
     }
 
     /**
      * Creates steepest ascent direction from gradient and L1-regularization.
      */
     private void makeSteepestDescDir() {
+        if (sparse != null) {
+            makeSparseSteepestDescDir();
+            return;
+        }
         if (l1Weight == 0) {
             for (int i = 0; i < grad.length; i++) {
                 direction[i] = -grad[i];
@@ -220,6 +545,51 @@ public final class OrthantWiseLimitedMemoryBFGS implements Optimizer {
         storeSrcInDest(direction, steepestDescentDirection);
     }
 
+    // the steepest descent direction is non-zero only for non-zero
+    // parameters and for zero parameters whose gradient exceeds l1Weight
+    private void makeSparseSteepestDescDir() {
+        for (int k = 0; k < dirSupport.size(); k++) {
+            int i = dirSupport.get(k);
+            direction[i] = 0.0;
+            steepestDescentDirection[i] = 0.0;
+        }
+        dirSupport.clear();
+        if (l1Weight == 0) {
+            for (int k = 0; k < gradSupport.size(); k++) {
+                int i = gradSupport.get(k);
+                direction[i] = -grad[i];
+                dirSupport.add(i);
+            }
+        } else {
+            for (int k = 0; k < paramSupport.size(); k++) {
+                int i = paramSupport.get(k);
+                if (parameters[i] < 0) {
+                    direction[i] = -grad[i] + l1Weight;
+                } else {
+                    direction[i] = -grad[i] - l1Weight;
+                }
+                dirSupport.add(i);
+            }
+            for (int k = 0; k < gradSupport.size(); k++) {
+                int i = gradSupport.get(k);
+                if (parameters[i] == 0) {
+                    if (grad[i] < -l1Weight) {
+                        direction[i] = -grad[i] - l1Weight;
+                    } else if (grad[i] > l1Weight) {
+                        direction[i] = -grad[i] + l1Weight;
+                    } else {
+                        continue;
+                    }
+                    dirSupport.add(i);
+                }
+            }
+        }
+        for (int k = 0; k < dirSupport.size(); k++) {
+            int i = dirSupport.get(k);
+            steepestDescentDirection[i] = direction[i];
+        }
+    }
+
     private void adjustGradForInfiniteParams(double d[]) {
         for (int i = 0; i < parameters.length; i++) {
             if (Double.isInfinite(parameters[i]))
@@ -234,29 +604,70 @@ public final class OrthantWiseLimitedMemoryBFGS implements Optimizer {
      *            y^T * y in BFGS calculation.
      */
     private void mapDirByInverseHessian(double yDotY) {
+        if (sparse != null) {
+            mapSparseDirByInverseHessian(yDotY);
+            return;
+        }
         if (s.size() == 0)
             return;
+        if (vectorFree != null) {
+            vectorFree.apply(s, y, direction, direction);
+            return;
+        }
 
         int count = s.size();
         for (int i = count - 1; i >= 0; i--) {
-            alphas[i] = -MatrixOps.dotProduct(s.get(i), direction)
-                    / rhos.get(i);
-            MatrixOps.plusEquals(direction, y.get(i), alphas[i]);
+            alphas[i] = -s.dotProduct(kernels, i, direction) / rhos.get(i);
+            y.plusEquals(kernels, direction, i, alphas[i]);
         }
 
         double scalar = rhos.get(count - 1) / yDotY;
-        logger.fine("Direction multiplier = " + scalar);
-        MatrixOps.timesEquals(direction, scalar);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Direction multiplier = " + scalar);
+        }
+        kernels.timesEquals(direction, scalar);
+
+        for (int i = 0; i < count; i++) {
+            double beta = y.dotProduct(kernels, i, direction) / rhos.get(i);
+            s.plusEquals(kernels, direction, i, -alphas[i] - beta);
+        }
+    }
+
+    // the two-loop recursion with the sparse history, the direction
+    // acquires the non-zero components of the s and y vectors
+    private void mapSparseDirByInverseHessian(double yDotY) {
+        int count = sparseS.size();
+        if (count == 0)
+            return;
+
+        for (int i = count - 1; i >= 0; i--) {
+            alphas[i] = -sparseS.get(i).dotProduct(direction) / rhos.get(i);
+            sparseY.get(i).addTo(direction, alphas[i], dirSupport);
+        }
+
+        double scalar = rhos.get(count - 1) / yDotY;
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Direction multiplier = " + scalar);
+        }
+        for (int k = 0; k < dirSupport.size(); k++) {
+            direction[dirSupport.get(k)] *= scalar;
+        }
 
         for (int i = 0; i < count; i++) {
-            double beta = MatrixOps.dotProduct(y.get(i), direction)
-                    / rhos.get(i);
-            MatrixOps.plusEquals(direction, s.get(i), -alphas[i] - beta);
+            double beta = sparseY.get(i).dotProduct(direction) / rhos.get(i);
+            sparseS.get(i).addTo(direction, -alphas[i] - beta, dirSupport);
         }
     }
 
     private void fixDirSigns() {
-        if (l1Weight > 0) {
+        if (l1Weight > 0 && sparse != null) {
+            for (int k = 0; k < dirSupport.size(); k++) {
+                int i = dirSupport.get(k);
+                if (direction[i] * steepestDescentDirection[i] <= 0) {
+                    direction[i] = 0;
+                }
+            }
+        } else if (l1Weight > 0) {
             for (int i = 0; i < direction.length; i++) {
                 if (direction[i] * steepestDescentDirection[i] <= 0) {
                     direction[i] = 0;
@@ -266,8 +677,11 @@ public final class OrthantWiseLimitedMemoryBFGS implements Optimizer {
     }
 
     private double dirDeriv() {
+        if (sparse != null) {
+            return sparseDirDeriv();
+        }
         if (l1Weight == 0) {
-            return MatrixOps.dotProduct(direction, grad);
+            return kernels.dotProduct(direction, grad);
         } else {
             double val = 0.0;
             for (int i = 0; i < direction.length; i++) {
@@ -288,63 +702,154 @@ public final class OrthantWiseLimitedMemoryBFGS implements Optimizer {
         }
     }
 
-    private double shift() {
-        double[] nextS = null, nextY = null;
+    private double sparseDirDeriv() {
+        double val = 0.0;
+        for (int k = 0; k < dirSupport.size(); k++) {
+            int i = dirSupport.get(k);
+            if (direction[i] == 0) {
+                continue;
+            }
+            if (l1Weight == 0) {
+                val += direction[i] * grad[i];
+            } else if (parameters[i] < 0) {
+                val += direction[i] * (grad[i] - l1Weight);
+            } else if (parameters[i] > 0) {
+                val += direction[i] * (grad[i] + l1Weight);
+            } else if (direction[i] < 0) {
+                val += direction[i] * (grad[i] - l1Weight);
+            } else {
+                val += direction[i] * (grad[i] + l1Weight);
+            }
+        }
+        return val;
+    }
 
-        int listSize = s.size();
-        if (listSize < m) {
-            nextS = new double[parameters.length];
-            nextY = new double[parameters.length];
-        } else {
-            nextS = s.removeFirst();
-            nextY = y.removeFirst();
-            rhos.removeFirst();
+    private double directionNorm() {
+        if (sparse == null) {
+            return kernels.twoNorm(direction);
         }
+        double sum = 0.0;
+        for (int k = 0; k < dirSupport.size(); k++) {
+            double d = direction[dirSupport.get(k)];
+            sum += d * d;
+        }
+        return Math.sqrt(sum);
+    }
 
+    private double shift() {
+        if (sparse != null) {
+            return sparseShift();
+        }
+        // check the pair before it is written into the history, where it
+        // would replace the oldest correction once the history is full
         double rho = 0.0;
+        for (int i = 0; i < parameters.length; i++) {
+            rho += parameterChange(i) * gradientChange(i);
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("rho=" + rho);
+        }
+        if (rho < 0) {
+            throw new InvalidOptimizableException("rho = " + rho + " < 0: "
+                    + "Invalid hessian inverse. "
+                    + "Gradient change should be opposite of parameter change.");
+        }
+
+        // fill the next history slots in place
+        double[] nextS = s.nextSlot();
+        double[] nextY = y.nextSlot();
         double yDotY = 0.0;
         for (int i = 0; i < parameters.length; i++) {
-            if (Double.isInfinite(parameters[i])
-                    && Double.isInfinite(oldParameters[i])
-                    && parameters[i] * oldParameters[i] > 0)
-                nextS[i] = 0;
-            else
-                nextS[i] = parameters[i] - oldParameters[i];
-
-            if (Double.isInfinite(grad[i]) && Double.isInfinite(oldGrad[i])
-                    && grad[i] * oldGrad[i] > 0)
-                nextY[i] = 0;
-            else
-                nextY[i] = grad[i] - oldGrad[i];
-
-            rho += nextS[i] * nextY[i];
+            nextS[i] = parameterChange(i);
+            nextY[i] = gradientChange(i);
             yDotY += nextY[i] * nextY[i];
         }
 
-        logger.fine("rho=" + rho);
+        s.commitSlot();
+        y.commitSlot();
+        rhos.addLast(rho);
+        if (vectorFree != null) {
+            vectorFree.pairAdded();
+        }
+        return yDotY;
+    }
+
+    // s is non-zero only where the line search moved the parameters, y only
+    // where the new or the old gradient is non-zero. The old parameters and
+    // gradient are brought up to date by the next backup().
+    private double sparseShift() {
+        double rho = 0.0;
+        for (int k = 0; k < dirSupport.size(); k++) {
+            int i = dirSupport.get(k);
+            rho += parameterChange(i) * gradientChange(i);
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("rho=" + rho);
+        }
         if (rho < 0) {
             throw new InvalidOptimizableException("rho = " + rho + " < 0: "
                     + "Invalid hessian inverse. "
                     + "Gradient change should be opposite of parameter change.");
         }
 
-        s.addLastNoCopy(nextS);
-        y.addLastNoCopy(nextY);
+        SparseVector nextS = sparseS.nextSlot();
+        SparseVector nextY = sparseY.nextSlot();
+        double yDotY = 0.0;
+        for (int k = 0; k < dirSupport.size(); k++) {
+            int i = dirSupport.get(k);
+            double si = parameterChange(i);
+            if (si != 0) {
+                nextS.add(i, si);
+            }
+        }
+        for (int k = 0; k < gradSupport.size(); k++) {
+            int i = gradSupport.get(k);
+            double yi = gradientChange(i);
+            if (yi != 0) {
+                nextY.add(i, yi);
+                yDotY += yi * yi;
+            }
+        }
+        for (int k = 0; k < oldGradCount; k++) {
+            int i = oldGradIndices[k];
+            if (!gradSupport.contains(i)) {
+                double yi = gradientChange(i);
+                if (yi != 0) {
+                    nextY.add(i, yi);
+                    yDotY += yi * yi;
+                }
+            }
+        }
+
+        sparseS.commitSlot();
+        sparseY.commitSlot();
         rhos.addLast(rho);
+        return yDotY;
+    }
 
-        // update old params and grad
-        storeSrcInDest(parameters, oldParameters);
-        storeSrcInDest(grad, oldGrad);
+    private double parameterChange(int i) {
+        if (Double.isInfinite(parameters[i])
+                && Double.isInfinite(oldParameters[i])
+                && parameters[i] * oldParameters[i] > 0)
+            return 0;
+        return parameters[i] - oldParameters[i];
+    }
 
-        return yDotY;
+    private double gradientChange(int i) {
+        if (Double.isInfinite(grad[i]) && Double.isInfinite(oldGrad[i])
+                && grad[i] * oldGrad[i] > 0)
+            return 0;
+        return grad[i] - oldGrad[i];
     }
 
     private static void storeSrcInDest(double src[], double dest[]) {
         System.arraycopy(src, 0, dest, 0, src.length);
     }
 
-    // backtrack line search
-    private void backTrackingLineSearch() {
+    // backtrack line search, returns the accepted step
+    private double backTrackingLineSearch() {
         double origDirDeriv = dirDeriv();
         if (origDirDeriv >= 0) {
             throw new InvalidOptimizableException(
@@ -354,8 +859,7 @@ public final class OrthantWiseLimitedMemoryBFGS implements Optimizer {
         double alpha = 1.0;
         double backoff = 0.5;
         if (iterations == 0) {
-            double normDir = Math.sqrt(MatrixOps.dotProduct(direction,
-                    direction));
+            double normDir = directionNorm();
             alpha = 1.0 / normDir;
             backoff = 0.1;
         }
@@ -364,30 +868,53 @@ public final class OrthantWiseLimitedMemoryBFGS implements Optimizer {
         // store old value
         oldValue = value;
 
-        logger.fine("*** Starting line search iter=" + iterations);
-        logger.fine("iter[" + iterations + "] Value at start of line search = "
-                + value);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("*** Starting line search iter=" + iterations);
+            logger.fine("iter[" + iterations
+                    + "] Value at start of line search = " + value);
+        }
 
+        long start = (metrics == OptimizerMetrics.NONE) ? 0L : System
+                .nanoTime();
+        if (directional != null) {
+            directional.setLine(oldParameters, direction);
+        }
+        int trials = 0;
         while (true) {
             // update parameters and gradient
             getNextPoint(alpha);
 
             // find new value
             value = evalL1();
+            ++trials;
 
-            logger.fine("iter[" + iterations + "] Using alpha = " + alpha
-                    + " new value = " + value + " |grad|="
-                    + MatrixOps.twoNorm(grad) + " |x|="
-                    + MatrixOps.twoNorm(parameters));
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("iter[" + iterations + "] Using alpha = " + alpha
+                        + " new value = " + value + " |grad|="
+                        + MatrixOps.twoNorm(grad) + " |x|="
+                        + MatrixOps.twoNorm(parameters));
+            }
 
             if (value <= oldValue + c1 * origDirDeriv * alpha)
                 break;
 
             alpha *= backoff;
         }
+        if (metrics != OptimizerMetrics.NONE) {
+            metrics.lineSearch(trials, alpha, System.nanoTime() - start);
+        }
+        if (sparse != null) {
+            updateParamSupport();
+        }
+        return alpha;
     }
 
     private void getNextPoint(double alpha) {
+        if (sparse != null) {
+            getNextSparsePoint(alpha);
+            return;
+        }
+        boolean projected = false;
         for (int i = 0; i < parameters.length; i++) {
             parameters[i] = oldParameters[i] + direction[i] * alpha;
             if (l1Weight > 0) {
@@ -395,11 +922,57 @@ public final class OrthantWiseLimitedMemoryBFGS implements Optimizer {
                 // L1-regularization
                 if (oldParameters[i] * parameters[i] < 0) {
                     parameters[i] = 0.0;
+                    projected = true;
                 }
             }
         }
 
-        optimizable.setParameters(parameters);
+        // the projected point is not on the line
+        if (directional != null && !projected) {
+            directional.moveAlongLine(alpha);
+        } else {
+            optimizable.setParameters(parameters);
+        }
+    }
+
+    // moves only the components with a non-zero direction
+    private void getNextSparsePoint(double alpha) {
+        int count = 0;
+        double sum = oldAbsSum;
+        for (int k = 0; k < dirSupport.size(); k++) {
+            int i = dirSupport.get(k);
+            if (direction[i] == 0) {
+                continue;
+            }
+            double old = oldParameters[i];
+            double p = old + direction[i] * alpha;
+            if (l1Weight > 0 && old * p < 0) {
+                p = 0.0;
+            }
+            if (!Double.isInfinite(old)) {
+                sum -= Math.abs(old);
+            }
+            if (!Double.isInfinite(p)) {
+                sum += Math.abs(p);
+            }
+            parameters[i] = p;
+            indexBuffer[count] = i;
+            valueBuffer[count] = p;
+            ++count;
+        }
+        absSum = sum;
+        sparse.setParameters(indexBuffer, valueBuffer, count);
+    }
+
+    private void updateParamSupport() {
+        for (int k = 0; k < dirSupport.size(); k++) {
+            int i = dirSupport.get(k);
+            if (parameters[i] != 0) {
+                paramSupport.add(i);
+            } else {
+                paramSupport.remove(i);
+            }
+        }
     }
 
     // termination conditions
@@ -409,6 +982,6 @@ public final class OrthantWiseLimitedMemoryBFGS implements Optimizer {
     }
 
     private boolean checkGradientTerminationCondition() {
-        return MatrixOps.twoNorm(grad) < gradientTolerance;
+        return gradientNorm() < gradientTolerance;
     }
 }
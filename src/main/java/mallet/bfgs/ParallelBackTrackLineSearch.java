@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.*;
+
+/**
+ * A backtracking line search that evaluates several trial steps at once.
+ * Each round evaluates {@code width} steps concurrently, the largest one
+ * first and each following one 1/2 or 1/5 of its predecessor (1, 0.5, 0.1,
+ * 0.05, ... in the first round), and accepts the largest step that satisfies
+ * the sufficient increase condition
+ *
+ * <pre>
+ * f(x + alam * d) >= f(x) + 1e-4 * alam * g'd
+ * </pre>
+ *
+ * If none does, the next round starts at the cubic interpolation of the two
+ * smallest steps of the round, as in the sequential backtracking search. The
+ * search trades spare cores for latency: a round costs about as long as one
+ * evaluation, while the sequential search pays for every rejected step.
+ * <p>
+ * The first trial step of a round is evaluated with the function itself, the
+ * others with forks obtained from {@link Optimizable.Forkable#fork()}. The
+ * forks are created by the first search and reused afterwards. Install the
+ * search with {@link LimitedMemoryBFGS#setLineOptimizer} or
+ * {@link ConjugateGradient#setLineOptimizer}.
+ */
+public final class ParallelBackTrackLineSearch implements
+        LineOptimizer.ByGradient {
+    private static final Logger logger = Logger
+            .getLogger(ParallelBackTrackLineSearch.class.getName());
+
+    private static final int maxIterations = 100;
+    private static final double stpmax = 100;
+    private static final double ALF = 1e-4;
+
+    private final Optimizable.Forkable function;
+    private final ForkJoinPool pool;
+    private final int width;
+    private VectorKernels kernels = VectorKernels.DEFAULT;
+    private OptimizerMetrics metrics = OptimizerMetrics.NONE;
+
+    private double relTolx = 1e-7;
+    private double absTolx = 1e-4;
+
+    // evaluators[0] is the function, the others are its forks
+    private final Optimizable.ByGradientValue[] evaluators;
+    // trial parameters, steps, values and evaluation times of a round
+    private double[][] trialParameters;
+    private final double[] steps;
+    private final double[] values;
+    private final long[] nanos;
+    private double[] g, oldParameters;
+    private int trials;
+
+    public ParallelBackTrackLineSearch(Optimizable.Forkable function,
+            ForkJoinPool pool) {
+        this(function, pool, pool.getParallelism());
+    }
+
+    /**
+     * @param function
+     *            the function to be maximized
+     * @param pool
+     *            the pool the trial steps are evaluated on
+     * @param width
+     *            the number of trial steps evaluated per round
+     */
+    public ParallelBackTrackLineSearch(Optimizable.Forkable function,
+            ForkJoinPool pool, int width) {
+        if (pool == null) {
+            throw new NullPointerException("pool");
+        }
+        if (width <= 0) {
+            throw new IllegalArgumentException("width: " + width);
+        }
+        this.function = function;
+        this.pool = pool;
+        this.width = width;
+        this.evaluators = new Optimizable.ByGradientValue[width];
+        this.evaluators[0] = function;
+        this.steps = new double[width];
+        this.values = new double[width];
+        this.nanos = new long[width];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void setVectorKernels(VectorKernels kernels) {
+        if (kernels == null) {
+            throw new NullPointerException("kernels");
+        }
+        this.kernels = kernels;
+    }
+
+    /**
+     * Reports the line searches and evaluations. The evaluations of a round
+     * are reported by the calling thread once the round is done.
+     */
+    public void setMetrics(OptimizerMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics");
+        }
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the tolerance of relative diff in function value. Line search
+     * converges if <tt>abs(delta x / x) < tolx</tt> for all coordinates.
+     */
+    public void setRelTolx(double tolx) {
+        relTolx = tolx;
+    }
+
+    /**
+     * Sets the tolerance of absolute diff in function value. Line search
+     * converges if <tt>abs(delta x) < tolx</tt> for all coordinates.
+     */
+    public void setAbsTolx(double tolx) {
+        absTolx = tolx;
+    }
+
+    /**
+     * Moves the parameters of the function along {@code line}. The initial
+     * step is ignored, the first round always starts with the full step.
+     * Returns the accepted step, or 0.0 if no step that increases the value
+     * could be found, in which case the parameters are restored.
+     */
+    public double optimize(double[] line, double initialStep) {
+        return optimize(line, initialStep, Double.NaN, null);
+    }
+
+    /**
+     * {@link #optimize(double[], double)} for a caller that knows the value
+     * {@code fold} and the gradient {@code gradient} at the current
+     * parameters, which are then not evaluated again. {@code gradient} is not
+     * modified.
+     */
+    double optimize(double[] line, double initialStep, double fold,
+            double[] gradient) {
+        Object event = FlightRecorder.beginLineSearch();
+        long start = (metrics == OptimizerMetrics.NONE && event == null) ? 0L
+                : System.nanoTime();
+        trials = 0;
+        double step = search(line, fold, gradient);
+        if (metrics != OptimizerMetrics.NONE || event != null) {
+            metrics.lineSearch(trials, step, System.nanoTime() - start);
+            FlightRecorder.endLineSearch(event, trials, step);
+        }
+        return step;
+    }
+
+    private double search(double[] line, double fold, double[] gradient) {
+        int n = function.getNumParameters();
+        allocate(n);
+        function.getParameters(oldParameters);
+        if (gradient == null) {
+            fold = Optimizables.getValueAndGradient(function, g, metrics);
+            gradient = g;
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Entering ParallelBackTrackLineSearch, value=" + fold
+                    + ", width=" + width);
+        }
+        double sum = kernels.twoNorm(line);
+        if (sum > stpmax) {
+            logger.warning("attempted step too big. scaling: sum=" + sum
+                    + ", stpmax=" + stpmax);
+            kernels.timesEquals(line, stpmax / sum);
+        }
+
+        double slope = kernels.dotProduct(gradient, line);
+        if (slope < 0) {
+            throw new InvalidOptimizableException("Slope = " + slope
+                    + " is negative");
+        }
+        if (slope == 0) {
+            throw new InvalidOptimizableException("Slope = " + slope
+                    + " is zero");
+        }
+
+        // the smallest step that still changes some coordinate by more than
+        // relTolx relative to its value
+        double test = 0.0;
+        for (int i = 0; i < n; i++) {
+            double temp = Math.abs(line[i])
+                    / Math.max(Math.abs(oldParameters[i]), 1.0);
+            if (temp > test) {
+                test = temp;
+            }
+        }
+        double alamin = relTolx / test;
+
+        double alam = 1.0;
+        while (trials < maxIterations) {
+            // the trial steps of this round, above alamin
+            int count = 0;
+            for (double step = alam; count < width && step >= alamin;) {
+                steps[count] = step;
+                System.arraycopy(oldParameters, 0, trialParameters[count], 0,
+                        n);
+                kernels.plusEquals(trialParameters[count], line, step);
+                if (count == 0 && smallAbsDiff(oldParameters,
+                        trialParameters[0])) {
+                    break;
+                }
+                ++count;
+                step *= (count % 2 == 1) ? 0.5 : 0.2;
+            }
+            if (count == 0) {
+                function.setParameters(oldParameters);
+                double f = Optimizables.getValue(function, metrics);
+                logger.warning("EXITING BACKTRACK: Jump too small (alamin="
+                        + alamin + "). Exiting and using xold. Value=" + f);
+                return 0.0;
+            }
+
+            evaluate(count);
+            trials += count;
+
+            for (int k = 0; k < count; k++) {
+                if (values[k] >= fold + ALF * steps[k] * slope) {
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine("EXITING BACKTRACK: value=" + values[k]
+                                + " step=" + steps[k]);
+                    }
+                    function.setParameters(trialParameters[k]);
+                    return steps[k];
+                }
+            }
+
+            // no trial step was accepted, continue below the smallest one
+            double f = values[count - 1];
+            alam = steps[count - 1];
+            double tmplam;
+            if (Double.isInfinite(f) || Double.isNaN(f)) {
+                tmplam = .2 * alam;
+            } else if (count == 1) {
+                tmplam = -slope * alam * alam
+                        / (2.0 * (f - fold - slope * alam));
+            } else {
+                tmplam = BackTrackLineSearch.cubic(fold, slope, alam, f,
+                        steps[count - 2], values[count - 2]);
+            }
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("round of " + count + " steps rejected, tmplam="
+                        + tmplam);
+            }
+            alam = Math.max(Math.min(tmplam, .5 * alam), .1 * alam);
+        }
+        function.setParameters(oldParameters);
+        return 0.0;
+    }
+
+    private void evaluate(int count) {
+        for (int k = 1; k < count; k++) {
+            if (evaluators[k] == null) {
+                evaluators[k] = function.fork();
+            }
+        }
+        if (count == 1) {
+            new Trials(this, 0, 1).compute();
+        } else {
+            pool.invoke(new Trials(this, 0, count));
+        }
+        if (metrics != OptimizerMetrics.NONE) {
+            for (int k = 0; k < count; k++) {
+                metrics.evaluation(true, false, nanos[k]);
+            }
+        }
+    }
+
+    // evaluates trial step k on evaluator k
+    void evaluate(int k, boolean timed) {
+        Optimizable.ByGradientValue evaluator = evaluators[k];
+        Object event = FlightRecorder.beginEvaluation();
+        long start = timed ? System.nanoTime() : 0L;
+        evaluator.setParameters(trialParameters[k]);
+        Optimizables.declareIntent(evaluator, EvaluationIntent.VALUE);
+        values[k] = evaluator.getValue();
+        if (timed) {
+            nanos[k] = System.nanoTime() - start;
+        }
+        FlightRecorder.endEvaluation(event, true, false);
+    }
+
+    private void allocate(int n) {
+        if (g == null || g.length != n) {
+            g = new double[n];
+            oldParameters = new double[n];
+            trialParameters = new double[width][n];
+        }
+    }
+
+    // returns true iff we've converged based on absolute x difference
+    private boolean smallAbsDiff(double[] x, double[] xold) {
+        for (int i = 0; i < x.length; i++) {
+            if (Math.abs(x[i] - xold[i]) > absTolx) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Evaluates the trial steps from .. to - 1
+    private static final class Trials extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ParallelBackTrackLineSearch search;
+        private final int from;
+        private final int to;
+
+        Trials(ParallelBackTrackLineSearch search, int from, int to) {
+            this.search = search;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                search.evaluate(from,
+                        search.metrics != OptimizerMetrics.NONE);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            Trials left = new Trials(search, from, mid);
+            Trials right = new Trials(search, mid, to);
+            right.fork();
+            left.compute();
+            right.join();
+        }
+    }
+}
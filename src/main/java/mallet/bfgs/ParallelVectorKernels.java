@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.io.Closeable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * {@link VectorKernels} that split the vectors into cache-sized chunks which
+ * are processed in parallel on a {@link ForkJoinPool}. Vectors shorter than a
+ * threshold are processed by the serial {@link MatrixOps} loops on the
+ * calling thread.
+ * <p>
+ * The chunking only depends on the vector length, so the results of the
+ * reductions are reproducible from run to run (though they may differ in the
+ * last bits from the serial results).
+ * <p>
+ * Kernels created with {@link #ParallelVectorKernels()} own their pool and
+ * shut it down when they are closed; a pool passed in by the caller is left
+ * alone.
+ */
+public final class ParallelVectorKernels implements VectorKernels, Closeable {
+
+    /** Default minimum vector length for parallel execution. */
+    public static final int DEFAULT_THRESHOLD = 1 << 17;
+
+    /**
+     * Default number of elements processed by a single task (128 KiB of
+     * doubles per vector, so that the operands of a chunk fit into L2).
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 14;
+
+    private static final int DOT = 0;
+    private static final int PLUS = 1;
+    private static final int PLUS_FACTOR = 2;
+    private static final int TIMES = 3;
+    private static final int TWO_NORM = 4;
+    private static final int ABS_NORM = 5;
+    private static final int INF_NORM = 6;
+
+    private final ForkJoinPool pool;
+    // true if the pool was created by this object
+    private final boolean ownsPool;
+    private final int threshold;
+    private final int chunkSize;
+
+    /**
+     * Creates kernels that run on a new {@link ForkJoinPool} with parallelism
+     * equal to the number of available processors. Call {@link #close()} to
+     * shut the pool down.
+     */
+    public ParallelVectorKernels() {
+        this(new ForkJoinPool(), DEFAULT_THRESHOLD, DEFAULT_CHUNK_SIZE, true);
+    }
+
+    public ParallelVectorKernels(ForkJoinPool pool) {
+        this(pool, DEFAULT_THRESHOLD, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param pool
+     *            the pool the chunks are processed on
+     * @param threshold
+     *            vectors shorter than this are processed serially
+     * @param chunkSize
+     *            the maximum number of elements processed by a single task
+     */
+    public ParallelVectorKernels(ForkJoinPool pool, int threshold,
+            int chunkSize) {
+        this(pool, threshold, chunkSize, false);
+    }
+
+    private ParallelVectorKernels(ForkJoinPool pool, int threshold,
+            int chunkSize, boolean ownsPool) {
+        if (pool == null) {
+            throw new NullPointerException("pool");
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize: " + chunkSize);
+        }
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+        this.threshold = threshold;
+        this.chunkSize = chunkSize;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Shuts down the pool if it was created by these kernels. Does nothing
+     * for a pool passed to the constructor.
+     */
+    public void close() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+
+    public double dotProduct(double[] m1, double[] m2) {
+        if (m1.length < threshold) {
+            return MatrixOps.dotProduct(m1, m2);
+        }
+        return run(DOT, m1, m2, 0.0);
+    }
+
+    public void plusEquals(double[] m1, double[] m2) {
+        if (m1.length < threshold) {
+            MatrixOps.plusEquals(m1, m2);
+        } else {
+            run(PLUS, m1, m2, 0.0);
+        }
+    }
+
+    public void plusEquals(double[] m1, double[] m2, double factor) {
+        if (m1.length < threshold) {
+            MatrixOps.plusEquals(m1, m2, factor);
+        } else {
+            run(PLUS_FACTOR, m1, m2, factor);
+        }
+    }
+
+    public void timesEquals(double[] m, double factor) {
+        if (m.length < threshold) {
+            MatrixOps.timesEquals(m, factor);
+        } else {
+            run(TIMES, m, null, factor);
+        }
+    }
+
+    public double twoNorm(double[] m) {
+        if (m.length < threshold) {
+            return MatrixOps.twoNorm(m);
+        }
+        return Math.sqrt(run(TWO_NORM, m, null, 0.0));
+    }
+
+    public double absNorm(double[] m) {
+        if (m.length < threshold) {
+            return MatrixOps.absNorm(m);
+        }
+        return run(ABS_NORM, m, null, 0.0);
+    }
+
+    public double infinityNorm(double[] m) {
+        if (m.length < threshold) {
+            return MatrixOps.infinityNorm(m);
+        }
+        return run(INF_NORM, m, null, 0.0);
+    }
+
+    private double run(int op, double[] m1, double[] m2, double factor) {
+        return pool.invoke(new Chunk(op, m1, m2, factor, 0, m1.length,
+                chunkSize)).doubleValue();
+    }
+
+    private static final class Chunk extends RecursiveTask<Double> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int op;
+        private final double[] m1;
+        private final double[] m2;
+        private final double factor;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+
+        Chunk(int op, double[] m1, double[] m2, double factor, int from,
+                int to, int chunkSize) {
+            this.op = op;
+            this.m1 = m1;
+            this.m2 = m2;
+            this.factor = factor;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from <= chunkSize) {
+                return Double.valueOf(computeDirectly());
+            }
+            int mid = (from + to) >>> 1;
+            Chunk left = new Chunk(op, m1, m2, factor, from, mid, chunkSize);
+            Chunk right = new Chunk(op, m1, m2, factor, mid, to, chunkSize);
+            left.fork();
+            double r = right.compute().doubleValue();
+            double l = left.join().doubleValue();
+            return Double.valueOf((op == INF_NORM) ? Math.max(l, r) : l + r);
+        }
+
+        private double computeDirectly() {
+            switch (op) {
+            case DOT:
+                return MatrixOps.dotProduct(m1, m2, from, to);
+            case PLUS:
+                MatrixOps.plusEquals(m1, m2, from, to);
+                return 0.0;
+            case PLUS_FACTOR:
+                MatrixOps.plusEquals(m1, m2, factor, from, to);
+                return 0.0;
+            case TIMES:
+                MatrixOps.timesEquals(m1, factor, from, to);
+                return 0.0;
+            case TWO_NORM:
+                return MatrixOps.twoNormSquared(m1, from, to);
+            case ABS_NORM:
+                return MatrixOps.absNorm(m1, from, to);
+            case INF_NORM:
+                return MatrixOps.infinityNorm(m1, from, to);
+            default:
+                throw new IllegalStateException("op: " + op);
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+/**
+ * {@link VectorKernels} that simply delegate to {@link MatrixOps}.
+ */
+final class SerialVectorKernels implements VectorKernels {
+
+    static VectorKernels bestAvailable() {
+        try {
+            VectorKernels simd = SimdVectorKernels.getInstance();
+            if (simd != null) {
+                return simd;
+            }
+        } catch (LinkageError e) {
+            // jdk.incubator.vector is not available
+        }
+        return VectorKernels.SERIAL;
+    }
+
+    public double dotProduct(double[] m1, double[] m2) {
+        return MatrixOps.dotProduct(m1, m2);
+    }
+
+    public void plusEquals(double[] m1, double[] m2) {
+        MatrixOps.plusEquals(m1, m2);
+    }
+
+    public void plusEquals(double[] m1, double[] m2, double factor) {
+        MatrixOps.plusEquals(m1, m2, factor);
+    }
+
+    public void timesEquals(double[] m, double factor) {
+        MatrixOps.timesEquals(m, factor);
+    }
+
+    public double twoNorm(double[] m) {
+        return MatrixOps.twoNorm(m);
+    }
+
+    public double absNorm(double[] m) {
+        return MatrixOps.absNorm(m);
+    }
+
+    public double infinityNorm(double[] m) {
+        return MatrixOps.infinityNorm(m);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Evaluates an {@link Optimizable.ByExampleGradient} data-parallel and
+ * presents it as an ordinary {@link Optimizable.ByGradientValue}, e.g. for
+ * {@link LimitedMemoryBFGS} or {@link OrthantWiseLimitedMemoryBFGS}.
+ * <p>
+ * The examples are partitioned into contiguous shards (by default one per
+ * thread of the pool). Each shard accumulates into its own gradient buffer,
+ * which is allocated once and reused. The shard results are combined by a
+ * tree reduction in a fixed order, so the results are reproducible for a
+ * given number of shards.
+ * <p>
+ * Value and gradient are always computed together and cached until the
+ * parameters are changed through this adapter. The function must not be
+ * modified by other means.
+ */
+public final class ShardedOptimizable implements
+        Optimizable.ByValueAndGradient {
+
+    private final Optimizable.ByExampleGradient function;
+    private final ForkJoinPool pool;
+    private final int shards;
+    private VectorKernels kernels = VectorKernels.DEFAULT;
+
+    // gradient buffers of the shards, buffers[0] holds the total
+    private final double[][] buffers;
+    private double value;
+    private boolean valid;
+
+    public ShardedOptimizable(Optimizable.ByExampleGradient function,
+            ForkJoinPool pool) {
+        this(function, pool, pool.getParallelism());
+    }
+
+    /**
+     * @param function
+     *            the function to be evaluated
+     * @param pool
+     *            the pool the shards are evaluated on
+     * @param shards
+     *            the number of shards the examples are partitioned into
+     */
+    public ShardedOptimizable(Optimizable.ByExampleGradient function,
+            ForkJoinPool pool, int shards) {
+        if (pool == null) {
+            throw new NullPointerException("pool");
+        }
+        if (shards <= 0) {
+            throw new IllegalArgumentException("shards: " + shards);
+        }
+        this.function = function;
+        this.pool = pool;
+        this.shards = Math.max(1, Math.min(shards, function.getNumExamples()));
+        this.buffers = new double[this.shards][function.getNumParameters()];
+    }
+
+    public Optimizable.ByExampleGradient getFunction() {
+        return function;
+    }
+
+    public int getNumShards() {
+        return shards;
+    }
+
+    /**
+     * Sets the implementation of the vector additions that combine the shard
+     * gradients. Defaults to {@link VectorKernels#DEFAULT}.
+     */
+    public void setVectorKernels(VectorKernels kernels) {
+        if (kernels == null) {
+            throw new NullPointerException("kernels");
+        }
+        this.kernels = kernels;
+    }
+
+    public int getNumParameters() {
+        return function.getNumParameters();
+    }
+
+    public void getParameters(double[] buffer) {
+        function.getParameters(buffer);
+    }
+
+    public double getParameter(int index) {
+        return function.getParameter(index);
+    }
+
+    public void setParameters(double[] params) {
+        valid = false;
+        function.setParameters(params);
+    }
+
+    public void setParameter(int index, double value) {
+        valid = false;
+        function.setParameter(index, value);
+    }
+
+    public double getValue() {
+        evaluate();
+        return value;
+    }
+
+    public void getValueGradient(double[] buffer) {
+        evaluate();
+        System.arraycopy(buffers[0], 0, buffer, 0, buffer.length);
+    }
+
+    public double getValueAndGradient(double[] buffer) {
+        getValueGradient(buffer);
+        return value;
+    }
+
+    /** Forgets the cached value and gradient. */
+    public void invalidate() {
+        valid = false;
+    }
+
+    private void evaluate() {
+        if (valid) {
+            return;
+        }
+        Shards all = new Shards(this, 0, shards);
+        value = (shards == 1) ? all.compute().doubleValue() : pool.invoke(all)
+                .doubleValue();
+        valid = true;
+    }
+
+    // first example of a shard
+    int start(int shard) {
+        return (int) ((long) shard * function.getNumExamples() / shards);
+    }
+
+    // Evaluates the shards from .. to - 1 into buffers[from] and returns the
+    // sum of their values
+    private static final class Shards extends RecursiveTask<Double> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ShardedOptimizable sharded;
+        private final int from;
+        private final int to;
+
+        Shards(ShardedOptimizable sharded, int from, int to) {
+            this.sharded = sharded;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Double compute() {
+            double[] target = sharded.buffers[from];
+            if (to - from == 1) {
+                MatrixOps.setAll(target, 0);
+                return Double.valueOf(sharded.function.addExampleValueGradient(
+                        sharded.start(from), sharded.start(to), target));
+            }
+            int mid = (from + to) >>> 1;
+            Shards left = new Shards(sharded, from, mid);
+            Shards right = new Shards(sharded, mid, to);
+            right.fork();
+            double l = left.compute().doubleValue();
+            double r = right.join().doubleValue();
+            sharded.kernels.plusEquals(target, sharded.buffers[mid]);
+            return Double.valueOf(l + r);
+        }
+    }
+}
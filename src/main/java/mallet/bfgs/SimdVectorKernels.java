@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+/**
+ * Placeholder for the explicitly vectorized {@link VectorKernels}. The real
+ * implementation, based on the {@code jdk.incubator.vector} API, lives in
+ * {@code META-INF/versions/17} of the multi-release jar and replaces this
+ * class on Java 17+ runtimes.
+ */
+final class SimdVectorKernels {
+
+    /**
+     * Returns the SIMD kernels, or {@code null} if they are not supported by
+     * the running JVM.
+     */
+    static VectorKernels getInstance() {
+        return null;
+    }
+
+    private SimdVectorKernels() {
+        throw new AssertionError();
+    }
+}
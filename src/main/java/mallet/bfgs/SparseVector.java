@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.Arrays;
+
+/**
+ * A vector stored as (index, value) pairs of its non-zero components. The
+ * arrays grow as needed and are kept when the vector is cleared, so a vector
+ * that is refilled in place stops allocating once it has reached its largest
+ * size.
+ */
+final class SparseVector {
+
+    private int[] indices;
+    private double[] values;
+    private int size;
+
+    SparseVector() {
+        indices = new int[16];
+        values = new double[16];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int index(int k) {
+        return indices[k];
+    }
+
+    double value(int k) {
+        return values[k];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /** Appends a component, each index must be added at most once. */
+    void add(int index, double value) {
+        if (size == indices.length) {
+            int capacity = 2 * size;
+            indices = Arrays.copyOf(indices, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        indices[size] = index;
+        values[size] = value;
+        ++size;
+    }
+
+    /** Returns the inner product with the dense vector {@code v}. */
+    double dotProduct(double[] v) {
+        double sum = 0.0;
+        for (int k = 0; k < size; k++) {
+            sum += values[k] * v[indices[k]];
+        }
+        return sum;
+    }
+
+    /**
+     * Adds {@code factor} times this vector to the dense vector {@code v} and
+     * the touched indices to {@code support}.
+     */
+    void addTo(double[] v, double factor, IndexSet support) {
+        for (int k = 0; k < size; k++) {
+            int i = indices[k];
+            v[i] += factor * values[k];
+            support.add(i);
+        }
+    }
+}
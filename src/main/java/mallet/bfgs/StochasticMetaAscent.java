@@ -8,13 +8,24 @@
 package mallet.bfgs;
 
 import java.util.Arrays;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.text.DecimalFormat;
 
 import mallet.bfgs.Optimizer;
 
 
 /**
+ * Stochastic meta-descent (SMD), as described in N. N. Schraudolph, "Local
+ * Gain Adaptation in Stochastic Gradient Descent", ICANN 1999, turned into
+ * ascent.
+ * <p>
+ * The Hessian-vector product of the gain adaptation is computed by
+ * {@link Optimizable.ByBatchHessianVectorProduct} if the function implements
+ * it and by a finite difference of two batch gradients otherwise. Progress
+ * is reported through {@link #setMetrics(OptimizerMetrics)} and
+ * {@code java.util.logging}; the statistics of the state vectors are only
+ * computed when the logger is enabled for {@code FINEST}.
+ *
  * @author Greg Druck
  * @author Kedar Bellare
  */
@@ -34,11 +45,20 @@ public final class StochasticMetaAscent implements Optimizer.ByBatches {
     private boolean useHessian = true;
     private double[] gain;
     private double[] gradientTrace;
+    private final Workspace workspace = new Workspace();
+    private OptimizerMetrics metrics = OptimizerMetrics.NONE;
 
     Optimizable.ByBatchGradient maxable = null;
+    // non-null if the Hessian-vector products are analytic
+    private final Optimizable.ByBatchHessianVectorProduct hessian;
 
     public StochasticMetaAscent(Optimizable.ByBatchGradient maxable) {
         this.maxable = maxable;
+        if (maxable instanceof Optimizable.ByBatchHessianVectorProduct) {
+            hessian = (Optimizable.ByBatchHessianVectorProduct) maxable;
+        } else {
+            hessian = null;
+        }
     }
 
     public void setInitialStep(double step) {
@@ -53,6 +73,18 @@ public final class StochasticMetaAscent implements Optimizer.ByBatches {
         useHessian = flag;
     }
 
+    /**
+     * Reports the batch evaluations, the Hessian-vector products (as
+     * direction computations) and the iterations to {@code metrics}. The
+     * reported value of an iteration is the sum of the batch values.
+     */
+    public void setMetrics(OptimizerMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics");
+        }
+        this.metrics = metrics;
+    }
+
     public boolean optimize(int numBatches, int[] batchAssignments) {
         return optimize(MAX_ITER, numBatches, batchAssignments);
     }
@@ -61,16 +93,20 @@ public final class StochasticMetaAscent implements Optimizer.ByBatches {
             int[] batchAssignments) {
 
         int numParameters = maxable.getNumParameters();
-        double[] parameters = new double[numParameters];
-        double[] gradient = new double[numParameters];
-        double[] hessianProduct = new double[numParameters];
+        double[] parameters = workspace.get(Workspace.PARAMETERS,
+                numParameters);
+        double[] gradient = workspace.get(Workspace.GRADIENT, numParameters);
+        double[] hessianProduct = workspace.get(Workspace.UPDATE,
+                numParameters);
 
         // Only initialize these if they are null
         // in case someone wants to optimize a
         // few iterations at a time.
         if (gain == null) {
-            System.err.println("StochasticMetaAscent: initialStep=" + eta_init
-                    + "  metaStep=" + mu);
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("StochasticMetaAscent: initialStep=" + eta_init
+                        + "  metaStep=" + mu);
+            }
             gain = new double[numParameters];
             Arrays.fill(gain, eta_init);
             gradientTrace = new double[numParameters];
@@ -82,15 +118,13 @@ public final class StochasticMetaAscent implements Optimizer.ByBatches {
             double oldApproxValue = 0;
             double approxValue = 0;
             for (int batch = 0; batch < numBatches; batch++) {
-                logger.info("Iteration " + (totalIterations + iteration)
-                        + ", batch " + batch + " of " + numBatches);
-
-                // Get current parameters
-                maxable.getParameters(parameters);
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Iteration " + (totalIterations + iteration)
+                            + ", batch " + batch + " of " + numBatches);
+                }
 
                 // Update value and gradient for the current batch
-                double initialValue = maxable.getBatchValue(batch,
-                        batchAssignments);
+                double initialValue = batchValue(batch, batchAssignments);
                 oldApproxValue += initialValue;
 
                 if (Double.isNaN(initialValue)) {
@@ -98,7 +132,7 @@ public final class StochasticMetaAscent implements Optimizer.ByBatches {
                             "NaN in value computation.  Probably you need to reduce initialStep or metaStep.");
                 }
 
-                maxable.getBatchValueGradient(gradient, batch, batchAssignments);
+                batchValueGradient(gradient, batch, batchAssignments);
 
                 // The code below was originally written for stochastic meta
                 // descent. We are maximizing, so we want ascent. Flip the
@@ -106,15 +140,22 @@ public final class StochasticMetaAscent implements Optimizer.ByBatches {
                 MatrixOps.timesEquals(gradient, -1);
 
                 if (useHessian) {
+                    long start = (metrics == OptimizerMetrics.NONE) ? 0L
+                            : System.nanoTime();
                     computeHessianProduct(maxable, parameters, batch,
                             batchAssignments, gradient, gradientTrace,
                             hessianProduct);
+                    if (metrics != OptimizerMetrics.NONE) {
+                        metrics.direction(System.nanoTime() - start);
+                    }
                 }
 
-                reportOnVec("x", parameters);
-                reportOnVec("step", gain);
-                reportOnVec("grad", gradient);
-                reportOnVec("trace", gradientTrace);
+                if (logger.isLoggable(Level.FINEST)) {
+                    reportOnVec("x", parameters);
+                    reportOnVec("step", gain);
+                    reportOnVec("grad", gradient);
+                    reportOnVec("trace", gradientTrace);
+                }
 
                 // Update learning rates for individual parameters
                 for (int index = 0; index < numParameters; index++) {
@@ -146,16 +187,21 @@ public final class StochasticMetaAscent implements Optimizer.ByBatches {
                 // Set new parameters
                 maxable.setParameters(parameters);
 
-                double finalValue = maxable.getBatchValue(batch,
-                        batchAssignments);
+                double finalValue = batchValue(batch, batchAssignments);
                 approxValue += finalValue;
 
-                logger.info("StochasticMetaAscent: initial value: "
-                        + initialValue + "  final value:" + finalValue);
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("StochasticMetaAscent: initial value: "
+                            + initialValue + "  final value:" + finalValue);
+                }
             }
 
             logger.info("StochasticMetaDescent: Value at iteration ("
                     + (totalIterations + iteration) + ")= " + approxValue);
+            if (metrics != OptimizerMetrics.NONE) {
+                metrics.iteration(totalIterations + iteration + 1,
+                        approxValue, Double.NaN, Double.NaN, 0);
+            }
 
             // converge criteria from GradientAscent and LimitedMemoryBFGS
             if (2.0 * Math.abs(approxValue - oldApproxValue) <= TOLERANCE
@@ -174,34 +220,55 @@ public final class StochasticMetaAscent implements Optimizer.ByBatches {
         return false;
     }
 
+    // the statistics of a state vector in a single pass
     private void reportOnVec(String s, double[] v) {
-        DecimalFormat f = new DecimalFormat("0.####");
-        System.out.println("StochasticMetaAscent: " + s + ":" + "  min "
-                + f.format(MatrixOps.min(v)) + "  max "
-                + f.format(MatrixOps.max(v)) + "  mean "
-                + f.format(MatrixOps.mean(v)) + "  2norm "
-                + f.format(MatrixOps.twoNorm(v)) + "  abs-norm "
-                + f.format(MatrixOps.absNorm(v)));
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0.0;
+        double sumSquares = 0.0;
+        double absSum = 0.0;
+        for (double d : v) {
+            min = Math.min(min, d);
+            max = Math.max(max, d);
+            sum += d;
+            sumSquares += d * d;
+            absSum += Math.abs(d);
+        }
+        logger.finest(String.format(
+                "StochasticMetaAscent: %s:  min %.4g  max %.4g  mean %.4g"
+                        + "  2norm %.4g  abs-norm %.4g", s, min, max, sum
+                        / v.length, Math.sqrt(sumSquares), absSum));
     }
 
-    // compute finite difference approximation of the Hessian product
+    // computes the product of the Hessian of the negated batch value with
+    // vector, analytically if possible, else by a finite difference
     private void computeHessianProduct(Optimizable.ByBatchGradient maxable,
             double[] parameters, int batchIndex, int[] batchAssignments,
             double[] currentGradient, double[] vector, double[] result) {
 
+        if (hessian != null) {
+            hessian.getBatchHessianVectorProduct(vector, result, batchIndex,
+                    batchAssignments);
+            MatrixOps.timesEquals(result, -1);
+            return;
+        }
+
         int numParameters = maxable.getNumParameters();
         double eps = 1.0e-6;
-        double[] epsGradient = new double[numParameters];
-        double[] oldParameters = new double[numParameters];
+        double[] epsGradient = workspace.get(Workspace.SCRATCH,
+                numParameters);
+        double[] oldParameters = workspace.get(Workspace.OLD_PARAMETERS,
+                numParameters);
 
         // adjust parameters by (eps * vector) and recompute gradient
         System.arraycopy(parameters, 0, oldParameters, 0, numParameters);
 
         MatrixOps.plusEquals(parameters, vector, eps);
         maxable.setParameters(parameters);
-        maxable.getBatchValueGradient(epsGradient, batchIndex, batchAssignments);
+        batchValueGradient(epsGradient, batchIndex, batchAssignments);
 
         // restore old parameters
+        System.arraycopy(oldParameters, 0, parameters, 0, numParameters);
         maxable.setParameters(oldParameters);
 
         // calculate Hessian product
@@ -210,4 +277,25 @@ public final class StochasticMetaAscent implements Optimizer.ByBatches {
                     / eps;
         }
     }
+
+    private double batchValue(int batch, int[] batchAssignments) {
+        if (metrics == OptimizerMetrics.NONE) {
+            return maxable.getBatchValue(batch, batchAssignments);
+        }
+        long start = System.nanoTime();
+        double value = maxable.getBatchValue(batch, batchAssignments);
+        metrics.evaluation(true, false, System.nanoTime() - start);
+        return value;
+    }
+
+    private void batchValueGradient(double[] buffer, int batch,
+            int[] batchAssignments) {
+        if (metrics == OptimizerMetrics.NONE) {
+            maxable.getBatchValueGradient(buffer, batch, batchAssignments);
+            return;
+        }
+        long start = System.nanoTime();
+        maxable.getBatchValueGradient(buffer, batch, batchAssignments);
+        metrics.evaluation(false, true, System.nanoTime() - start);
+    }
 }
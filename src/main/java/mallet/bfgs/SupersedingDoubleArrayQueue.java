@@ -7,51 +7,241 @@
  */
 package mallet.bfgs;
 
+/**
+ * A fixed capacity circular queue of equally sized double arrays. All slots
+ * are allocated up front, adding a new element when the queue is full
+ * overwrites the oldest slot in place. Index 0 always refers to the oldest
+ * element, index {@code size() - 1} to the newest.
+ * <p>
+ * A queue created in single precision mode stores the elements as float
+ * arrays, which halves the memory of the history and the bandwidth of the
+ * two-loop recursion. New elements are still filled as doubles (see
+ * {@link #nextSlot()}) and rounded when they are appended, and
+ * {@link #dotProduct} and {@link #plusEquals} accumulate in double. The
+ * elements of such a queue are not accessible as arrays of doubles.
+ */
 final class SupersedingDoubleArrayQueue {
 
     private int size;
+    // physical index of the oldest element
+    private int head;
+    // number of elements ever appended; the k-th element always lives in the
+    // physical slot k % capacity
+    private long appended;
+    private final int capacity;
+    // exactly one of values and floats is non-null
     private final double[][] values;
+    private final float[][] floats;
+    // the slot that is filled before it is appended in single precision mode
+    private final double[] staging;
+
+    public SupersedingDoubleArrayQueue(int capacity, int length) {
+        this(capacity, length, false);
+    }
 
-    public SupersedingDoubleArrayQueue(int capacity) {
-        values = new double[capacity][];
+    /**
+     * @param singlePrecision
+     *            if true, the elements are stored as float arrays
+     */
+    public SupersedingDoubleArrayQueue(int capacity, int length,
+            boolean singlePrecision) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        if (singlePrecision) {
+            values = null;
+            floats = new float[capacity][length];
+            staging = new double[length];
+        } else {
+            values = new double[capacity][length];
+            floats = null;
+            staging = null;
+        }
     }
 
     public int size() {
         return size;
     }
 
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Returns the length of the elements. */
+    public int length() {
+        return (floats == null) ? values[0].length : floats[0].length;
+    }
+
+    public boolean isSinglePrecision() {
+        return floats != null;
+    }
+
+    /** Returns an element of a queue that is not in single precision mode. */
     public double[] get(int index) {
-        return values[index];
+        checkDoublePrecision();
+        return values[physicalIndex(index)];
     }
 
-    public double[] removeFirst() {
-        double[] fst = values[0];
-        System.arraycopy(values, 1, values, 0, size - 1);
-        --size;
-        return fst;
+    /** Returns an element of a queue in single precision mode. */
+    public float[] getFloats(int index) {
+        return floats[physicalIndex(index)];
     }
 
+    /**
+     * Returns the inner product of an element with {@code v}. In single
+     * precision mode {@code kernels} is not used, the kernels have no float
+     * variants.
+     */
+    public double dotProduct(VectorKernels kernels, int index, double[] v) {
+        if (floats == null) {
+            return kernels.dotProduct(values[physicalIndex(index)], v);
+        }
+        float[] a = floats[physicalIndex(index)];
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * v[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Adds {@code factor} times an element to {@code v}. In single precision
+     * mode {@code kernels} is not used.
+     */
+    public void plusEquals(VectorKernels kernels, double[] v, int index,
+            double factor) {
+        if (floats == null) {
+            kernels.plusEquals(v, values[physicalIndex(index)], factor);
+            return;
+        }
+        float[] a = floats[physicalIndex(index)];
+        for (int i = 0; i < a.length; i++) {
+            v[i] += factor * a[i];
+        }
+    }
+
+    /**
+     * Copies {@code value} into the next free slot, superseding the oldest
+     * element if the queue is full.
+     */
     public void addLast(double[] value) {
-        if (size < values.length) {
-            double[] copy = new double[value.length];
-            System.arraycopy(value, 0, copy, 0, copy.length);
-            values[size] = copy;
-            ++size;
-        } else {
-            double[] fst = values[0];
-            System.arraycopy(value, 0, fst, 0, value.length);
-            System.arraycopy(values, 1, values, 0, size - 1);
-            values[values.length - 1] = fst;
+        double[] slot = nextSlot();
+        System.arraycopy(value, 0, slot, 0, slot.length);
+        commitSlot();
+    }
+
+    /**
+     * Returns the slot that the next call to {@link #commitSlot()} will append
+     * to the queue. If the queue is full this is the array currently holding
+     * the oldest element. The caller is expected to fill it in place, after
+     * it has validated the new element: writing into a full queue's slot
+     * destroys the oldest element even if the slot is never committed. In
+     * single precision mode this is a staging array whose values are rounded
+     * into the slot by {@link #commitSlot()}.
+     */
+    public double[] nextSlot() {
+        if (floats != null) {
+            return staging;
         }
+        if (size < capacity) {
+            return values[physicalIndex(size)];
+        }
+        return values[head];
     }
 
-    public void addLastNoCopy(double[] value) {
-        if (size < values.length) {
-            values[size] = value;
+    /**
+     * Appends the slot returned by {@link #nextSlot()}, superseding the oldest
+     * element if the queue is full.
+     */
+    public void commitSlot() {
+        if (floats != null) {
+            float[] slot = floats[(size < capacity) ? physicalIndex(size)
+                    : head];
+            for (int i = 0; i < slot.length; i++) {
+                slot[i] = (float) staging[i];
+            }
+        }
+        if (size < capacity) {
             ++size;
         } else {
-            System.arraycopy(values, 1, values, 0, size - 1);
-            values[values.length - 1] = value;
+            head = (head + 1) % capacity;
+        }
+        ++appended;
+    }
+
+    public void clear() {
+        size = 0;
+        head = (int) (appended % capacity);
+    }
+
+    /**
+     * Returns the number of elements appended since the queue was created,
+     * including those that have been superseded or cleared. The element
+     * appended as number k (counting from 0) is held by the physical slot
+     * {@code k % capacity()} until it is superseded.
+     */
+    public long appended() {
+        return appended;
+    }
+
+    /**
+     * Returns the array of a physical slot, regardless of the queue order.
+     * Not available in single precision mode, see
+     * {@link #readSlot(int, double[])}.
+     */
+    public double[] slot(int physicalIndex) {
+        checkDoublePrecision();
+        return values[physicalIndex];
+    }
+
+    /** Copies a physical slot into {@code v}, in either mode. */
+    public void readSlot(int physicalIndex, double[] v) {
+        if (floats == null) {
+            System.arraycopy(values[physicalIndex], 0, v, 0, v.length);
+            return;
+        }
+        float[] slot = floats[physicalIndex];
+        for (int i = 0; i < slot.length; i++) {
+            v[i] = slot[i];
         }
     }
+
+    /** Copies {@code v} into a physical slot, in either mode. */
+    public void writeSlot(int physicalIndex, double[] v) {
+        if (floats == null) {
+            System.arraycopy(v, 0, values[physicalIndex], 0, v.length);
+            return;
+        }
+        float[] slot = floats[physicalIndex];
+        for (int i = 0; i < slot.length; i++) {
+            slot[i] = (float) v[i];
+        }
+    }
+
+    /**
+     * Restores the bookkeeping of a queue whose physical slots have been
+     * filled directly, e.g. from a checkpoint.
+     */
+    public void restore(int size, long appended) {
+        if (size < 0 || size > capacity || appended < size) {
+            throw new IllegalArgumentException("size: " + size
+                    + ", appended: " + appended);
+        }
+        this.size = size;
+        this.appended = appended;
+        this.head = (int) ((appended - size) % capacity);
+    }
+
+    private void checkDoublePrecision() {
+        if (floats != null) {
+            throw new UnsupportedOperationException(
+                    "the elements are stored in single precision");
+        }
+    }
+
+    private int physicalIndex(int index) {
+        int i = head + index;
+        return (i < capacity) ? i : i - capacity;
+    }
 }
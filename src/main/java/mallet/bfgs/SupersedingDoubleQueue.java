@@ -7,12 +7,22 @@
  */
 package mallet.bfgs;
 
+/**
+ * A fixed capacity circular queue of doubles. Adding a new element when the
+ * queue is full supersedes the oldest one. Index 0 always refers to the
+ * oldest element, index {@code size() - 1} to the newest.
+ */
 final class SupersedingDoubleQueue {
 
     private int size;
+    // physical index of the oldest element
+    private int head;
     private final double[] values;
 
     public SupersedingDoubleQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
         values = new double[capacity];
     }
 
@@ -21,21 +31,54 @@ final class SupersedingDoubleQueue {
     }
 
     public double get(int index) {
-        return values[index];
-    }
-
-    public void removeFirst() {
-        System.arraycopy(values, 1, values, 0, size - 1);
-        --size;
+        return values[physicalIndex(index)];
     }
 
     public void addLast(double value) {
         if (size < values.length) {
-            values[size] = value;
+            values[physicalIndex(size)] = value;
             ++size;
         } else {
-            System.arraycopy(values, 1, values, 0, size - 1);
-            values[values.length - 1] = value;
+            values[head] = value;
+            head = (head + 1) % values.length;
         }
     }
+
+    public void clear() {
+        size = 0;
+        head = 0;
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    /**
+     * Copies the elements in queue order (oldest first) into {@code buffer}
+     * and returns their number.
+     */
+    public int toArray(double[] buffer) {
+        for (int i = 0; i < size; i++) {
+            buffer[i] = get(i);
+        }
+        return size;
+    }
+
+    /**
+     * Replaces the contents by the first {@code size} elements of
+     * {@code buffer}, oldest first.
+     */
+    public void restore(double[] buffer, int size) {
+        if (size < 0 || size > values.length) {
+            throw new IllegalArgumentException("size: " + size);
+        }
+        System.arraycopy(buffer, 0, values, 0, size);
+        this.size = size;
+        this.head = 0;
+    }
+
+    private int physicalIndex(int index) {
+        int i = head + index;
+        return (i < values.length) ? i : i - values.length;
+    }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+/**
+ * The {@link SparseVector} counterpart of {@link SupersedingDoubleArrayQueue}:
+ * a fixed capacity circular queue whose slots are refilled in place. Index 0
+ * always refers to the oldest element, index {@code size() - 1} to the
+ * newest.
+ */
+final class SupersedingSparseVectorQueue {
+
+    private int size;
+    // physical index of the oldest element
+    private int head;
+    private final SparseVector[] values;
+
+    public SupersedingSparseVectorQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        values = new SparseVector[capacity];
+        for (int i = 0; i < capacity; i++) {
+            values[i] = new SparseVector();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    public SparseVector get(int index) {
+        return values[physicalIndex(index)];
+    }
+
+    /**
+     * Returns the cleared slot that the next call to {@link #commitSlot()}
+     * will append to the queue. If the queue is full this is the vector
+     * currently holding the oldest element, which is destroyed even if the
+     * slot is never committed; see
+     * {@link SupersedingDoubleArrayQueue#nextSlot()}.
+     */
+    public SparseVector nextSlot() {
+        SparseVector slot = (size < values.length) ? values[physicalIndex(size)]
+                : values[head];
+        slot.clear();
+        return slot;
+    }
+
+    /**
+     * Appends the slot returned by {@link #nextSlot()}, superseding the oldest
+     * element if the queue is full.
+     */
+    public void commitSlot() {
+        if (size < values.length) {
+            ++size;
+        } else {
+            head = (head + 1) % values.length;
+        }
+    }
+
+    public void clear() {
+        size = 0;
+        head = 0;
+    }
+
+    private int physicalIndex(int index) {
+        int i = head + index;
+        return (i < values.length) ? i : i - values.length;
+    }
+}
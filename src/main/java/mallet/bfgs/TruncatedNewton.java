@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Truncated Newton (Hessian-free Newton-CG), as described in S. G. Nash, "A
+ * Survey of Truncated-Newton Methods", J. Comp. Appl. Math. 124, 2000.
+ * <p>
+ * Each iteration solves the Newton equations {@code -H p = g} approximately
+ * by preconditioned conjugate gradients and searches along {@code p} with a
+ * backtracking line search starting with the full Newton step. The inner
+ * loop stops when the residual has dropped below {@code eta * |g|}, where the
+ * forcing term eta follows choice 2 of S. C. Eisenstat and H. F. Walker,
+ * "Choosing the Forcing Terms in an Inexact Newton Method", SIAM J. Sci.
+ * Comput. 17(1), 1996: the solves are loose far from the maximum and get
+ * tighter as the gradient shrinks. The inner loop also stops at directions of
+ * non-negative curvature.
+ * <p>
+ * The Hessian-vector products are computed by
+ * {@link Optimizable.ByHessianVectorProduct} if the function implements it,
+ * otherwise by a forward difference of two gradients. The preconditioner is
+ * a limited memory BFGS approximation of the inverse Hessian built from the
+ * steps of the outer iterations.
+ */
+public final class TruncatedNewton implements Optimizer {
+
+    private static final Logger logger = Logger
+            .getLogger(TruncatedNewton.class.getName());
+
+    // forcing term parameters (Eisenstat and Walker, choice 2)
+    private static final double ETA_MAX = 0.5;
+    private static final double ETA_GAMMA = 0.9;
+    private static final double ETA_ALPHA = 2.0;
+    private static final double EPS = 1.0e-5;
+    // the relative step of the finite difference Hessian-vector products
+    private static final double FD_STEP = 1.4901161193847656E-8; // sqrt(ulp)
+
+    private final Optimizable.ByGradientValue optimizable;
+    // non-null if the Hessian-vector products are analytic
+    private final Optimizable.ByHessianVectorProduct hessian;
+    private final int m;
+    private LineOptimizer.ByGradient lineMaximizer;
+    private final Workspace workspace = new Workspace();
+    private VectorKernels kernels = VectorKernels.DEFAULT;
+    private OptimizerMetrics metrics = OptimizerMetrics.NONE;
+
+    private int maxIterations = 1000;
+    private int maxInnerIterations = 50;
+    private double tolerance = .0001;
+    private double gradientTolerance = .001;
+
+    // State of the search: g = gradient, p = search direction, r, z and d =
+    // residual, preconditioned residual and direction of the inner CG loop,
+    // hd = Hessian times d, s and y = parameter and gradient differences of
+    // the preconditioner
+    private double[] g, oldg, parameters, oldParameters, p, r, z, d, hd;
+    private SupersedingDoubleArrayQueue s;
+    private SupersedingDoubleArrayQueue y;
+    private SupersedingDoubleQueue rho;
+    private double[] alpha;
+    private double value;
+    private double eta = ETA_MAX;
+    private double oldGradientNorm;
+    private int iterations;
+    private int innerIterations;
+    private boolean converged;
+
+    public TruncatedNewton(Optimizable.ByGradientValue function) {
+        this(function, 4);
+    }
+
+    /**
+     * @param function
+     *            the function to be maximized
+     * @param m
+     *            the number of correction pairs of the preconditioner, 0
+     *            for no preconditioning
+     */
+    public TruncatedNewton(Optimizable.ByGradientValue function, int m) {
+        if (m < 0) {
+            throw new IllegalArgumentException("m: " + m);
+        }
+        this.optimizable = function;
+        if (function instanceof Optimizable.ByHessianVectorProduct) {
+            hessian = (Optimizable.ByHessianVectorProduct) function;
+        } else {
+            hessian = null;
+        }
+        this.m = m;
+        this.lineMaximizer = new BackTrackLineSearch(function, workspace);
+    }
+
+    public Optimizable getOptimizable() {
+        return optimizable;
+    }
+
+    public boolean isConverged() {
+        return converged;
+    }
+
+    public int getIteration() {
+        return iterations;
+    }
+
+    /** Returns the total number of inner CG iterations. */
+    public int getInnerIterations() {
+        return innerIterations;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public void setGradientTolerance(double gradientTolerance) {
+        this.gradientTolerance = gradientTolerance;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        if (maxIterations <= 0) {
+            throw new IllegalArgumentException("maxIterations: "
+                    + maxIterations);
+        }
+        this.maxIterations = maxIterations;
+    }
+
+    /** Sets the maximum number of CG iterations per Newton step (50). */
+    public void setMaxInnerIterations(int maxInnerIterations) {
+        if (maxInnerIterations <= 0) {
+            throw new IllegalArgumentException("maxInnerIterations: "
+                    + maxInnerIterations);
+        }
+        this.maxInnerIterations = maxInnerIterations;
+    }
+
+    /**
+     * Sets the implementation of the full-vector operations used by this
+     * optimizer and its line search. Defaults to {@link VectorKernels#DEFAULT}.
+     */
+    public void setVectorKernels(VectorKernels kernels) {
+        if (kernels == null) {
+            throw new NullPointerException("kernels");
+        }
+        this.kernels = kernels;
+        Optimizables.setVectorKernels(lineMaximizer, kernels);
+    }
+
+    public void setLineOptimizer(LineOptimizer.ByGradient lineOptimizer) {
+        if (lineOptimizer == null) {
+            throw new NullPointerException("lineOptimizer");
+        }
+        this.lineMaximizer = lineOptimizer;
+        Optimizables.setVectorKernels(lineOptimizer, kernels);
+        Optimizables.setMetrics(lineOptimizer, metrics);
+    }
+
+    /**
+     * Reports evaluations, direction computations (the inner CG loops), line
+     * searches and iterations to {@code metrics}. The reported history size
+     * is the number of inner iterations of the last Newton step.
+     */
+    public void setMetrics(OptimizerMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics");
+        }
+        this.metrics = metrics;
+        Optimizables.setMetrics(lineMaximizer, metrics);
+    }
+
+    public boolean optimize() {
+        return optimize(Integer.MAX_VALUE);
+    }
+
+    public boolean optimize(int numIterations) {
+        if (g == null) {
+            allocate(optimizable.getNumParameters());
+            optimizable.getParameters(parameters);
+            value = Optimizables.getValueAndGradient(optimizable, g, metrics);
+            oldGradientNorm = kernels.twoNorm(g);
+            if (oldGradientNorm < gradientTolerance) {
+                logger.info("Truncated Newton: initial gradient is zero; "
+                        + "saying converged");
+                converged = true;
+                return true;
+            }
+        }
+
+        for (int iter = 0; iter < numIterations; iter++) {
+            Object event = FlightRecorder.beginIteration();
+            long directionStart = (metrics == OptimizerMetrics.NONE) ? 0L
+                    : System.nanoTime();
+            int inner = newtonDirection();
+            innerIterations += inner;
+            if (metrics != OptimizerMetrics.NONE) {
+                metrics.direction(System.nanoTime() - directionStart);
+            }
+
+            System.arraycopy(parameters, 0, oldParameters, 0,
+                    parameters.length);
+            System.arraycopy(g, 0, oldg, 0, g.length);
+            double oldValue = value;
+
+            double step = Optimizables.optimize(lineMaximizer, p, 1.0, value,
+                    g);
+            if (step == 0.0) {
+                g = null;
+                throw new OptimizationException(
+                        "Line search could not step in the current direction. "
+                                + "(This is not necessarily cause for alarm. Sometimes this happens close to the maximum,"
+                                + " where the function may be very flat.)");
+            }
+            optimizable.getParameters(parameters);
+            value = Optimizables.getAcceptedValueAndGradient(lineMaximizer,
+                    optimizable, g, metrics);
+            double norm = kernels.twoNorm(g);
+            iterations++;
+            if (metrics != OptimizerMetrics.NONE || event != null) {
+                metrics.iteration(iterations, value, norm, step, inner);
+                FlightRecorder.endIteration(event, this, iterations, value,
+                        norm, step);
+            }
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Truncated Newton iteration " + iterations
+                        + ": value=" + value + " gradient=" + norm + " step="
+                        + step + " inner=" + inner + " eta=" + eta);
+            }
+
+            // Test for terminations
+            if (2.0 * Math.abs(value - oldValue) <= tolerance
+                    * (Math.abs(value) + Math.abs(oldValue) + EPS)) {
+                logger.info("Exiting Truncated Newton on termination #1:\nvalue difference below tolerance (oldValue: "
+                        + oldValue + " newValue: " + value);
+                converged = true;
+                return true;
+            }
+            if (norm < gradientTolerance) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Exiting Truncated Newton on termination #2: \ngradient="
+                            + norm + " < " + gradientTolerance);
+                }
+                converged = true;
+                return true;
+            }
+            if (iterations >= maxIterations) {
+                logger.warning("Too many iterations in Truncated Newton. Continuing with current parameters.");
+                converged = true;
+                return true;
+            }
+
+            updateForcingTerm(norm);
+            updatePreconditioner();
+        }
+        return false;
+    }
+
+    // Solves -H p = g by preconditioned CG up to the relative residual eta
+    // and returns the number of inner iterations, 0 if the first CG direction
+    // already has non-positive curvature and p is the preconditioned gradient
+    private int newtonDirection() {
+        int n = g.length;
+        double gnorm = kernels.twoNorm(g);
+        double target = eta * gnorm;
+        MatrixOps.setAll(p, 0);
+        System.arraycopy(g, 0, r, 0, n);
+        precondition(r, z);
+        System.arraycopy(z, 0, d, 0, n);
+        double rz = kernels.dotProduct(r, z);
+        int k = 0;
+        while (k < maxInnerIterations) {
+            hessianVectorProduct(d, hd);
+            // curvature of -f along d
+            double curvature = -kernels.dotProduct(d, hd);
+            if (curvature <= 0) {
+                if (k == 0) {
+                    // no information yet, fall back to the preconditioned
+                    // gradient
+                    System.arraycopy(d, 0, p, 0, n);
+                }
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("non-positive curvature " + curvature
+                            + " after " + k + " inner iterations");
+                }
+                break;
+            }
+            double a = rz / curvature;
+            kernels.plusEquals(p, d, a);
+            // r = g + H p
+            kernels.plusEquals(r, hd, a);
+            ++k;
+            if (kernels.twoNorm(r) <= target) {
+                break;
+            }
+            precondition(r, z);
+            double rzNew = kernels.dotProduct(r, z);
+            kernels.timesEquals(d, rzNew / rz);
+            kernels.plusEquals(d, z);
+            rz = rzNew;
+        }
+        return k;
+    }
+
+    // z = the L-BFGS approximation of -H^-1 times r
+    private void precondition(double[] r, double[] z) {
+        System.arraycopy(r, 0, z, 0, r.length);
+        if (s == null || s.size() == 0) {
+            return;
+        }
+        int last = s.size() - 1;
+        double sy = 1.0 / rho.get(last);
+        double yy = kernels.dotProduct(y.get(last), y.get(last));
+        LimitedMemoryBFGS.twoLoopRecursion(kernels, s, y, rho, alpha, z, sy
+                / yy);
+        kernels.timesEquals(z, -1.0);
+    }
+
+    // result = H v at the current parameters
+    private void hessianVectorProduct(double[] v, double[] result) {
+        if (hessian != null) {
+            hessian.getHessianVectorProduct(v, result);
+            return;
+        }
+        double vnorm = kernels.twoNorm(v);
+        double h = FD_STEP * (1.0 + kernels.twoNorm(parameters)) / vnorm;
+        double[] x = workspace.get(Workspace.PARAMETERS, parameters.length);
+        System.arraycopy(parameters, 0, x, 0, x.length);
+        kernels.plusEquals(x, v, h);
+        optimizable.setParameters(x);
+        Optimizables.getValueGradient(optimizable, result, metrics);
+        optimizable.setParameters(parameters);
+        kernels.plusEquals(result, g, -1.0);
+        kernels.timesEquals(result, 1.0 / h);
+    }
+
+    // Eisenstat and Walker, choice 2, with their safeguard
+    private void updateForcingTerm(double gradientNorm) {
+        double ratio = gradientNorm / oldGradientNorm;
+        double next = ETA_GAMMA * Math.pow(ratio, ETA_ALPHA);
+        double safeguard = ETA_GAMMA * Math.pow(eta, ETA_ALPHA);
+        if (safeguard > 0.1) {
+            next = Math.max(next, safeguard);
+        }
+        eta = Math.min(next, ETA_MAX);
+        oldGradientNorm = gradientNorm;
+    }
+
+    private void updatePreconditioner() {
+        if (m == 0) {
+            return;
+        }
+        // staged outside the history, a rejected pair must not overwrite the
+        // oldest pair of a full history
+        double[] nextS = workspace.get(Workspace.UPDATE, g.length);
+        double[] nextY = workspace.get(Workspace.SCRATCH, g.length);
+        double sy = 0.0;
+        for (int i = 0; i < g.length; i++) {
+            nextS[i] = parameters[i] - oldParameters[i];
+            nextY[i] = g[i] - oldg[i];
+            sy += nextS[i] * nextY[i];
+        }
+        // only pairs of negative curvature keep the approximation definite
+        if (sy < 0) {
+            s.addLast(nextS);
+            y.addLast(nextY);
+            rho.addLast(1.0 / sy);
+        }
+    }
+
+    private void allocate(int n) {
+        g = new double[n];
+        oldg = new double[n];
+        parameters = new double[n];
+        oldParameters = new double[n];
+        p = new double[n];
+        r = new double[n];
+        z = new double[n];
+        d = new double[n];
+        hd = new double[n];
+        if (m > 0) {
+            s = new SupersedingDoubleArrayQueue(m, n);
+            y = new SupersedingDoubleArrayQueue(m, n);
+            rho = new SupersedingDoubleQueue(m);
+            alpha = new double[m];
+        }
+    }
+}
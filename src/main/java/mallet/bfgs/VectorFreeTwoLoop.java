@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+/**
+ * "Vector-free" variant of the L-BFGS two-loop recursion, as described in
+ * Chen, Wang, Zhou and Burges, "Large-scale L-BFGS using MapReduce" (NIPS
+ * 2014).
+ * <p>
+ * The result of the two-loop recursion is always a linear combination of the
+ * 2m + 1 basis vectors s_0 .. s_m-1, y_0 .. y_m-1 and the vector d the
+ * recursion is applied to. Given the (2m+1)x(2m+1) matrix of inner products
+ * between these vectors the coefficients of that combination can be computed
+ * without touching the long vectors at all. The matrix is maintained
+ * incrementally: only the inner products involving the newest correction
+ * pair and d have to be computed, which is done in a single sweep over the
+ * parameter range. Assembling the result takes a second sweep. The standard
+ * recursion needs about 4m full-vector passes instead.
+ * <p>
+ * Both sweeps proceed tile by tile. Within a tile the vectors that are
+ * reused for every pair (d and the fresh pairs in the first sweep, the result
+ * in the second) stay in the cache while the other pairs are streamed through
+ * once. The tile length is chosen so that the reused part fits into
+ * {@code TILE_BYTES}, i.e. it shrinks when many fresh pairs have to be
+ * processed, e.g. after {@link #reset(int)}.
+ * <p>
+ * Unlike {@link MatrixOps#plusEquals(double[], double[], double)} no special
+ * treatment of infinite components is done.
+ */
+final class VectorFreeTwoLoop {
+
+    // cache budget of the vectors reused within a tile, a conservative L2
+    // size, and the bounds of the tile length in doubles
+    private static final int TILE_BYTES = 256 * 1024;
+    private static final int MIN_TILE = 512;
+    private static final int MAX_TILE = 16384;
+
+    private final int m;
+    // basis index of d, s_i has index i, y_i has index m + i
+    private final int d;
+    // symmetric matrix of inner products between the basis vectors
+    private double[][] gram;
+    // spare matrix used when the oldest pair is dropped
+    private double[][] shifted;
+    // coefficients of the basis vectors
+    private final double[] delta;
+    private final double[] alpha;
+    // inner products of v with s_j and y_j, interleaved
+    private final double[] products;
+    // number of correction pairs represented in the matrix
+    private int count;
+    // number of the newest pairs whose inner products are not yet known
+    private int fresh;
+
+    VectorFreeTwoLoop(int m) {
+        this.m = m;
+        this.d = 2 * m;
+        gram = new double[2 * m + 1][2 * m + 1];
+        shifted = new double[2 * m + 1][2 * m + 1];
+        delta = new double[2 * m + 1];
+        alpha = new double[m];
+        products = new double[2 * m];
+    }
+
+    /**
+     * Must be called whenever a new correction pair has been appended to the
+     * history queues.
+     */
+    void pairAdded() {
+        if (count == m) {
+            dropOldest();
+        }
+        ++count;
+        fresh = Math.min(fresh + 1, count);
+    }
+
+    /**
+     * Forgets all inner products. The next call to
+     * {@link #apply(SupersedingDoubleArrayQueue, SupersedingDoubleArrayQueue, double[], double[])}
+     * recomputes them for all {@code size} pairs currently in the history.
+     */
+    void reset(int size) {
+        count = size;
+        fresh = size;
+    }
+
+    /**
+     * Computes {@code out = H * v} where H is the limited memory
+     * approximation of the inverse Hessian defined by the history {@code s},
+     * {@code y}. The initial approximation is scaled by s'y / y'y of the
+     * newest pair. {@code out} may be the same array as {@code v}.
+     */
+    void apply(SupersedingDoubleArrayQueue s, SupersedingDoubleArrayQueue y,
+            double[] v, double[] out) {
+        assert (s.size() == count && y.size() == count);
+        if (count == 0) {
+            if (out != v) {
+                System.arraycopy(v, 0, out, 0, v.length);
+            }
+            return;
+        }
+        updateInnerProducts(s, y, v);
+
+        // coefficient space two-loop recursion
+        java.util.Arrays.fill(delta, 0.0);
+        delta[d] = 1.0;
+        for (int i = count - 1; i >= 0; i--) {
+            alpha[i] = combine(i) / gram[i][m + i];
+            delta[m + i] -= alpha[i];
+        }
+        int newest = count - 1;
+        double gamma = gram[newest][m + newest]
+                / gram[m + newest][m + newest];
+        for (int j = 0; j < delta.length; j++) {
+            delta[j] *= gamma;
+        }
+        for (int i = 0; i < count; i++) {
+            double beta = combine(m + i) / gram[i][m + i];
+            delta[i] += alpha[i] - beta;
+        }
+
+        assemble(s, y, v, out);
+    }
+
+    // returns sum_j delta_j * <b_row, b_j>
+    private double combine(int row) {
+        double[] g = gram[row];
+        double sum = delta[d] * g[d];
+        for (int j = 0; j < count; j++) {
+            sum += delta[j] * g[j] + delta[m + j] * g[m + j];
+        }
+        return sum;
+    }
+
+    // computes the inner products of the fresh pairs with all pairs and of v
+    // with all pairs in one blocked sweep over the parameter range
+    private void updateInnerProducts(SupersedingDoubleArrayQueue s,
+            SupersedingDoubleArrayQueue y, double[] v) {
+        int firstFresh = count - fresh;
+        int n = v.length;
+        double[] vs = products;
+        java.util.Arrays.fill(vs, 0, 2 * count, 0.0);
+        for (int i = firstFresh; i < count; i++) {
+            clearFreshRows(i);
+        }
+        // v, the fresh pairs and the pair being streamed (floats take half
+        // the space)
+        boolean single = s.isSinglePrecision();
+        int tile = single ? tile(2 + fresh) : tile(3 + 2 * fresh);
+        for (int from = 0; from < n; from += tile) {
+            int to = Math.min(n, from + tile);
+            if (single) {
+                floatProductsTile(s, y, v, firstFresh, from, to);
+            } else {
+                productsTile(s, y, v, firstFresh, from, to);
+            }
+        }
+        // mirror the new entries
+        for (int i = firstFresh; i < count; i++) {
+            for (int j = 0; j <= i; j++) {
+                gram[j][i] = gram[i][j];
+                gram[m + j][i] = gram[i][m + j];
+                gram[j][m + i] = gram[m + i][j];
+                gram[m + j][m + i] = gram[m + i][m + j];
+            }
+        }
+        for (int j = 0; j < count; j++) {
+            gram[d][j] = gram[j][d] = vs[2 * j];
+            gram[d][m + j] = gram[m + j][d] = vs[2 * j + 1];
+        }
+        fresh = 0;
+    }
+
+    // adds the contributions of the range [from, to) to the inner products
+    private void productsTile(SupersedingDoubleArrayQueue s,
+            SupersedingDoubleArrayQueue y, double[] v, int firstFresh,
+            int from, int to) {
+        for (int j = 0; j < count; j++) {
+            double[] sj = s.get(j);
+            double[] yj = y.get(j);
+            double a = 0.0;
+            double b = 0.0;
+            for (int k = from; k < to; k++) {
+                a += v[k] * sj[k];
+                b += v[k] * yj[k];
+            }
+            products[2 * j] += a;
+            products[2 * j + 1] += b;
+            // inner products of the fresh pairs i >= j with pair j
+            for (int i = Math.max(j, firstFresh); i < count; i++) {
+                double[] si = s.get(i);
+                double[] yi = y.get(i);
+                double ss = 0.0;
+                double sy = 0.0;
+                double ys = 0.0;
+                double yy = 0.0;
+                for (int k = from; k < to; k++) {
+                    ss += si[k] * sj[k];
+                    sy += si[k] * yj[k];
+                    ys += yi[k] * sj[k];
+                    yy += yi[k] * yj[k];
+                }
+                gram[i][j] += ss;
+                gram[i][m + j] += sy;
+                gram[m + i][j] += ys;
+                gram[m + i][m + j] += yy;
+            }
+        }
+    }
+
+    // productsTile for a single precision history, accumulates in double
+    private void floatProductsTile(SupersedingDoubleArrayQueue s,
+            SupersedingDoubleArrayQueue y, double[] v, int firstFresh,
+            int from, int to) {
+        for (int j = 0; j < count; j++) {
+            float[] sj = s.getFloats(j);
+            float[] yj = y.getFloats(j);
+            double a = 0.0;
+            double b = 0.0;
+            for (int k = from; k < to; k++) {
+                a += v[k] * sj[k];
+                b += v[k] * yj[k];
+            }
+            products[2 * j] += a;
+            products[2 * j + 1] += b;
+            for (int i = Math.max(j, firstFresh); i < count; i++) {
+                float[] si = s.getFloats(i);
+                float[] yi = y.getFloats(i);
+                double ss = 0.0;
+                double sy = 0.0;
+                double ys = 0.0;
+                double yy = 0.0;
+                for (int k = from; k < to; k++) {
+                    double sik = si[k];
+                    double yik = yi[k];
+                    ss += sik * sj[k];
+                    sy += sik * yj[k];
+                    ys += yik * sj[k];
+                    yy += yik * yj[k];
+                }
+                gram[i][j] += ss;
+                gram[i][m + j] += sy;
+                gram[m + i][j] += ys;
+                gram[m + i][m + j] += yy;
+            }
+        }
+    }
+
+    private void clearFreshRows(int i) {
+        for (int j = 0; j <= i; j++) {
+            gram[i][j] = 0.0;
+            gram[i][m + j] = 0.0;
+            gram[m + i][j] = 0.0;
+            gram[m + i][m + j] = 0.0;
+        }
+    }
+
+    // out = sum_j delta_j * b_j, in one blocked sweep
+    private void assemble(SupersedingDoubleArrayQueue s,
+            SupersedingDoubleArrayQueue y, double[] v, double[] out) {
+        int n = v.length;
+        double dv = delta[d];
+        // out, v and the pair being streamed
+        int tile = tile(4);
+        for (int from = 0; from < n; from += tile) {
+            int to = Math.min(n, from + tile);
+            for (int k = from; k < to; k++) {
+                out[k] = dv * v[k];
+            }
+            for (int j = 0; j < count; j++) {
+                double ds = delta[j];
+                double dy = delta[m + j];
+                if (s.isSinglePrecision()) {
+                    float[] sj = s.getFloats(j);
+                    float[] yj = y.getFloats(j);
+                    for (int k = from; k < to; k++) {
+                        out[k] += ds * sj[k] + dy * yj[k];
+                    }
+                } else {
+                    double[] sj = s.get(j);
+                    double[] yj = y.get(j);
+                    for (int k = from; k < to; k++) {
+                        out[k] += ds * sj[k] + dy * yj[k];
+                    }
+                }
+            }
+        }
+    }
+
+    // the tile length (a multiple of 64 doubles) for which the given number
+    // of vector tiles fits into TILE_BYTES
+    static int tile(int vectors) {
+        int tile = TILE_BYTES / (8 * vectors);
+        return Math.max(MIN_TILE, Math.min(MAX_TILE, tile & ~63));
+    }
+
+    // renumbers the basis after the oldest pair has been superseded
+    private void dropOldest() {
+        int size = 2 * m + 1;
+        for (int a = 0; a < size; a++) {
+            int oldA = successor(a);
+            for (int b = 0; b < size; b++) {
+                int oldB = successor(b);
+                shifted[a][b] = (oldA < 0 || oldB < 0) ? 0.0
+                        : gram[oldA][oldB];
+            }
+        }
+        double[][] tmp = gram;
+        gram = shifted;
+        shifted = tmp;
+        --count;
+        if (fresh > count) {
+            fresh = count;
+        }
+    }
+
+    // index of the basis vector that moves to position a when the oldest
+    // pair is dropped, or -1 if the position becomes vacant
+    private int successor(int a) {
+        if (a == d) {
+            return d;
+        }
+        int i = (a < m) ? a : a - m;
+        if (i == m - 1) {
+            return -1;
+        }
+        return a + 1;
+    }
+}
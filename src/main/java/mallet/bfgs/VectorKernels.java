@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+/**
+ * The full-vector operations the optimizers spend their own time in. The
+ * semantics are those of the corresponding methods in {@link MatrixOps}, but
+ * implementations are free to reorder the summations of the reductions.
+ * Implementations must be safe for use by multiple optimizers at the same
+ * time.
+ */
+public interface VectorKernels {
+
+    /** The plain single-threaded loops of {@link MatrixOps}. */
+    VectorKernels SERIAL = new SerialVectorKernels();
+
+    /**
+     * The fastest single-threaded kernels supported by the running JVM. These
+     * are explicitly vectorized (SIMD) kernels on Java 17+ if the
+     * {@code jdk.incubator.vector} module has been added to the module graph
+     * (and the multi-release jar is on the class path), and {@link #SERIAL}
+     * otherwise.
+     */
+    VectorKernels DEFAULT = SerialVectorKernels.bestAvailable();
+
+    double dotProduct(double[] m1, double[] m2);
+
+    void plusEquals(double[] m1, double[] m2);
+
+    void plusEquals(double[] m1, double[] m2, double factor);
+
+    void timesEquals(double[] m, double factor);
+
+    double twoNorm(double[] m);
+
+    double absNorm(double[] m);
+
+    double infinityNorm(double[] m);
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.Arrays;
+
+/**
+ * Scratch vectors owned by an optimizer and shared with its line search, so
+ * that the steady-state iterations don't allocate. A vector is only
+ * (re)allocated when it is requested for the first time or with a different
+ * length. Each user has its own fixed slots, which must not overlap between
+ * an optimizer and the line search it uses.
+ */
+final class Workspace {
+
+    // BackTrackLineSearch, GradientBracketLineOptimizer
+    static final int LINE_GRADIENT = 0;
+    static final int LINE_PARAMETERS = 1;
+    static final int LINE_OLD_PARAMETERS = 2;
+
+    // optimizers
+    static final int GRADIENT = 3;
+    static final int PARAMETERS = 4;
+    static final int OLD_PARAMETERS = 5;
+    static final int UPDATE = 6;
+    static final int SCRATCH = 7;
+
+    private static final int SLOTS = 8;
+
+    private final double[][] buffers = new double[SLOTS][];
+
+    /**
+     * Returns the vector of the given slot with the given length. The content
+     * is whatever the previous user of the slot left in it.
+     */
+    double[] get(int slot, int length) {
+        double[] buffer = buffers[slot];
+        if (buffer == null || buffer.length != length) {
+            buffer = new double[length];
+            buffers[slot] = buffer;
+        }
+        return buffer;
+    }
+
+    /** Releases all vectors. */
+    void clear() {
+        Arrays.fill(buffers, null);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder events of the optimizers. This is the Java 11 version
+ * of the class in the multi-release jar.
+ * <p>
+ * An event object is only created while a recording has the event enabled,
+ * so without a recording the cost is a check of a flag per event. The events
+ * span the phase they describe, which allows to attribute execution and
+ * allocation samples of the same thread to it.
+ */
+final class FlightRecorder {
+
+    private static final EventType EVALUATION = EventType
+            .getEventType(EvaluationEvent.class);
+    private static final EventType ITERATION = EventType
+            .getEventType(IterationEvent.class);
+    private static final EventType LINE_SEARCH = EventType
+            .getEventType(LineSearchEvent.class);
+
+    static Object beginEvaluation() {
+        if (!EVALUATION.isEnabled()) {
+            return null;
+        }
+        EvaluationEvent event = new EvaluationEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endEvaluation(Object event, boolean value, boolean gradient) {
+        if (event != null) {
+            EvaluationEvent e = (EvaluationEvent) event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.value = value;
+                e.gradient = gradient;
+                e.commit();
+            }
+        }
+    }
+
+    static Object beginIteration() {
+        if (!ITERATION.isEnabled()) {
+            return null;
+        }
+        IterationEvent event = new IterationEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endIteration(Object event, Optimizer optimizer, int iteration,
+            double value, double gradientNorm, double step) {
+        if (event != null) {
+            IterationEvent e = (IterationEvent) event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.optimizer = optimizer.getClass().getSimpleName();
+                e.iteration = iteration;
+                e.value = value;
+                e.gradientNorm = gradientNorm;
+                e.step = step;
+                e.commit();
+            }
+        }
+    }
+
+    static Object beginLineSearch() {
+        if (!LINE_SEARCH.isEnabled()) {
+            return null;
+        }
+        LineSearchEvent event = new LineSearchEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endLineSearch(Object event, int trials, double step) {
+        if (event != null) {
+            LineSearchEvent e = (LineSearchEvent) event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.trials = trials;
+                e.step = step;
+                e.commit();
+            }
+        }
+    }
+
+    private FlightRecorder() {
+        throw new AssertionError();
+    }
+
+    @Name("mallet.bfgs.Evaluation")
+    @Label("Objective Evaluation")
+    @Category({ "MALLET", "Optimizer" })
+    @Description("An evaluation of the objective's value and/or gradient")
+    static final class EvaluationEvent extends Event {
+        @Label("Value")
+        boolean value;
+        @Label("Gradient")
+        boolean gradient;
+    }
+
+    @Name("mallet.bfgs.Iteration")
+    @Label("Optimizer Iteration")
+    @Category({ "MALLET", "Optimizer" })
+    static final class IterationEvent extends Event {
+        @Label("Optimizer")
+        String optimizer;
+        @Label("Iteration")
+        int iteration;
+        @Label("Value")
+        double value;
+        @Label("Gradient Norm")
+        double gradientNorm;
+        @Label("Step")
+        double step;
+    }
+
+    @Name("mallet.bfgs.LineSearch")
+    @Label("Line Search")
+    @Category({ "MALLET", "Optimizer" })
+    static final class LineSearchEvent extends Event {
+        @Label("Trials")
+        int trials;
+        @Label("Step")
+        @Description("The accepted step, 0 if the search failed")
+        double step;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link VectorKernels} explicitly vectorized with the
+ * {@code jdk.incubator.vector} API using the preferred species of the
+ * platform (i.e. AVX2 or AVX-512 on x86). This is the Java 17 version of the
+ * class in the multi-release jar; it is only used if the JVM has been
+ * started with {@code --add-modules jdk.incubator.vector}.
+ */
+final class SimdVectorKernels implements VectorKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private static final SimdVectorKernels INSTANCE = new SimdVectorKernels();
+
+    /**
+     * Returns the SIMD kernels, or {@code null} if they are not supported by
+     * the running JVM.
+     */
+    static VectorKernels getInstance() {
+        return (SPECIES.length() > 1) ? INSTANCE : null;
+    }
+
+    private SimdVectorKernels() {
+    }
+
+    public double dotProduct(double[] m1, double[] m2) {
+        int n = m1.length;
+        int bound = SPECIES.loopBound(n);
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, m1, i);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, m2, i);
+            acc = a.fma(b, acc);
+        }
+        double ret = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            ret += m1[i] * m2[i];
+        }
+        return ret;
+    }
+
+    public void plusEquals(double[] m1, double[] m2) {
+        int n = m1.length;
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, m1, i);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, m2, i);
+            a.add(b).blend(0.0, oppositeInfinities(a, b)).intoArray(m1, i);
+        }
+        MatrixOps.plusEquals(m1, m2, i, n);
+    }
+
+    public void plusEquals(double[] m1, double[] m2, double factor) {
+        int n = m1.length;
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, m1, i);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, m2, i);
+            b.mul(factor).add(a).blend(0.0, oppositeInfinities(a, b))
+                    .intoArray(m1, i);
+        }
+        MatrixOps.plusEquals(m1, m2, factor, i, n);
+    }
+
+    // -inf + inf = 0, as in MatrixOps.plusEquals
+    private static VectorMask<Double> oppositeInfinities(DoubleVector a,
+            DoubleVector b) {
+        return a.test(VectorOperators.IS_INFINITE)
+                .and(b.test(VectorOperators.IS_INFINITE))
+                .and(a.mul(b).test(VectorOperators.IS_NEGATIVE));
+    }
+
+    public void timesEquals(double[] m, double factor) {
+        int n = m.length;
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, m, i).mul(factor).intoArray(m, i);
+        }
+        MatrixOps.timesEquals(m, factor, i, n);
+    }
+
+    public double twoNorm(double[] m) {
+        int n = m.length;
+        int bound = SPECIES.loopBound(n);
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, m, i);
+            acc = a.fma(a, acc);
+        }
+        double ret = acc.reduceLanes(VectorOperators.ADD)
+                + MatrixOps.twoNormSquared(m, i, n);
+        return Math.sqrt(ret);
+    }
+
+    public double absNorm(double[] m) {
+        int n = m.length;
+        int bound = SPECIES.loopBound(n);
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            acc = acc.add(DoubleVector.fromArray(SPECIES, m, i).abs());
+        }
+        return acc.reduceLanes(VectorOperators.ADD)
+                + MatrixOps.absNorm(m, i, n);
+    }
+
+    public double infinityNorm(double[] m) {
+        int n = m.length;
+        int bound = SPECIES.loopBound(n);
+        DoubleVector acc = DoubleVector.broadcast(SPECIES,
+                Double.NEGATIVE_INFINITY);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            acc = acc.max(DoubleVector.fromArray(SPECIES, m, i).abs());
+        }
+        return Math.max(acc.reduceLanes(VectorOperators.MAX),
+                MatrixOps.infinityNorm(m, i, n));
+    }
+}
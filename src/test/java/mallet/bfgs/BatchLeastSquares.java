@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+/**
+ * A {@link LeastSquares} problem whose examples are assigned to mini-batches.
+ */
+class BatchLeastSquares implements Optimizable.ByBatchGradient {
+
+    final LeastSquares ls;
+
+    BatchLeastSquares(LeastSquares ls) {
+        this.ls = ls;
+    }
+
+    public double getBatchValue(int batchIndex, int[] batchAssignments) {
+        return getBatchValueAndGradient(new double[ls.params.length],
+                batchIndex, batchAssignments);
+    }
+
+    public void getBatchValueGradient(double[] buffer, int batchIndex,
+            int[] batchAssignments) {
+        getBatchValueAndGradient(buffer, batchIndex, batchAssignments);
+    }
+
+    private double getBatchValueAndGradient(double[] buffer,
+            int batchIndex, int[] batchAssignments) {
+        MatrixOps.setAll(buffer, 0);
+        double value = 0.0;
+        for (int i = 0; i < batchAssignments.length; i++) {
+            if (batchAssignments[i] == batchIndex) {
+                value += ls.addExampleValueGradient(i, i + 1, buffer);
+            }
+        }
+        return value;
+    }
+
+    public int getNumParameters() {
+        return ls.getNumParameters();
+    }
+
+    public void getParameters(double[] buffer) {
+        ls.getParameters(buffer);
+    }
+
+    public double getParameter(int index) {
+        return ls.getParameter(index);
+    }
+
+    public void setParameters(double[] params) {
+        ls.setParameters(params);
+    }
+
+    public void setParameter(int index, double value) {
+        ls.setParameter(index, value);
+    }
+}
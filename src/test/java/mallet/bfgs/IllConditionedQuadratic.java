@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import junit.framework.Assert;
+
+/**
+ * Maximizable for -1/2 * sum_i c_i * (x_i - 1)^2 with condition number
+ * c_max / c_min = 10^3.
+ */
+class IllConditionedQuadratic implements Optimizable.ByGradientValue {
+
+    final double[] params;
+    final double[] curvature;
+
+    IllConditionedQuadratic(int n) {
+        params = new double[n];
+        curvature = new double[n];
+        for (int i = 0; i < n; i++) {
+            curvature[i] = Math.pow(10.0, 3.0 * i / Math.max(1, n - 1));
+        }
+    }
+
+    public void getParameters(double[] doubleArray) {
+        System.arraycopy(params, 0, doubleArray, 0, params.length);
+    }
+
+    public int getNumParameters() {
+        return params.length;
+    }
+
+    public double getParameter(int n) {
+        return params[n];
+    };
+
+    public void setParameters(double[] doubleArray) {
+        System.arraycopy(doubleArray, 0, params, 0, params.length);
+    }
+
+    public void setParameter(int n, double d) {
+        params[n] = d;
+    }
+
+    public double getValue() {
+        double value = 0.0;
+        for (int i = 0; i < params.length; i++) {
+            double d = params[i] - 1.0;
+            value -= 0.5 * curvature[i] * d * d;
+        }
+        return value;
+    }
+
+    public void getValueGradient(double[] buffer) {
+        for (int i = 0; i < params.length; i++) {
+            buffer[i] = -curvature[i] * (params[i] - 1.0);
+        }
+    }
+
+    void assertOptimum(double delta) {
+        for (int i = 0; i < params.length; i++) {
+            Assert.assertEquals(1.0, params[i], delta);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+
+/**
+ * Maximizes -1/2 sum_i (a_i'x - b_i)^2 for random examples a_i and
+ * b_i = a_i'x* with x* = (1, 2, ..., n).
+ */
+class LeastSquares implements Optimizable.ByExampleGradient {
+
+    final double[] params;
+    final double[][] a;
+    final double[] b;
+
+    LeastSquares(int numExamples, int n, long seed) {
+        Random rnd = new Random(seed);
+        params = new double[n];
+        a = new double[numExamples][n];
+        b = new double[numExamples];
+        for (int i = 0; i < numExamples; i++) {
+            for (int j = 0; j < n; j++) {
+                a[i][j] = rnd.nextGaussian();
+                b[i] += a[i][j] * (j + 1);
+            }
+        }
+    }
+
+    public int getNumExamples() {
+        return b.length;
+    }
+
+    public double addExampleValueGradient(int from, int to,
+            double[] buffer) {
+        double value = 0.0;
+        for (int i = from; i < to; i++) {
+            double r = MatrixOps.dotProduct(a[i], params) - b[i];
+            value -= 0.5 * r * r;
+            MatrixOps.plusEquals(buffer, a[i], -r);
+        }
+        return value;
+    }
+
+    public void getParameters(double[] buffer) {
+        System.arraycopy(params, 0, buffer, 0, params.length);
+    }
+
+    public int getNumParameters() {
+        return params.length;
+    }
+
+    public double getParameter(int n) {
+        return params[n];
+    }
+
+    public void setParameters(double[] buffer) {
+        System.arraycopy(buffer, 0, params, 0, params.length);
+    }
+
+    public void setParameter(int n, double d) {
+        params[n] = d;
+    }
+
+    void assertOptimum(double delta) {
+        for (int j = 0; j < params.length; j++) {
+            Assert.assertEquals(j + 1, params[j], delta);
+        }
+    }
+}
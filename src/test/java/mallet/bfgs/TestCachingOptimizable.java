@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link CachingOptimizable}.
+ */
+public class TestCachingOptimizable extends TestCase {
+
+    public TestCachingOptimizable(String name) {
+        super(name);
+    }
+
+    // SimplePoly that counts its evaluations
+    static class CountingSimplePoly extends TestOptimizable.SimplePoly {
+        int values;
+        int gradients;
+
+        public double getValue() {
+            values++;
+            return super.getValue();
+        }
+
+        public void getValueGradient(double[] buffer) {
+            gradients++;
+            super.getValueGradient(buffer);
+        }
+    }
+
+    public void testCachingOptimizable() {
+        CountingSimplePoly poly = new CountingSimplePoly();
+        CachingOptimizable cache = new CachingOptimizable(poly, 2);
+        double[] gradient = new double[1];
+        double value = cache.getValueAndGradient(gradient);
+        assertEquals(value, cache.getValue());
+        cache.getValueGradient(gradient);
+        assertEquals(1, poly.values);
+        assertEquals(1, poly.gradients);
+        assertEquals(2, cache.getValueHits() + cache.getGradientHits());
+
+        // a new point is evaluated, going back to the old one is free
+        long version = cache.getVersion();
+        cache.setParameters(new double[] { 1.0 });
+        assertTrue(cache.getVersion() > version);
+        assertEquals(poly.getValue(), cache.getValue());
+        assertEquals(3, poly.values);
+        cache.setParameters(new double[] { 0.0 });
+        assertEquals(value, cache.getValue());
+        assertEquals(3, poly.values);
+        assertEquals(0.0, poly.params[0]);
+
+        // the LRU list holds two points only
+        cache.setParameters(new double[] { 2.0 });
+        cache.getValue();
+        cache.setParameters(new double[] { 1.0 });
+        cache.getValue();
+        assertEquals(5, poly.values);
+        assertEquals(4, cache.getValueMisses());
+
+        cache.setParameter(0, 3.0);
+        assertEquals(3.0, cache.getParameter(0));
+        assertEquals(3.0, poly.params[0]);
+        cache.getValue();
+        assertEquals(6, poly.values);
+
+        cache.invalidate();
+        cache.getValue();
+        assertEquals(7, poly.values);
+
+        // L-BFGS evaluates the gradient at the step the line search
+        // accepted, whose value is cached; the line search takes the start
+        // point from L-BFGS and evaluates no gradient
+        IllConditionedQuadratic quad = new IllConditionedQuadratic(10);
+        cache = new CachingOptimizable(quad);
+        LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(cache);
+        try {
+            bfgs.optimize();
+            fail("the line search did not give up at the maximum");
+        } catch (OptimizationException e) {
+            // the backtracking gives up this close to the maximum
+            assertTrue(e.getMessage(),
+                    e.getMessage().startsWith("Line search"));
+        }
+        quad.assertOptimum(1e-2);
+        assertTrue(cache.getValueHits() > 0);
+        assertEquals(0, cache.getGradientHits());
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestCachingOptimizable.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link Optimizable.ByDirectionalUpdate}.
+ */
+public class TestDirectionalUpdate extends TestCase {
+
+    public TestDirectionalUpdate(String name) {
+        super(name);
+    }
+
+    // a LeastSquares problem that caches the margins a_i'x and moves along a
+    // line without recomputing them
+    static class MarginLeastSquares implements
+            Optimizable.ByDirectionalUpdate {
+
+        final LeastSquares ls;
+        final double[] margins, baseMargins, directionMargins;
+        double[] base, direction;
+        boolean valid;
+        int products, moves;
+
+        MarginLeastSquares(LeastSquares ls) {
+            this.ls = ls;
+            margins = new double[ls.b.length];
+            baseMargins = new double[ls.b.length];
+            directionMargins = new double[ls.b.length];
+        }
+
+        private void product(double[] x, double[] result) {
+            ++products;
+            for (int i = 0; i < result.length; i++) {
+                result[i] = MatrixOps.dotProduct(ls.a[i], x);
+            }
+        }
+
+        public void setLine(double[] base, double[] direction) {
+            this.base = base;
+            this.direction = direction;
+            product(base, baseMargins);
+            product(direction, directionMargins);
+        }
+
+        public void moveAlongLine(double step) {
+            ++moves;
+            for (int j = 0; j < ls.params.length; j++) {
+                ls.params[j] = base[j] + step * direction[j];
+            }
+            for (int i = 0; i < margins.length; i++) {
+                margins[i] = baseMargins[i] + step * directionMargins[i];
+            }
+            valid = true;
+        }
+
+        private void update() {
+            if (!valid) {
+                product(ls.params, margins);
+                valid = true;
+            }
+        }
+
+        public double getValue() {
+            update();
+            double value = 0.0;
+            for (int i = 0; i < margins.length; i++) {
+                double r = margins[i] - ls.b[i];
+                value -= 0.5 * r * r;
+            }
+            return value;
+        }
+
+        public void getValueGradient(double[] buffer) {
+            update();
+            MatrixOps.setAll(buffer, 0);
+            for (int i = 0; i < margins.length; i++) {
+                MatrixOps.plusEquals(buffer, ls.a[i], -(margins[i] - ls.b[i]));
+            }
+        }
+
+        public int getNumParameters() {
+            return ls.getNumParameters();
+        }
+
+        public void getParameters(double[] buffer) {
+            ls.getParameters(buffer);
+        }
+
+        public double getParameter(int index) {
+            return ls.getParameter(index);
+        }
+
+        public void setParameters(double[] params) {
+            valid = false;
+            ls.setParameters(params);
+        }
+
+        public void setParameter(int index, double value) {
+            valid = false;
+            ls.setParameter(index, value);
+        }
+    }
+
+    public void testDirectionalUpdate() {
+        LeastSquares ls = new LeastSquares(200, 10, 17);
+        MarginLeastSquares margins = new MarginLeastSquares(ls);
+        LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(margins);
+        try {
+            bfgs.optimize();
+            fail("the line search did not give up at the maximum");
+        } catch (OptimizationException e) {
+            // the backtracking gives up this close to the maximum
+            assertTrue(e.getMessage(),
+                    e.getMessage().startsWith("Line search"));
+        }
+        ls.assertOptimum(1e-3);
+        assertTrue(margins.moves > 0);
+
+        LeastSquares ls2 = new LeastSquares(200, 10, 17);
+        MarginLeastSquares margins2 = new MarginLeastSquares(ls2);
+        LimitedMemoryBFGS bfgs2 = new LimitedMemoryBFGS(margins2);
+        bfgs2.setLineOptimizer(new MoreThuenteLineSearch(margins2));
+        assertTrue(bfgs2.optimize());
+        ls2.assertOptimum(1e-3);
+
+        LeastSquares ls3 = new LeastSquares(200, 10, 17);
+        MarginLeastSquares margins3 = new MarginLeastSquares(ls3);
+        new OrthantWiseLimitedMemoryBFGS(margins3).optimize();
+        ls3.assertOptimum(1e-3);
+        // the trial points need no products of their own
+        assertTrue(margins3.moves > 0);
+        assertTrue(margins3.products <= 2 * margins3.moves + 1);
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestDirectionalUpdate.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link DistributedOptimizable} and {@link GradientWorker}.
+ */
+public class TestDistributedOptimizable extends TestCase {
+
+    public TestDistributedOptimizable(String name) {
+        super(name);
+    }
+
+    // shard {shard} of {numShards} of a LeastSquares problem, started as a
+    // GradientWorker process with the arguments numExamples n seed shard
+    // numShards
+    public static class LeastSquaresShard implements
+            Optimizable.ByGradientValue {
+
+        private final LeastSquares ls;
+        private final int from;
+        private final int to;
+
+        public LeastSquaresShard(String[] args) {
+            int numExamples = Integer.parseInt(args[0]);
+            ls = new LeastSquares(numExamples, Integer.parseInt(args[1]),
+                    Long.parseLong(args[2]));
+            int shard = Integer.parseInt(args[3]);
+            int numShards = Integer.parseInt(args[4]);
+            from = shard * numExamples / numShards;
+            to = (shard + 1) * numExamples / numShards;
+        }
+
+        public double getValue() {
+            return ls.addExampleValueGradient(from, to,
+                    new double[ls.getNumParameters()]);
+        }
+
+        public void getValueGradient(double[] buffer) {
+            MatrixOps.setAll(buffer, 0);
+            ls.addExampleValueGradient(from, to, buffer);
+        }
+
+        public int getNumParameters() {
+            return ls.getNumParameters();
+        }
+
+        public void getParameters(double[] buffer) {
+            ls.getParameters(buffer);
+        }
+
+        public double getParameter(int index) {
+            return ls.getParameter(index);
+        }
+
+        public void setParameters(double[] params) {
+            ls.setParameters(params);
+        }
+
+        public void setParameter(int index, double value) {
+            ls.setParameter(index, value);
+        }
+    }
+
+    public void testDistributedOptimizable() throws Exception {
+        int numWorkers = 2;
+        Process[] workers = new Process[numWorkers];
+        InetSocketAddress[] addresses = new InetSocketAddress[numWorkers];
+        String java = System.getProperty("java.home") + File.separator
+                + "bin" + File.separator + "java";
+        try {
+            for (int w = 0; w < numWorkers; w++) {
+                workers[w] = new ProcessBuilder(java, "-cp",
+                        System.getProperty("java.class.path"),
+                        GradientWorker.class.getName(), "0",
+                        LeastSquaresShard.class.getName(), "1000", "8", "7",
+                        String.valueOf(w), String.valueOf(numWorkers))
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+                BufferedReader out = new BufferedReader(new InputStreamReader(
+                        workers[w].getInputStream(), "UTF-8"));
+                String line = out.readLine();
+                assertNotNull("worker " + w + " did not start", line);
+                String port = line.substring(line.lastIndexOf(' ') + 1);
+                addresses[w] = new InetSocketAddress(
+                        InetAddress.getLoopbackAddress(),
+                        Integer.parseInt(port));
+            }
+
+            LeastSquares ls = new LeastSquares(1000, 8, 7);
+            double[] start = { 1, 0, 1, 0, 1, 0, 1, 0 };
+            ls.setParameters(start);
+            double[] expected = new double[8];
+            double value = ls.addExampleValueGradient(0, 1000, expected);
+
+            DistributedOptimizable distributed = new DistributedOptimizable(
+                    start, addresses);
+            try {
+                double[] gradient = new double[8];
+                assertEquals(value, distributed.getValueAndGradient(gradient),
+                        1e-8);
+                for (int j = 0; j < 8; j++) {
+                    assertEquals(expected[j], gradient[j], 1e-8);
+                }
+                distributed.setParameters(new double[8]);
+                LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(distributed);
+                try {
+                    bfgs.optimize();
+                    fail("the line search did not give up at the maximum");
+                } catch (OptimizationException e) {
+                    // the backtracking gives up this close to the maximum
+                    assertTrue(e.getMessage(),
+                            e.getMessage().startsWith("Line search"));
+                }
+                distributed.getParameters(ls.params);
+                ls.assertOptimum(1e-3);
+            } finally {
+                distributed.close();
+            }
+            for (Process worker : workers) {
+                assertEquals(0, worker.waitFor());
+            }
+        } finally {
+            for (Process worker : workers) {
+                if (worker != null) {
+                    worker.destroy();
+                }
+            }
+        }
+    }
+
+    public void testDistributedOptimizableWorkerError() throws Exception {
+        int numWorkers = 2;
+        final GradientWorker[] workers = new GradientWorker[numWorkers];
+        Thread[] threads = new Thread[numWorkers];
+        InetSocketAddress[] addresses = new InetSocketAddress[numWorkers];
+        for (int w = 0; w < numWorkers; w++) {
+            String[] args = { "1000", "8", "7", String.valueOf(w),
+                    String.valueOf(numWorkers) };
+            // the first worker fails for a negative first parameter
+            LeastSquaresShard shard = (w > 0) ? new LeastSquaresShard(args)
+                    : new LeastSquaresShard(args) {
+                        private boolean fail;
+
+                        public void setParameters(double[] params) {
+                            fail = params[0] < 0;
+                            super.setParameters(params);
+                        }
+
+                        public double getValue() {
+                            if (fail) {
+                                throw new IllegalStateException("negative");
+                            }
+                            return super.getValue();
+                        }
+                    };
+            workers[w] = new GradientWorker(shard, new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), 0));
+            addresses[w] = new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(), workers[w].getPort());
+            final int worker = w;
+            threads[w] = new Thread() {
+                public void run() {
+                    try {
+                        workers[worker].serve();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[w].start();
+        }
+
+        LeastSquares ls = new LeastSquares(1000, 8, 7);
+        double[] start = { 1, 0, 1, 0, 1, 0, 1, 0 };
+        ls.setParameters(start);
+        double[] expected = new double[8];
+        double value = ls.addExampleValueGradient(0, 1000, expected);
+
+        double[] negative = start.clone();
+        negative[0] = -1;
+        DistributedOptimizable distributed = new DistributedOptimizable(
+                negative, addresses);
+        try {
+            double[] gradient = new double[8];
+            try {
+                distributed.getValueAndGradient(gradient);
+                fail("the error of worker 0 was not reported");
+            } catch (OptimizationException e) {
+                assertTrue(e.getMessage(),
+                        e.getMessage().contains("gradient worker 0"));
+            }
+            // the response of worker 1 to the failed request was consumed
+            distributed.setParameters(start);
+            assertEquals(value, distributed.getValueAndGradient(gradient),
+                    1e-8);
+            for (int j = 0; j < 8; j++) {
+                assertEquals(expected[j], gradient[j], 1e-8);
+            }
+        } finally {
+            distributed.close();
+            for (int w = 0; w < numWorkers; w++) {
+                threads[w].join(10000);
+                workers[w].close();
+            }
+        }
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestDistributedOptimizable.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link Optimizable.ByEvaluationIntent}.
+ */
+public class TestEvaluationIntent extends TestCase {
+
+    public TestEvaluationIntent(String name) {
+        super(name);
+    }
+
+    // a LeastSquares problem that computes the gradient together with the
+    // value unless told that only the value is needed, and otherwise builds
+    // it from the residuals kept by the value evaluation
+    static class LazyLeastSquares implements Optimizable.ByEvaluationIntent {
+
+        final LeastSquares ls;
+        final double[] residuals, gradient;
+        EvaluationIntent intent = EvaluationIntent.VALUE_AND_GRADIENT;
+        boolean hasResiduals, hasGradient, gradientRequested;
+        // gradients computed at points where none was requested
+        int valueIntents, wastedGradients;
+
+        LazyLeastSquares(LeastSquares ls) {
+            this.ls = ls;
+            residuals = new double[ls.b.length];
+            gradient = new double[ls.params.length];
+        }
+
+        public void declareIntent(EvaluationIntent intent) {
+            if (intent == EvaluationIntent.VALUE) {
+                ++valueIntents;
+            }
+            this.intent = intent;
+        }
+
+        private void forward() {
+            if (!hasResiduals) {
+                for (int i = 0; i < residuals.length; i++) {
+                    residuals[i] = MatrixOps.dotProduct(ls.a[i], ls.params)
+                            - ls.b[i];
+                }
+                hasResiduals = true;
+            }
+        }
+
+        private void backward() {
+            forward();
+            if (!hasGradient) {
+                MatrixOps.setAll(gradient, 0);
+                for (int i = 0; i < residuals.length; i++) {
+                    MatrixOps.plusEquals(gradient, ls.a[i], -residuals[i]);
+                }
+                hasGradient = true;
+            }
+        }
+
+        public double getValue() {
+            forward();
+            if (intent == EvaluationIntent.VALUE_AND_GRADIENT) {
+                backward();
+            }
+            double value = 0.0;
+            for (double r : residuals) {
+                value -= 0.5 * r * r;
+            }
+            return value;
+        }
+
+        public void getValueGradient(double[] buffer) {
+            gradientRequested = true;
+            backward();
+            System.arraycopy(gradient, 0, buffer, 0, gradient.length);
+        }
+
+        public int getNumParameters() {
+            return ls.getNumParameters();
+        }
+
+        public void getParameters(double[] buffer) {
+            ls.getParameters(buffer);
+        }
+
+        public double getParameter(int index) {
+            return ls.getParameter(index);
+        }
+
+        private void invalidate() {
+            if (hasGradient && !gradientRequested) {
+                ++wastedGradients;
+            }
+            hasResiduals = hasGradient = gradientRequested = false;
+        }
+
+        public void setParameters(double[] params) {
+            invalidate();
+            ls.setParameters(params);
+        }
+
+        public void setParameter(int index, double value) {
+            invalidate();
+            ls.setParameter(index, value);
+        }
+    }
+
+    public void testEvaluationIntent() {
+        LeastSquares ls = new LeastSquares(100, 10, 19);
+        LazyLeastSquares lazy = new LazyLeastSquares(ls);
+        LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(lazy);
+        try {
+            bfgs.optimize();
+            fail("the line search did not give up at the maximum");
+        } catch (OptimizationException e) {
+            // the backtracking gives up this close to the maximum
+            assertTrue(e.getMessage(),
+                    e.getMessage().startsWith("Line search"));
+        }
+        ls.assertOptimum(1e-3);
+        assertTrue(lazy.valueIntents > 0);
+        // no gradient was computed for a value-only trial point
+        assertEquals(0, lazy.wastedGradients);
+
+        LeastSquares ls2 = new LeastSquares(100, 10, 19);
+        LazyLeastSquares lazy2 = new LazyLeastSquares(ls2);
+        new OrthantWiseLimitedMemoryBFGS(new CachingOptimizable(lazy2))
+                .optimize();
+        ls2.assertOptimum(1e-3);
+        assertTrue(lazy2.valueIntents > 0);
+        assertEquals(0, lazy2.wastedGradients);
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestEvaluationIntent.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
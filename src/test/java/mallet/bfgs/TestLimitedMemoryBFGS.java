@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link LimitedMemoryBFGS}.
+ */
+public class TestLimitedMemoryBFGS extends TestCase {
+
+    public TestLimitedMemoryBFGS(String name) {
+        super(name);
+    }
+
+    public void testLBFGSLargeHistory() {
+        IllConditionedQuadratic quad = new IllConditionedQuadratic(50);
+        LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(quad, 20);
+        try {
+            bfgs.optimize();
+            fail("the line search did not give up at the maximum");
+        } catch (OptimizationException e) {
+            // the backtracking gives up this close to the maximum
+            assertTrue(e.getMessage(),
+                    e.getMessage().startsWith("Line search"));
+        }
+        assertEquals(20, bfgs.getHistorySize());
+        quad.assertOptimum(1e-2);
+    }
+
+    public void testLBFGSAllocatesNoVectorsPerIteration() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory
+                .getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return; // not a HotSpot JVM
+        }
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()
+                || !threads.isThreadAllocatedMemoryEnabled()) {
+            return;
+        }
+        int n = 10000;
+        IllConditionedQuadratic quad = new IllConditionedQuadratic(n);
+        LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(quad, 4);
+        // fills the history and the workspace
+        assertFalse(bfgs.optimize(8));
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        assertFalse(bfgs.optimize(8));
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertTrue("allocated " + allocated + " bytes", allocated < 8L * n);
+    }
+
+    public void testVectorFreeLBFGS() {
+        IllConditionedQuadratic quad = new IllConditionedQuadratic(50);
+        IllConditionedQuadratic vfQuad = new IllConditionedQuadratic(50);
+        LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(quad, 5);
+        LimitedMemoryBFGS vfBfgs = new LimitedMemoryBFGS(vfQuad, 5);
+        vfBfgs.setVectorFree(true);
+        // both recursions must produce the same iterates
+        bfgs.optimize(20);
+        vfBfgs.optimize(20);
+        for (int i = 0; i < quad.params.length; i++) {
+            assertEquals(quad.params[i], vfQuad.params[i], 1e-8);
+        }
+        try {
+            vfBfgs.optimize();
+            fail("the line search did not give up at the maximum");
+        } catch (OptimizationException e) {
+            // the backtracking gives up this close to the maximum
+            assertTrue(e.getMessage(),
+                    e.getMessage().startsWith("Line search"));
+        }
+        vfQuad.assertOptimum(1e-2);
+    }
+
+    public void testSinglePrecisionHistory() throws Exception {
+        IllConditionedQuadratic quad = new IllConditionedQuadratic(50);
+        IllConditionedQuadratic vfQuad = new IllConditionedQuadratic(50);
+        LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(quad, 5);
+        LimitedMemoryBFGS vfBfgs = new LimitedMemoryBFGS(vfQuad, 5);
+        bfgs.setSinglePrecisionHistory(true);
+        vfBfgs.setSinglePrecisionHistory(true);
+        vfBfgs.setVectorFree(true);
+        // both recursions read the same rounded history
+        bfgs.optimize(20);
+        vfBfgs.optimize(20);
+        for (int i = 0; i < quad.params.length; i++) {
+            assertEquals(quad.params[i], vfQuad.params[i], 1e-6);
+        }
+        // the rounded history survives a checkpoint unchanged
+        File file = File.createTempFile("lbfgs", ".ckpt");
+        file.deleteOnExit();
+        OptimizerCheckpoint checkpoint = new OptimizerCheckpoint(file);
+        try {
+            bfgs.writeCheckpoint(checkpoint);
+            bfgs.optimize(5);
+            IllConditionedQuadratic quad2 = new IllConditionedQuadratic(50);
+            LimitedMemoryBFGS bfgs2 = new LimitedMemoryBFGS(quad2, 5);
+            bfgs2.setSinglePrecisionHistory(true);
+            assertTrue(bfgs2.restoreCheckpoint(checkpoint));
+            bfgs2.optimize(5);
+            assertTrue(Arrays.equals(quad.params, quad2.params));
+        } finally {
+            checkpoint.close();
+        }
+        try {
+            bfgs.optimize();
+            fail("the line search did not give up at the maximum");
+        } catch (OptimizationException e) {
+            // the backtracking gives up this close to the maximum
+            assertTrue(e.getMessage(),
+                    e.getMessage().startsWith("Line search"));
+        }
+        quad.assertOptimum(1e-2);
+
+        quad = new IllConditionedQuadratic(50);
+        OrthantWiseLimitedMemoryBFGS owl = new OrthantWiseLimitedMemoryBFGS(
+                quad);
+        owl.setSinglePrecisionHistory(true);
+        assertTrue(owl.isSinglePrecisionHistory());
+        assertTrue(owl.optimize());
+        quad.assertOptimum(1e-2);
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestLimitedMemoryBFGS.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
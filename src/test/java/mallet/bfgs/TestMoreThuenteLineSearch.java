@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link MoreThuenteLineSearch}.
+ */
+public class TestMoreThuenteLineSearch extends TestCase {
+
+    public TestMoreThuenteLineSearch(String name) {
+        super(name);
+    }
+
+    public void testMoreThuenteLineSearch() {
+        IllConditionedQuadratic quad = new IllConditionedQuadratic(10);
+        double[] g = new double[10];
+        quad.getValueGradient(g);
+        double value = quad.getValue();
+        double slope = MatrixOps.dotProduct(g, g);
+        MoreThuenteLineSearch search = new MoreThuenteLineSearch(quad);
+        // far too long initial step, has to be reduced
+        double step = search.optimize(g, 1.0);
+        assertTrue(step > 0.0 && step < 1.0);
+        double[] g2 = new double[10];
+        quad.getValueGradient(g2);
+        // strong Wolfe conditions
+        assertTrue(quad.getValue() >= value + 1e-4 * step * slope);
+        assertTrue(Math.abs(MatrixOps.dotProduct(g2, g)) <= 0.9 * slope);
+    }
+
+    public void testMoreThuenteLBFGS() {
+        IllConditionedQuadratic quad = new IllConditionedQuadratic(50);
+        LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(quad);
+        bfgs.setLineOptimizer(new MoreThuenteLineSearch(quad));
+        OptimizerStatistics statistics = new OptimizerStatistics();
+        bfgs.setMetrics(statistics);
+        assertTrue(bfgs.optimize());
+        quad.assertOptimum(1e-2);
+        // the start point and the trial steps, each evaluated once
+        assertEquals(1 + statistics.getLineSearchTrials(),
+                statistics.getGradientEvaluations());
+    }
+
+    public void testMoreThuenteConjugateGradient() {
+        TestOptimizer.SimplePoly poly = new TestOptimizer.SimplePoly();
+        ConjugateGradient cg = new ConjugateGradient(poly);
+        MoreThuenteLineSearch search = new MoreThuenteLineSearch(poly);
+        search.setGtol(0.1);
+        cg.setLineOptimizer(search);
+        assertSame(search, cg.getLineOptimizer());
+        cg.optimize();
+        assertEquals(5.0 / 6.0, poly.params[0], 1e-3);
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestMoreThuenteLineSearch.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
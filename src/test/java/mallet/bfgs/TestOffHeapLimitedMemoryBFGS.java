@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link OffHeapLimitedMemoryBFGS} and {@link OffHeapVector}.
+ */
+public class TestOffHeapLimitedMemoryBFGS extends TestCase {
+
+    public TestOffHeapLimitedMemoryBFGS(String name) {
+        super(name);
+    }
+
+    // IllConditionedQuadratic behind the long-indexed interface
+    static class OffHeapQuadratic implements
+            OffHeapOptimizable.ByGradientValue {
+
+        final IllConditionedQuadratic quad;
+        final double[] buffer;
+
+        OffHeapQuadratic(int n) {
+            quad = new IllConditionedQuadratic(n);
+            buffer = new double[n];
+        }
+
+        public long getNumParameters() {
+            return quad.getNumParameters();
+        }
+
+        public void getParameters(OffHeapVector buffer) {
+            buffer.copyFrom(quad.params, 0);
+        }
+
+        public void setParameters(OffHeapVector params) {
+            params.copyTo(0, quad.params);
+        }
+
+        public double getValue() {
+            return quad.getValue();
+        }
+
+        public void getValueGradient(OffHeapVector gradient) {
+            quad.getValueGradient(buffer);
+            gradient.copyFrom(buffer, 0);
+        }
+    }
+
+    public void testOffHeapVector() {
+        // segments of 64 elements, the last one partial
+        OffHeapVector a = new OffHeapVector(1000, 6);
+        OffHeapVector b = a.like();
+        assertEquals(16, a.getSegmentCount());
+        double[] c = new double[1000];
+        double[] d = new double[1000];
+        Random r = new Random(42);
+        for (int i = 0; i < c.length; i++) {
+            c[i] = r.nextGaussian();
+            d[i] = r.nextGaussian();
+        }
+        a.copyFrom(c, 0);
+        b.copyFrom(d, 0);
+        assertEquals(MatrixOps.dotProduct(c, d), a.dotProduct(b), 1e-10);
+        assertEquals(MatrixOps.infinityNorm(c), a.infinityNorm(), 0.0);
+        a.plusEquals(b, 0.5);
+        MatrixOps.plusEquals(c, d, 0.5);
+        assertEquals(c[999], a.get(999), 0.0);
+        assertEquals(c[64], a.get(64), 0.0);
+    }
+
+    public void testOffHeapLBFGS() {
+        OffHeapQuadratic quad = new OffHeapQuadratic(1000);
+        OffHeapLimitedMemoryBFGS bfgs = new OffHeapLimitedMemoryBFGS(quad, 5,
+                6);
+        try {
+            bfgs.optimize();
+            fail("the line search did not give up at the maximum");
+        } catch (OptimizationException e) {
+            // the backtracking gives up this close to the maximum
+            assertTrue(e.getMessage(),
+                    e.getMessage().startsWith("Line search"));
+        }
+        assertTrue(bfgs.getIteration() > 0);
+        quad.quad.assertOptimum(1e-2);
+    }
+
+    // maximizes cos(x), which is convex around pi
+    static class OffHeapCosine implements OffHeapOptimizable.ByGradientValue {
+
+        double x;
+
+        OffHeapCosine(double x) {
+            this.x = x;
+        }
+
+        public long getNumParameters() {
+            return 1;
+        }
+
+        public void getParameters(OffHeapVector buffer) {
+            buffer.set(0, x);
+        }
+
+        public void setParameters(OffHeapVector params) {
+            x = params.get(0);
+        }
+
+        public double getValue() {
+            return Math.cos(x);
+        }
+
+        public void getValueGradient(OffHeapVector gradient) {
+            gradient.set(0, -Math.sin(x));
+        }
+    }
+
+    public void testOffHeapLBFGSResetsAfterPositiveCurvature() {
+        // the first step, from 3 to 2, has s'y > 0
+        OffHeapCosine cos = new OffHeapCosine(3.0);
+        OffHeapLimitedMemoryBFGS bfgs = new OffHeapLimitedMemoryBFGS(cos);
+        try {
+            bfgs.optimize();
+            fail("s'y > 0 was not reported");
+        } catch (InvalidOptimizableException expected) {
+        }
+        assertEquals(2.0, cos.x, 1e-12);
+        // the next call starts a new search from there
+        assertTrue(bfgs.optimize());
+        assertEquals(0.0, cos.x, 1e-2);
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestOffHeapLimitedMemoryBFGS.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link OnlineLimitedMemoryBFGS}.
+ */
+public class TestOnlineLimitedMemoryBFGS extends TestCase {
+
+    public TestOnlineLimitedMemoryBFGS(String name) {
+        super(name);
+    }
+
+    public void testOnlineLBFGS() {
+        LeastSquares ls = new LeastSquares(400, 10, 11);
+        int[] batches = new int[400];
+        for (int i = 0; i < batches.length; i++) {
+            batches[i] = i % 10;
+        }
+        OnlineLimitedMemoryBFGS olbfgs = new OnlineLimitedMemoryBFGS(
+                new BatchLeastSquares(ls), 5);
+        olbfgs.setInitialStep(0.5);
+        OptimizerStatistics stats = new OptimizerStatistics();
+        olbfgs.setMetrics(stats);
+        olbfgs.setTolerance(1e-10);
+        olbfgs.optimize(30, 10, batches);
+        ls.assertOptimum(1e-3);
+        assertEquals(olbfgs.getIteration(), stats.getIterations());
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestOnlineLimitedMemoryBFGS.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link OptimizableCollection}.
+ */
+public class TestOptimizableCollection extends TestCase {
+
+    public TestOptimizableCollection(String name) {
+        super(name);
+    }
+
+    private static double distance(double[] a, double[] b) {
+        double[] d = a.clone();
+        MatrixOps.plusEquals(d, b, -1.0);
+        return MatrixOps.infinityNorm(d);
+    }
+
+    public void testParallelOptimizableCollection() {
+        IllConditionedQuadratic quad = new IllConditionedQuadratic(10);
+        quad.setParameters(new double[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+        OptimizableCollection.ByGradientValue sum = new OptimizableCollection().new ByGradientValue(
+                quad, quad, quad, quad, quad);
+        double[] expected = new double[10];
+        quad.getValueGradient(expected);
+        MatrixOps.timesEquals(expected, 5.0);
+        double value = 5.0 * quad.getValue();
+
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int k = 0; k < 2; k++) {
+                sum.setPool(k == 0 ? null : pool);
+                // the result must not depend on the buffer contents
+                double[] gradient = new double[10];
+                Arrays.fill(gradient, 42.0);
+                sum.getValueGradient(gradient);
+                assertEquals(0.0, distance(expected, gradient), 1e-9);
+                assertEquals(value, sum.getValue(), 1e-9);
+                Arrays.fill(gradient, 42.0);
+                assertEquals(value, sum.getValueAndGradient(gradient), 1e-9);
+                assertEquals(0.0, distance(expected, gradient), 1e-9);
+            }
+            LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(sum);
+            try {
+                bfgs.optimize();
+                fail("the line search did not give up at the maximum");
+            } catch (OptimizationException e) {
+                // the backtracking gives up this close to the maximum
+                assertTrue(e.getMessage(),
+                        e.getMessage().startsWith("Line search"));
+            }
+            quad.assertOptimum(1e-2);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testSingleMemberOptimizableCollection() {
+        IllConditionedQuadratic quad = new IllConditionedQuadratic(10);
+        quad.setParameters(new double[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+        OptimizableCollection.ByGradientValue single = new OptimizableCollection().new ByGradientValue(
+                quad);
+        double[] expected = new double[10];
+        quad.getValueGradient(expected);
+        double[] gradient = new double[10];
+        single.getValueGradient(gradient);
+        assertEquals(0.0, distance(expected, gradient), 0.0);
+        assertEquals(quad.getValue(), single.getValueAndGradient(gradient),
+                0.0);
+        assertEquals(0.0, distance(expected, gradient), 0.0);
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestOptimizableCollection.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link OptimizerCheckpoint}.
+ */
+public class TestOptimizerCheckpoint extends TestCase {
+
+    public TestOptimizerCheckpoint(String name) {
+        super(name);
+    }
+
+    public void testCheckpoint() throws Exception {
+        File file = File.createTempFile("lbfgs", ".ckpt");
+        file.deleteOnExit();
+        OptimizerCheckpoint checkpoint = new OptimizerCheckpoint(file);
+        try {
+            assertFalse(checkpoint.isComplete());
+            IllConditionedQuadratic quad = new IllConditionedQuadratic(50);
+            LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(quad, 3);
+            assertFalse(bfgs.restoreCheckpoint(checkpoint));
+            // one checkpoint per iteration, the history wraps around
+            for (int i = 0; i < 8; i++) {
+                bfgs.optimize(1);
+                bfgs.writeCheckpoint(checkpoint);
+            }
+            assertEquals(8L, checkpoint.getSequence());
+            bfgs.optimize(5);
+
+            IllConditionedQuadratic quad2 = new IllConditionedQuadratic(50);
+            LimitedMemoryBFGS bfgs2 = new LimitedMemoryBFGS(quad2, 3);
+            OptimizerCheckpoint reopened = new OptimizerCheckpoint(file);
+            assertTrue(bfgs2.restoreCheckpoint(reopened));
+            reopened.close();
+            assertEquals(8, bfgs2.getIteration());
+            bfgs2.optimize(5);
+            assertTrue(Arrays.equals(quad.params, quad2.params));
+
+            IllConditionedQuadratic quad3 = new IllConditionedQuadratic(50);
+            OrthantWiseLimitedMemoryBFGS owl = new OrthantWiseLimitedMemoryBFGS(
+                    quad3, 0.5, 3);
+            owl.optimize(6);
+            owl.writeCheckpoint(checkpoint);
+            owl.optimize(3);
+            IllConditionedQuadratic quad4 = new IllConditionedQuadratic(50);
+            OrthantWiseLimitedMemoryBFGS owl2 = new OrthantWiseLimitedMemoryBFGS(
+                    quad4, 0.5, 3);
+            assertTrue(owl2.restoreCheckpoint(checkpoint));
+            owl2.optimize(3);
+            assertTrue(Arrays.equals(quad3.params, quad4.params));
+            // an OWL-QN checkpoint can't be restored into L-BFGS
+            try {
+                bfgs2.restoreCheckpoint(checkpoint);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        } finally {
+            checkpoint.close();
+        }
+    }
+
+    public void testCheckpointFallsBackToOlderArea() throws Exception {
+        File file = File.createTempFile("lbfgs", ".ckpt");
+        file.deleteOnExit();
+        IllConditionedQuadratic quad = new IllConditionedQuadratic(20);
+        LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(quad, 3);
+        OptimizerCheckpoint checkpoint = new OptimizerCheckpoint(file);
+        bfgs.optimize(2);
+        bfgs.writeCheckpoint(checkpoint);
+        int olderIteration = bfgs.getIteration();
+        double[] older = quad.params.clone();
+        bfgs.optimize(2);
+        bfgs.writeCheckpoint(checkpoint);
+        assertEquals(2L, checkpoint.getSequence());
+        checkpoint.close();
+
+        // a torn write of the newer area, the second half of the file
+        flipLastLong(file, file.length());
+        checkpoint = new OptimizerCheckpoint(file);
+        try {
+            assertEquals(1L, checkpoint.getSequence());
+            IllConditionedQuadratic quad2 = new IllConditionedQuadratic(20);
+            LimitedMemoryBFGS bfgs2 = new LimitedMemoryBFGS(quad2, 3);
+            assertTrue(bfgs2.restoreCheckpoint(checkpoint));
+            assertEquals(olderIteration, bfgs2.getIteration());
+            assertTrue(Arrays.equals(older, quad2.params));
+        } finally {
+            checkpoint.close();
+        }
+
+        // and of the older one
+        flipLastLong(file, file.length() / 2);
+        checkpoint = new OptimizerCheckpoint(file);
+        try {
+            assertFalse(checkpoint.isComplete());
+            LimitedMemoryBFGS bfgs3 = new LimitedMemoryBFGS(
+                    new IllConditionedQuadratic(20), 3);
+            assertFalse(bfgs3.restoreCheckpoint(checkpoint));
+        } finally {
+            checkpoint.close();
+        }
+    }
+
+    // inverts the bits of the 8 bytes before end
+    private static void flipLastLong(File file, long end) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(end - 8);
+            long bits = raf.readLong();
+            raf.seek(end - 8);
+            raf.writeLong(~bits);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public void testCheckpointL1Weight() throws Exception {
+        File file = File.createTempFile("owlqn", ".ckpt");
+        file.deleteOnExit();
+        OptimizerCheckpoint checkpoint = new OptimizerCheckpoint(file);
+        try {
+            IllConditionedQuadratic quad = new IllConditionedQuadratic(20);
+            OrthantWiseLimitedMemoryBFGS owl = new OrthantWiseLimitedMemoryBFGS(
+                    quad, 0.5, 3);
+            owl.optimize(3);
+            owl.writeCheckpoint(checkpoint);
+            IllConditionedQuadratic quad2 = new IllConditionedQuadratic(20);
+            double[] start = quad2.params.clone();
+            OrthantWiseLimitedMemoryBFGS owl2 = new OrthantWiseLimitedMemoryBFGS(
+                    quad2, 1.0, 3);
+            try {
+                owl2.restoreCheckpoint(checkpoint);
+                fail("restored a checkpoint with a different L1 weight");
+            } catch (IllegalArgumentException expected) {
+            }
+            // nothing was restored
+            assertEquals(0, owl2.getIteration());
+            assertTrue(Arrays.equals(start, quad2.params));
+        } finally {
+            checkpoint.close();
+        }
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestOptimizerCheckpoint.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link OptimizerStatistics}.
+ */
+public class TestOptimizerStatistics extends TestCase {
+
+    public TestOptimizerStatistics(String name) {
+        super(name);
+    }
+
+    public void testOptimizerStatistics() {
+        IllConditionedQuadratic quad = new IllConditionedQuadratic(50);
+        LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(quad, 5);
+        OptimizerStatistics stats = new OptimizerStatistics();
+        bfgs.setMetrics(stats);
+        try {
+            bfgs.optimize();
+            fail("the line search did not give up at the maximum");
+        } catch (OptimizationException e) {
+            // the backtracking gives up this close to the maximum
+            assertTrue(e.getMessage(),
+                    e.getMessage().startsWith("Line search"));
+        }
+        quad.assertOptimum(1e-2);
+        assertTrue(stats.getIterations() > 0);
+        assertTrue(stats.getValueEvaluations() > stats.getIterations());
+        assertTrue(stats.getGradientEvaluations() > stats.getIterations());
+        assertTrue(stats.getLineSearches() >= stats.getIterations());
+        assertTrue(stats.getTrialsPerLineSearch() >= 1.0);
+        assertTrue(stats.getHistorySize() >= 1 && stats.getHistorySize() <= 5);
+        assertEquals(quad.getValue(), stats.getValue(), 1e-6);
+
+        stats.reset();
+        assertEquals(0, stats.getIterations());
+        assertEquals(0L, stats.getValueEvaluations());
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestOptimizerStatistics.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
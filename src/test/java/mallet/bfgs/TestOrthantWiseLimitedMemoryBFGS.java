@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link OrthantWiseLimitedMemoryBFGS}.
+ */
+public class TestOrthantWiseLimitedMemoryBFGS extends TestCase {
+
+    public TestOrthantWiseLimitedMemoryBFGS(String name) {
+        super(name);
+    }
+
+    // maximizes -1/2 sum_i (a_i'x - b_i)^2 where each a_i has 5 non-zero
+    // components among the first 400 of n features
+    static class SparseRowsLeastSquares implements Optimizable.ByGradientValue {
+
+        static final int FEATURES = 400;
+
+        final double[] params;
+        final int[][] columns;
+        final double[][] a;
+        final double[] b;
+        final double[] residuals;
+
+        SparseRowsLeastSquares(int numExamples, int n, long seed) {
+            Random rnd = new Random(seed);
+            params = new double[n];
+            columns = new int[numExamples][5];
+            a = new double[numExamples][5];
+            b = new double[numExamples];
+            residuals = new double[numExamples];
+            for (int i = 0; i < numExamples; i++) {
+                for (int k = 0; k < 5; k++) {
+                    columns[i][k] = (i * 5 + k) % FEATURES;
+                    a[i][k] = rnd.nextGaussian();
+                }
+                b[i] = rnd.nextGaussian();
+            }
+        }
+
+        double evaluate() {
+            double value = 0.0;
+            for (int i = 0; i < b.length; i++) {
+                double r = -b[i];
+                for (int k = 0; k < 5; k++) {
+                    r += a[i][k] * params[columns[i][k]];
+                }
+                residuals[i] = r;
+                value -= 0.5 * r * r;
+            }
+            return value;
+        }
+
+        public double getValue() {
+            return evaluate();
+        }
+
+        public void getValueGradient(double[] buffer) {
+            evaluate();
+            MatrixOps.setAll(buffer, 0);
+            for (int i = 0; i < b.length; i++) {
+                for (int k = 0; k < 5; k++) {
+                    buffer[columns[i][k]] -= residuals[i] * a[i][k];
+                }
+            }
+        }
+
+        public int getNumParameters() {
+            return params.length;
+        }
+
+        public void getParameters(double[] buffer) {
+            System.arraycopy(params, 0, buffer, 0, params.length);
+        }
+
+        public double getParameter(int index) {
+            return params[index];
+        }
+
+        public void setParameters(double[] buffer) {
+            System.arraycopy(buffer, 0, params, 0, params.length);
+        }
+
+        public void setParameter(int index, double value) {
+            params[index] = value;
+        }
+    }
+
+    static class SparseGradientLeastSquares extends SparseRowsLeastSquares
+            implements Optimizable.BySparseGradient {
+
+        final double[] gradient;
+
+        SparseGradientLeastSquares(int numExamples, int n, long seed) {
+            super(numExamples, n, seed);
+            gradient = new double[FEATURES];
+        }
+
+        public int getSparseValueGradient(int[] indices, double[] values) {
+            evaluate();
+            Arrays.fill(gradient, 0.0);
+            for (int i = 0; i < b.length; i++) {
+                for (int k = 0; k < 5; k++) {
+                    gradient[columns[i][k]] -= residuals[i] * a[i][k];
+                }
+            }
+            int count = 0;
+            for (int j = 0; j < FEATURES; j++) {
+                if (gradient[j] != 0) {
+                    indices[count] = j;
+                    values[count++] = gradient[j];
+                }
+            }
+            return count;
+        }
+
+        public void setParameters(int[] indices, double[] values, int count) {
+            for (int k = 0; k < count; k++) {
+                params[indices[k]] = values[k];
+            }
+        }
+    }
+
+    public void testOrthantWiseLBFGSLargeHistory() {
+        IllConditionedQuadratic quad = new IllConditionedQuadratic(50);
+        OrthantWiseLimitedMemoryBFGS bfgs = new OrthantWiseLimitedMemoryBFGS(
+                quad, 0.0, 20);
+        assertTrue(bfgs.optimize());
+        assertEquals(20, bfgs.getHistorySize());
+        quad.assertOptimum(1e-2);
+    }
+
+    public void testSparseOrthantWiseLBFGS() {
+        SparseRowsLeastSquares dense = new SparseRowsLeastSquares(200, 2000, 7);
+        SparseGradientLeastSquares sparse = new SparseGradientLeastSquares(200,
+                2000, 7);
+        OrthantWiseLimitedMemoryBFGS denseOwl = new OrthantWiseLimitedMemoryBFGS(
+                dense, 0.1, 5);
+        OrthantWiseLimitedMemoryBFGS sparseOwl = new OrthantWiseLimitedMemoryBFGS(
+                sparse, 0.1, 5);
+        assertFalse(denseOwl.isSparse());
+        assertTrue(sparseOwl.isSparse());
+        denseOwl.optimize(300);
+        sparseOwl.optimize(300);
+        assertEquals(denseOwl.getIteration(), sparseOwl.getIteration());
+        int zeros = 0;
+        for (int j = 0; j < dense.params.length; j++) {
+            assertEquals(dense.params[j], sparse.params[j], 1e-8);
+            if (sparse.params[j] == 0 && j < SparseRowsLeastSquares.FEATURES) {
+                zeros++;
+            }
+        }
+        for (int j = SparseRowsLeastSquares.FEATURES; j < 2000; j++) {
+            assertEquals(0.0, sparse.params[j]);
+        }
+        // the L1 penalty has pruned some of the used features
+        assertTrue(zeros > 0);
+    }
+
+    public void testVectorFreeOrthantWiseLBFGS() {
+        SparseRowsLeastSquares ls = new SparseRowsLeastSquares(200, 2000, 7);
+        SparseRowsLeastSquares vfLs = new SparseRowsLeastSquares(200, 2000, 7);
+        OrthantWiseLimitedMemoryBFGS owl = new OrthantWiseLimitedMemoryBFGS(
+                ls, 0.1, 5);
+        OrthantWiseLimitedMemoryBFGS vfOwl = new OrthantWiseLimitedMemoryBFGS(
+                vfLs, 0.1, 5);
+        vfOwl.setVectorFree(true);
+        assertTrue(vfOwl.isVectorFree());
+        // both recursions must produce the same iterates
+        owl.optimize(300);
+        vfOwl.optimize(300);
+        assertEquals(owl.getIteration(), vfOwl.getIteration());
+        for (int j = 0; j < ls.params.length; j++) {
+            assertEquals(ls.params[j], vfLs.params[j], 1e-8);
+        }
+        // the tiles shrink when many fresh pairs share the cache
+        assertTrue(VectorFreeTwoLoop.tile(3 + 2 * 50) < VectorFreeTwoLoop
+                .tile(3 + 2));
+        try {
+            new OrthantWiseLimitedMemoryBFGS(new SparseGradientLeastSquares(
+                    200, 2000, 7), 0.1, 5).setVectorFree(true);
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestOrthantWiseLimitedMemoryBFGS.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link ParallelBackTrackLineSearch}.
+ */
+public class TestParallelBackTrackLineSearch extends TestCase {
+
+    public TestParallelBackTrackLineSearch(String name) {
+        super(name);
+    }
+
+    static class ForkableQuadratic extends IllConditionedQuadratic implements
+            Optimizable.Forkable {
+
+        int forks;
+
+        ForkableQuadratic(int n) {
+            super(n);
+        }
+
+        public Optimizable.ByGradientValue fork() {
+            ++forks;
+            return new IllConditionedQuadratic(params.length);
+        }
+    }
+
+    public void testParallelBackTrackLineSearch() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // f(x) = -1/2 (x - 1)^2 along d = 3 from x = 0: the steps 1.0 and
+            // 0.5 are evaluated in the same round, 0.5 is accepted
+            ForkableQuadratic line = new ForkableQuadratic(1);
+            ParallelBackTrackLineSearch search = new ParallelBackTrackLineSearch(
+                    line, pool, 4);
+            assertEquals(0.5, search.optimize(new double[] { 3.0 }, 1.0));
+            assertEquals(1.5, line.params[0]);
+            assertEquals(3, line.forks);
+
+            ForkableQuadratic quad = new ForkableQuadratic(50);
+            LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(quad);
+            bfgs.setLineOptimizer(new ParallelBackTrackLineSearch(quad, pool));
+            try {
+                bfgs.optimize();
+                fail("the line search did not give up at the maximum");
+            } catch (OptimizationException e) {
+                // the backtracking gives up this close to the maximum
+                assertTrue(e.getMessage(),
+                        e.getMessage().startsWith("Line search"));
+            }
+            quad.assertOptimum(1e-2);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestParallelBackTrackLineSearch.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link ParallelVectorKernels}.
+ */
+public class TestParallelVectorKernels extends TestCase {
+
+    public TestParallelVectorKernels(String name) {
+        super(name);
+    }
+
+    public void testParallelVectorKernels() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            VectorKernels kernels = new ParallelVectorKernels(pool, 0, 64);
+            Random r = new Random(42);
+            double[] a = new double[1001];
+            double[] b = new double[a.length];
+            for (int i = 0; i < a.length; i++) {
+                a[i] = r.nextGaussian();
+                b[i] = r.nextGaussian();
+            }
+            assertEquals(MatrixOps.dotProduct(a, b),
+                    kernels.dotProduct(a, b), 1e-10);
+            assertEquals(MatrixOps.twoNorm(a), kernels.twoNorm(a), 1e-10);
+            assertEquals(MatrixOps.absNorm(a), kernels.absNorm(a), 1e-10);
+            assertEquals(MatrixOps.infinityNorm(a), kernels.infinityNorm(a),
+                    0.0);
+            double[] c = a.clone();
+            MatrixOps.plusEquals(c, b, 0.5);
+            kernels.plusEquals(a, b, 0.5);
+            MatrixOps.timesEquals(c, 3.0);
+            kernels.timesEquals(a, 3.0);
+            for (int i = 0; i < a.length; i++) {
+                assertEquals(c[i], a[i], 0.0);
+            }
+
+            IllConditionedQuadratic quad = new IllConditionedQuadratic(500);
+            LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(quad, 10);
+            bfgs.setVectorKernels(kernels);
+            try {
+                bfgs.optimize();
+                fail("the line search did not give up at the maximum");
+            } catch (OptimizationException e) {
+                // the backtracking gives up this close to the maximum
+                assertTrue(e.getMessage(),
+                        e.getMessage().startsWith("Line search"));
+            }
+            quad.assertOptimum(1e-2);
+
+            // only a pool created by the kernels is shut down on close
+            ((ParallelVectorKernels) kernels).close();
+            assertFalse(pool.isShutdown());
+            ParallelVectorKernels owning = new ParallelVectorKernels();
+            owning.close();
+            assertTrue(owning.getPool().isShutdown());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestParallelVectorKernels.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
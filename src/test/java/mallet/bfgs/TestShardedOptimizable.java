@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link ShardedOptimizable}.
+ */
+public class TestShardedOptimizable extends TestCase {
+
+    public TestShardedOptimizable(String name) {
+        super(name);
+    }
+
+    public void testShardedOptimizable() {
+        LeastSquares ls = new LeastSquares(1000, 8, 7);
+        ls.setParameters(new double[] { 1, 0, 1, 0, 1, 0, 1, 0 });
+        double[] expected = new double[8];
+        double value = ls.addExampleValueGradient(0, 1000, expected);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ShardedOptimizable sharded = new ShardedOptimizable(ls, pool, 7);
+            double[] gradient = new double[8];
+            assertEquals(value, sharded.getValueAndGradient(gradient), 1e-8);
+            for (int j = 0; j < 8; j++) {
+                assertEquals(expected[j], gradient[j], 1e-8);
+            }
+
+            LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(sharded);
+            try {
+                bfgs.optimize();
+                fail("the line search did not give up at the maximum");
+            } catch (OptimizationException e) {
+                // the backtracking gives up this close to the maximum
+                assertTrue(e.getMessage(),
+                        e.getMessage().startsWith("Line search"));
+            }
+            ls.assertOptimum(1e-3);
+
+            ls.setParameters(new double[8]);
+            sharded = new ShardedOptimizable(ls, pool);
+            assertTrue(new OrthantWiseLimitedMemoryBFGS(sharded).optimize());
+            ls.assertOptimum(1e-3);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestShardedOptimizable.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link StochasticMetaAscent}.
+ */
+public class TestStochasticMetaAscent extends TestCase {
+
+    public TestStochasticMetaAscent(String name) {
+        super(name);
+    }
+
+    static class HessianBatchLeastSquares extends BatchLeastSquares implements
+            Optimizable.ByBatchHessianVectorProduct {
+
+        int products;
+
+        HessianBatchLeastSquares(LeastSquares ls) {
+            super(ls);
+        }
+
+        public void getBatchHessianVectorProduct(double[] vector,
+                double[] buffer, int batchIndex, int[] batchAssignments) {
+            ++products;
+            MatrixOps.setAll(buffer, 0);
+            for (int i = 0; i < batchAssignments.length; i++) {
+                if (batchAssignments[i] == batchIndex) {
+                    MatrixOps.plusEquals(buffer, ls.a[i],
+                            -MatrixOps.dotProduct(ls.a[i], vector));
+                }
+            }
+        }
+    }
+
+    public void testStochasticMetaAscentHessianVectorProduct() {
+        int[] batches = new int[200];
+        for (int i = 0; i < batches.length; i++) {
+            batches[i] = i % 4;
+        }
+        LeastSquares ls = new LeastSquares(200, 5, 13);
+        LeastSquares ls2 = new LeastSquares(200, 5, 13);
+        HessianBatchLeastSquares analytic = new HessianBatchLeastSquares(ls);
+        StochasticMetaAscent sma = new StochasticMetaAscent(analytic);
+        sma.setInitialStep(0.001);
+        sma.setMu(1e-4);
+        StochasticMetaAscent sma2 = new StochasticMetaAscent(
+                new BatchLeastSquares(ls2));
+        sma2.setInitialStep(0.001);
+        sma2.setMu(1e-4);
+        double before = ls.addExampleValueGradient(0, 200, new double[5]);
+        sma.optimize(10, 4, batches);
+        sma2.optimize(10, 4, batches);
+        assertTrue(analytic.products > 0);
+        // the finite difference is exact up to rounding for a quadratic
+        for (int j = 0; j < ls.params.length; j++) {
+            assertEquals(ls2.params[j], ls.params[j], 1e-4);
+        }
+        assertTrue(ls.addExampleValueGradient(0, 200, new double[5]) > before);
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestStochasticMetaAscent.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link TruncatedNewton}.
+ */
+public class TestTruncatedNewton extends TestCase {
+
+    public TestTruncatedNewton(String name) {
+        super(name);
+    }
+
+    static class HessianQuadratic extends IllConditionedQuadratic implements
+            Optimizable.ByHessianVectorProduct {
+
+        HessianQuadratic(int n) {
+            super(n);
+        }
+
+        public void getHessianVectorProduct(double[] vector, double[] buffer) {
+            for (int i = 0; i < params.length; i++) {
+                buffer[i] = -curvature[i] * vector[i];
+            }
+        }
+    }
+
+    public void testTruncatedNewton() {
+        HessianQuadratic quad = new HessianQuadratic(100);
+        TruncatedNewton newton = new TruncatedNewton(quad);
+        newton.setTolerance(1e-12);
+        assertTrue(newton.optimize());
+        quad.assertOptimum(1e-3);
+        assertTrue(newton.getIteration() < 20);
+
+        // finite difference Hessian-vector products
+        IllConditionedQuadratic quad2 = new IllConditionedQuadratic(100);
+        TruncatedNewton newton2 = new TruncatedNewton(quad2);
+        newton2.setTolerance(1e-12);
+        assertTrue(newton2.optimize());
+        quad2.assertOptimum(1e-3);
+        assertTrue(newton2.getIteration() < 20);
+    }
+
+    // maximizes cos(x), which is convex around pi
+    static class Cosine implements Optimizable.ByHessianVectorProduct {
+
+        double x;
+
+        Cosine(double x) {
+            this.x = x;
+        }
+
+        public void getHessianVectorProduct(double[] vector, double[] buffer) {
+            buffer[0] = -Math.cos(x) * vector[0];
+        }
+
+        public double getValue() {
+            return Math.cos(x);
+        }
+
+        public void getValueGradient(double[] buffer) {
+            buffer[0] = -Math.sin(x);
+        }
+
+        public int getNumParameters() {
+            return 1;
+        }
+
+        public void getParameters(double[] buffer) {
+            buffer[0] = x;
+        }
+
+        public double getParameter(int index) {
+            return x;
+        }
+
+        public void setParameters(double[] params) {
+            x = params[0];
+        }
+
+        public void setParameter(int index, double value) {
+            x = value;
+        }
+    }
+
+    public void testTruncatedNewtonNegativeCurvature() {
+        // the first CG direction has negative curvature, the Newton step
+        // falls back to the gradient without an inner iteration
+        Cosine cos = new Cosine(3.0);
+        TruncatedNewton newton = new TruncatedNewton(cos);
+        OptimizerStatistics stats = new OptimizerStatistics();
+        newton.setMetrics(stats);
+        assertFalse(newton.optimize(1));
+        assertEquals(1, newton.getIteration());
+        assertEquals(0, newton.getInnerIterations());
+        assertEquals(0, stats.getHistorySize());
+        assertTrue(cos.x < 3.0);
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestTruncatedNewton.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit tests for {@link Optimizable.ByValueAndGradient}.
+ */
+public class TestValueAndGradient extends TestCase {
+
+    public TestValueAndGradient(String name) {
+        super(name);
+    }
+
+    // SimplePoly that computes value and gradient in one go and counts the
+    // separate evaluations
+    static class FusedSimplePoly extends TestOptimizer.SimplePoly implements
+            Optimizable.ByValueAndGradient {
+
+        int separateGradients;
+        int fused;
+
+        public void getValueGradient(double[] buffer) {
+            separateGradients++;
+            super.getValueGradient(buffer);
+        }
+
+        public double getValueAndGradient(double[] buffer) {
+            fused++;
+            buffer[0] = -6 * params[0] + 5;
+            return -3 * params[0] * params[0] + 5 * params[0] - 2;
+        }
+    }
+
+    public void testValueAndGradientLBFGS() {
+        FusedSimplePoly poly = new FusedSimplePoly();
+        LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(poly);
+        bfgs.optimize();
+        assertEquals(5.0 / 6.0, poly.params[0], 1e-3);
+        assertTrue(poly.fused > 0);
+        assertEquals(0, poly.separateGradients);
+    }
+
+    public void testValueAndGradientConjugateGradient() {
+        FusedSimplePoly poly = new FusedSimplePoly();
+        ConjugateGradient cg = new ConjugateGradient(poly);
+        cg.optimize();
+        assertEquals(5.0 / 6.0, poly.params[0], 1e-3);
+        assertTrue(poly.fused > 0);
+        assertEquals(0, poly.separateGradients);
+    }
+
+    /**
+     * @return a <code>TestSuite</code>
+     */
+    public static TestSuite suite() {
+        return new TestSuite(TestValueAndGradient.class);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(suite());
+    }
+}
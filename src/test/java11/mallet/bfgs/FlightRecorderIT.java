@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.io.File;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the Flight Recorder events of {@code META-INF/versions/11}. Run by
+ * the failsafe plugin of the java11 profile against the packaged jar; the
+ * unit tests only see the placeholder in {@code target/classes}, which
+ * emits nothing.
+ */
+public class FlightRecorderIT extends TestCase {
+
+    public void testFlightRecorderEvents() throws Exception {
+        File file = File.createTempFile("mallet", ".jfr");
+        file.deleteOnExit();
+        IllConditionedQuadratic quad = new IllConditionedQuadratic(20);
+        LimitedMemoryBFGS bfgs = new LimitedMemoryBFGS(quad);
+        Recording recording = new Recording();
+        try {
+            recording.enable("mallet.bfgs.Iteration");
+            recording.enable("mallet.bfgs.LineSearch");
+            recording.enable("mallet.bfgs.Evaluation");
+            recording.start();
+            assertFalse(bfgs.optimize(5));
+            recording.stop();
+            recording.dump(file.toPath());
+        } finally {
+            recording.close();
+        }
+        int iterations = 0;
+        int lineSearches = 0;
+        int evaluations = 0;
+        for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+            String name = event.getEventType().getName();
+            if ("mallet.bfgs.Iteration".equals(name)) {
+                iterations++;
+                assertEquals(iterations, event.getInt("iteration"));
+                assertEquals("LimitedMemoryBFGS",
+                        event.getString("optimizer"));
+            } else if ("mallet.bfgs.LineSearch".equals(name)) {
+                lineSearches++;
+                assertTrue(event.getDouble("step") > 0.0);
+            } else if ("mallet.bfgs.Evaluation".equals(name)) {
+                evaluations++;
+            }
+        }
+        assertEquals(bfgs.getIteration(), iterations);
+        assertTrue(lineSearches >= iterations);
+        assertTrue(evaluations > lineSearches);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2016 Univ. of Massachusetts Amherst, Computer Science Dept.
+ * This file is part of "MALLET" (MAchine Learning for LanguagE Toolkit).
+ * http://mallet.cs.umass.edu/
+ * This software is licensed under the terms of the Apache License, Version 2.0
+ * or (at your option) any subsequent version.
+ */
+package mallet.bfgs;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the classes in {@code META-INF/versions/17} of the multi-release
+ * jar. Run by the failsafe plugin of the java17 profile against the packaged
+ * jar; the unit tests only see the placeholders in {@code target/classes}.
+ */
+public class MultiReleaseIT extends TestCase {
+
+    public void testSimdVectorKernels() {
+        // the placeholder is not a VectorKernels
+        assertTrue(VectorKernels.class
+                .isAssignableFrom(SimdVectorKernels.class));
+        VectorKernels simd = SimdVectorKernels.getInstance();
+        if (simd == null) {
+            // no SIMD support on this machine
+            return;
+        }
+        assertSame(simd, VectorKernels.DEFAULT);
+        Random r = new Random(42);
+        double[] a = new double[1001];
+        double[] b = new double[a.length];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = r.nextGaussian();
+            b[i] = r.nextGaussian();
+        }
+        assertEquals(MatrixOps.dotProduct(a, b), simd.dotProduct(a, b), 1e-10);
+        assertEquals(MatrixOps.twoNorm(a), simd.twoNorm(a), 1e-10);
+        assertEquals(MatrixOps.absNorm(a), simd.absNorm(a), 1e-10);
+        assertEquals(MatrixOps.infinityNorm(a), simd.infinityNorm(a), 0.0);
+        double[] c = a.clone();
+        MatrixOps.plusEquals(c, b, 0.5);
+        simd.plusEquals(a, b, 0.5);
+        for (int i = 0; i < a.length; i++) {
+            assertEquals(c[i], a[i], 1e-15);
+        }
+    }
+}